@@ -0,0 +1,89 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.benchmark;
+
+import org.torproject.descriptor.Descriptor;
+import org.torproject.descriptor.DescriptorParser;
+import org.torproject.descriptor.DescriptorSourceFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of parsing synthetic descriptors from a byte array, without
+ * any file I/O or decompression involved.
+ *
+ * <p>Each operation parses all descriptors of the given type and count,
+ * so that throughput in operations per second multiplied by the count
+ * gives descriptors, or status entries, per second.  Run with
+ * {@code -prof gc} to obtain the allocation rate per operation.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+  /** Type of descriptors to parse. */
+  @Param({ "server-descriptor", "extra-info", "microdescriptor",
+      "consensus" })
+  public String type;
+
+  /** Number of descriptors, or status entries in case of a consensus. */
+  @Param({ "1000" })
+  public int count;
+
+  /** Whether to parse parts of descriptors lazily. */
+  @Param({ "false", "true" })
+  public boolean lazyParsing;
+
+  private byte[] rawDescriptorBytes;
+
+  private DescriptorParser descriptorParser;
+
+  /** Generates descriptors once per trial. */
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.rawDescriptorBytes = SyntheticDescriptors.generate(
+        SyntheticDescriptors.Type.fromName(this.type), this.count);
+    this.descriptorParser = DescriptorSourceFactory.createDescriptorParser();
+    this.descriptorParser.setLazyParsing(this.lazyParsing);
+  }
+
+  /** Parses all descriptors at once. */
+  @Benchmark
+  public void parseDescriptors(Blackhole blackhole) {
+    for (Descriptor descriptor : this.descriptorParser.parseDescriptors(
+        this.rawDescriptorBytes, null, this.type)) {
+      blackhole.consume(descriptor);
+    }
+  }
+
+  /** Parses descriptors one by one while iterating over them. */
+  @Benchmark
+  public void parseDescriptorsIncrementally(Blackhole blackhole) {
+    Iterator<Descriptor> descriptors =
+        this.descriptorParser.parseDescriptorsIncrementally(
+        this.rawDescriptorBytes, null, this.type);
+    while (descriptors.hasNext()) {
+      blackhole.consume(descriptors.next());
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.benchmark;
+
+import org.torproject.descriptor.Descriptor;
+import org.torproject.descriptor.DescriptorReader;
+import org.torproject.descriptor.DescriptorSourceFactory;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of reading synthetic descriptors end to end, from descriptor
+ * files on disk or from a tarball to parsed descriptors provided by a
+ * {@link DescriptorReader}.
+ *
+ * <p>Each operation reads one file per descriptor type, with the given
+ * number of server descriptors, extra-info descriptors, microdescriptors,
+ * and status entries in a single consensus, or a tarball containing the
+ * same files as entries.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReaderBenchmark {
+
+  /** Whether to read plain descriptor files or a tarball. */
+  @Param({ "files", "tarball" })
+  public String source;
+
+  /** Number of descriptors of each type. */
+  @Param({ "1000" })
+  public int count;
+
+  /** Number of threads parsing descriptors. */
+  @Param({ "1", "4" })
+  public int parallelism;
+
+  /** Whether to memory-map plain descriptor files. */
+  @Param({ "false", "true" })
+  public boolean memoryMapping;
+
+  private File tempDirectory;
+
+  private File descriptorFiles;
+
+  /** Writes descriptor files or a tarball once per trial. */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.tempDirectory = Files.createTempDirectory("metrics-lib-").toFile();
+    if ("tarball".equals(this.source)) {
+      this.descriptorFiles = new File(this.tempDirectory, "descriptors.tar");
+      try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+          Files.newOutputStream(this.descriptorFiles.toPath()))) {
+        for (SyntheticDescriptors.Type type
+            : SyntheticDescriptors.Type.values()) {
+          byte[] bytes = SyntheticDescriptors.generate(type, this.count);
+          TarArchiveEntry entry = new TarArchiveEntry(type.name);
+          entry.setSize(bytes.length);
+          tar.putArchiveEntry(entry);
+          tar.write(bytes);
+          tar.closeArchiveEntry();
+        }
+      }
+    } else {
+      this.descriptorFiles = new File(this.tempDirectory, "descriptors");
+      this.descriptorFiles.mkdir();
+      for (SyntheticDescriptors.Type type
+          : SyntheticDescriptors.Type.values()) {
+        Files.write(new File(this.descriptorFiles, type.name).toPath(),
+            SyntheticDescriptors.generate(type, this.count));
+      }
+    }
+  }
+
+  /** Deletes descriptor files or the tarball after the trial. */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.delete(this.tempDirectory);
+  }
+
+  private void delete(File file) {
+    File[] files = file.listFiles();
+    if (null != files) {
+      for (File child : files) {
+        this.delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /** Reads and parses all descriptors. */
+  @Benchmark
+  public int readDescriptors(Blackhole blackhole) {
+    DescriptorReader descriptorReader =
+        DescriptorSourceFactory.createDescriptorReader();
+    descriptorReader.setParallelism(this.parallelism);
+    descriptorReader.setMemoryMapping(this.memoryMapping);
+    int descriptors = 0;
+    for (Descriptor descriptor
+        : descriptorReader.readDescriptors(this.descriptorFiles)) {
+      blackhole.consume(descriptor);
+      descriptors++;
+    }
+    return descriptors;
+  }
+}
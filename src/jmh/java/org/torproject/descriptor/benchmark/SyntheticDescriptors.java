@@ -0,0 +1,365 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generator of synthetic, syntactically valid descriptors for benchmarks
+ * that must not depend on real descriptor archives.
+ *
+ * <p>Generated descriptors are deterministic for a given type and count,
+ * so that results of different benchmark runs can be compared.  Keys and
+ * signatures are fixed and not valid, which does not matter to the
+ * parser.</p>
+ */
+public class SyntheticDescriptors {
+
+  /** Descriptor types that can be generated. */
+  public enum Type {
+
+    /** Server descriptors, one after another in a single file. */
+    SERVER_DESCRIPTOR("server-descriptor"),
+
+    /** Extra-info descriptors, one after another in a single file. */
+    EXTRA_INFO("extra-info"),
+
+    /** Microdescriptors, one after another in a single file. */
+    MICRODESCRIPTOR("microdescriptor"),
+
+    /** A single consensus with the given number of status entries. */
+    CONSENSUS("consensus");
+
+    /** Name used in benchmark parameters and file names. */
+    public final String name;
+
+    Type(String name) {
+      this.name = name;
+    }
+
+    /** Returns the type with the given name. */
+    public static Type fromName(String name) {
+      for (Type type : values()) {
+        if (type.name.equals(name)) {
+          return type;
+        }
+      }
+      throw new IllegalArgumentException("Unknown type: " + name);
+    }
+  }
+
+  private static final String RSA_KEY = "-----BEGIN RSA PUBLIC KEY-----\n"
+      + "MIGJAoGBAKM+iiHhO6eHsvd6Xjws9z9EQB1V/Bpuy5ciGJ1U4V9SeiKooSo5BpPL\n"
+      + "o3XT+6PIgzl3R6uycjS3Ejk47vLEJdcVTm/VG6E0ppu3olIynCI4QryfCEuC3cTF\n"
+      + "9wE4WXY4nX7w0RTN18UVLxrt1A9PP0cobFNiPs9rzJCbKFfacOkpAgMBAAE=\n"
+      + "-----END RSA PUBLIC KEY-----\n";
+
+  private static final String ED25519_CERT =
+      "-----BEGIN ED25519 CERT-----\n"
+      + "AQQABl17AS1Z6F5JxyZHugRB9Quk91/b2GrbjFLxkH9p+nQ5bNRXAQAgBABhsDhE\n"
+      + "ogXvtmAmmPPVx92oXZxrIKHI+rixmZ0nRwwq1PAAoRpvp+WM10B/cAbDFLMvu7M8\n"
+      + "y0rqqBCksRQqFJ1vH7HFDpGuA2k/8+wrueZkFndK+HpcgGnshDsiVAI6pAc=\n"
+      + "-----END ED25519 CERT-----\n";
+
+  private static final String SIGNATURE = "-----BEGIN SIGNATURE-----\n"
+      + "o4j+kH8UQfjBwepUnr99v0ebN8RpzHJ/lqYsTojXHy9kMr1RNI9IDeSzA7PSqTuV\n"
+      + "4PL8QsGtlfwthtIoZpB2srZeyN/mcpA9fa1JXUrt/UN9K/+32Cyaad7h0nHE6Xfb\n"
+      + "jqpXDpnBpvk4zjmzjjKYnIsUWTnADmu0fo3xTRqXi7g=\n"
+      + "-----END SIGNATURE-----\n";
+
+  private static final String PROTOCOLS = "Cons=1-2 Desc=1-2 DirCache=1 "
+      + "HSDir=1 HSIntro=3 HSRend=1-2 Link=1-4 LinkAuth=1 Microdesc=1-2 "
+      + "Relay=1-2";
+
+  private static final String[] COUNTRIES = new String[] { "de", "fr",
+      "us", "ru", "nl", "se", "ca", "gb", "??" };
+
+  /* Fixed point in time that all generated timestamps are based on. */
+  private static final long BASE_MILLIS = 1500310800000L;
+
+  private final Random random;
+
+  private final SimpleDateFormat dateTimeFormat;
+
+  private SyntheticDescriptors() {
+    this.random = new Random(2020L);
+    this.dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss",
+        Locale.US);
+    this.dateTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  /**
+   * Generates descriptors of the given type, including a type annotation
+   * for each of them.
+   *
+   * @param type Descriptor type.
+   * @param count Number of descriptors, or number of status entries in
+   *     case of a consensus.
+   * @return Generated descriptor bytes.
+   */
+  public static byte[] generate(Type type, int count) {
+    SyntheticDescriptors generator = new SyntheticDescriptors();
+    StringBuilder sb = new StringBuilder();
+    switch (type) {
+      case SERVER_DESCRIPTOR:
+        for (int i = 0; i < count; i++) {
+          generator.appendServerDescriptor(sb, i);
+        }
+        break;
+      case EXTRA_INFO:
+        for (int i = 0; i < count; i++) {
+          generator.appendExtraInfoDescriptor(sb, i);
+        }
+        break;
+      case MICRODESCRIPTOR:
+        for (int i = 0; i < count; i++) {
+          generator.appendMicrodescriptor(sb);
+        }
+        break;
+      case CONSENSUS:
+        generator.appendConsensus(sb, count);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown type: " + type);
+    }
+    return sb.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private void appendServerDescriptor(StringBuilder sb, int index) {
+    int bandwidth = this.bandwidth();
+    sb.append("@type server-descriptor 1.0\n")
+        .append("router ").append(this.nickname(index)).append(' ')
+        .append(this.address()).append(" 9001 0 0\n")
+        .append("identity-ed25519\n").append(ED25519_CERT)
+        .append("platform Tor 0.4.3.6 on Linux\n")
+        .append("proto ").append(PROTOCOLS).append('\n')
+        .append("published ").append(this.dateTime(-index)).append('\n')
+        .append("fingerprint ").append(this.fingerprint()).append('\n')
+        .append("uptime ").append(this.random.nextInt(1000000))
+        .append('\n')
+        .append("bandwidth ").append(bandwidth).append(' ')
+        .append(2 * bandwidth).append(' ').append(bandwidth / 2)
+        .append('\n')
+        .append("extra-info-digest ").append(this.hex(20)).append('\n')
+        .append("onion-key\n").append(RSA_KEY)
+        .append("signing-key\n").append(RSA_KEY)
+        .append("ntor-onion-key ").append(this.base64(32)).append('\n')
+        .append("family $").append(this.hex(20)).append(" $")
+        .append(this.hex(20)).append('\n')
+        .append("hidden-service-dir\n")
+        .append("contact Random Person <nobody AT example dot com>\n")
+        .append("accept *:80\naccept *:443\nreject *:*\n")
+        .append("ipv6-policy accept 80,443\n")
+        .append("tunnelled-dir-server\n")
+        .append("router-sig-ed25519 ").append(this.base64(64))
+        .append('\n')
+        .append("router-signature\n").append(SIGNATURE);
+  }
+
+  private void appendExtraInfoDescriptor(StringBuilder sb, int index) {
+    String published = this.dateTime(-index);
+    sb.append("@type extra-info 1.0\n")
+        .append("extra-info ").append(this.nickname(index)).append(' ')
+        .append(this.hex(20)).append('\n')
+        .append("published ").append(published).append('\n');
+    for (String history : new String[] { "write-history", "read-history",
+        "ipv6-write-history", "ipv6-read-history", "dirreq-write-history",
+        "dirreq-read-history" }) {
+      sb.append(history).append(' ').append(published)
+          .append(" (14400 s) ").append(this.longList(6)).append('\n');
+    }
+    sb.append("geoip-db-digest ").append(this.hex(20)).append('\n')
+        .append("dirreq-stats-end ").append(published)
+        .append(" (86400 s)\n")
+        .append("dirreq-v3-ips ").append(this.countryMap()).append('\n')
+        .append("dirreq-v3-reqs ").append(this.countryMap()).append('\n')
+        .append("dirreq-v3-resp ok=128,not-enough-sigs=0,unavailable=0,"
+            + "not-found=0,not-modified=40,busy=0\n")
+        .append("cell-stats-end ").append(published).append(" (86400 s)\n")
+        .append("cell-processed-cells ").append(this.intList(10))
+        .append('\n')
+        .append("cell-queued-cells ").append(this.doubleList(10))
+        .append('\n')
+        .append("cell-time-in-queue ").append(this.intList(10))
+        .append('\n')
+        .append("cell-circuits-per-decile ")
+        .append(this.random.nextInt(10000)).append('\n')
+        .append("entry-stats-end ").append(published)
+        .append(" (86400 s)\n")
+        .append("entry-ips ").append(this.countryMap()).append('\n')
+        .append("hidserv-stats-end ").append(published)
+        .append(" (86400 s)\n")
+        .append("hidserv-rend-relayed-cells ")
+        .append(this.random.nextInt(10000000))
+        .append(" delta_f=2048 epsilon=0.30 bin_size=1024\n")
+        .append("hidserv-dir-onions-seen ").append(this.random.nextInt(500))
+        .append(" delta_f=8 epsilon=0.30 bin_size=8\n")
+        .append("router-signature\n").append(SIGNATURE);
+  }
+
+  private void appendMicrodescriptor(StringBuilder sb) {
+    sb.append("@type microdescriptor 1.0\n")
+        .append("onion-key\n").append(RSA_KEY)
+        .append("ntor-onion-key ").append(this.base64(32)).append('\n')
+        .append("family $").append(this.hex(20)).append(" $")
+        .append(this.hex(20)).append('\n')
+        .append("p accept 80,443\n")
+        .append("id ed25519 ").append(this.base64(32)).append('\n');
+  }
+
+  private void appendConsensus(StringBuilder sb, int entries) {
+    sb.append("@type network-status-consensus-3 1.0\n")
+        .append("network-status-version 3\n")
+        .append("vote-status consensus\n")
+        .append("consensus-method 28\n")
+        .append("valid-after ").append(this.dateTime(0)).append('\n')
+        .append("fresh-until ").append(this.dateTime(1)).append('\n')
+        .append("valid-until ").append(this.dateTime(3)).append('\n')
+        .append("voting-delay 300 300\n")
+        .append("client-versions 0.3.5.10,0.4.2.7,0.4.3.6\n")
+        .append("server-versions 0.3.5.10,0.4.2.7,0.4.3.6\n")
+        .append("known-flags Authority BadExit Exit Fast Guard HSDir "
+            + "NoEdConsensus Running Stable StaleDesc V2Dir Valid\n")
+        .append("recommended-client-protocols ").append(PROTOCOLS)
+        .append('\n')
+        .append("recommended-relay-protocols ").append(PROTOCOLS)
+        .append('\n')
+        .append("required-client-protocols ").append(PROTOCOLS)
+        .append('\n')
+        .append("required-relay-protocols ").append(PROTOCOLS)
+        .append('\n')
+        .append("params CircuitPriorityHalflifeMsec=30000 "
+            + "NumDirectoryGuards=3 NumEntryGuards=1 UseOptimisticData=1\n");
+    String[] authorities = new String[9];
+    for (int i = 0; i < authorities.length; i++) {
+      authorities[i] = this.hex(20);
+      String address = this.address();
+      sb.append("dir-source authority").append(i).append(' ')
+          .append(authorities[i]).append(' ').append(address).append(' ')
+          .append(address).append(" 80 443\n")
+          .append("contact Random Person <nobody AT example dot com>\n")
+          .append("vote-digest ").append(this.hex(20)).append('\n');
+    }
+    for (int i = 0; i < entries; i++) {
+      sb.append("r ").append(this.nickname(i)).append(' ')
+          .append(this.base64(20)).append(' ').append(this.base64(20))
+          .append(' ').append(this.dateTime(-1 - i % 18)).append(' ')
+          .append(this.address()).append(" 9001 0\n")
+          .append(0 == i % 4 ? "s Exit Fast Guard Running Stable V2Dir "
+              + "Valid\n" : "s Fast Running Valid\n")
+          .append("v Tor 0.4.3.6\n")
+          .append("pr ").append(PROTOCOLS).append('\n')
+          .append("w Bandwidth=").append(this.bandwidth() / 1000)
+          .append('\n')
+          .append(0 == i % 4 ? "p accept 80,443\n" : "p reject 1-65535\n");
+    }
+    sb.append("directory-footer\n")
+        .append("bandwidth-weights Wbd=0 Wbe=0 Wbg=4085 Wbm=10000 "
+            + "Wdb=10000 Web=10000 Wed=10000 Wee=10000 Weg=10000 Wem=10000 "
+            + "Wgb=10000 Wgd=0 Wgg=5915 Wgm=5915 Wmb=10000 Wmd=0 Wme=0 "
+            + "Wmg=4085 Wmm=10000\n");
+    for (String authority : authorities) {
+      sb.append("directory-signature ").append(authority).append(' ')
+          .append(this.hex(20)).append('\n').append(SIGNATURE);
+    }
+  }
+
+  private String nickname(int index) {
+    return "Synthetic" + index;
+  }
+
+  private String address() {
+    return (1 + this.random.nextInt(223)) + "." + this.random.nextInt(256)
+        + "." + this.random.nextInt(256) + "."
+        + (1 + this.random.nextInt(254));
+  }
+
+  private int bandwidth() {
+    return 1000 + this.random.nextInt(10000000);
+  }
+
+  private String dateTime(int hoursAfterBase) {
+    return this.dateTimeFormat.format(BASE_MILLIS
+        + hoursAfterBase * 3600000L);
+  }
+
+  private String fingerprint() {
+    String hex = this.hex(20);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < hex.length(); i += 4) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(hex, i, i + 4);
+    }
+    return sb.toString();
+  }
+
+  private String hex(int length) {
+    byte[] bytes = new byte[length];
+    this.random.nextBytes(bytes);
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02X", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  private String base64(int length) {
+    byte[] bytes = new byte[length];
+    this.random.nextBytes(bytes);
+    return Base64.getEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  private String longList(int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append((long) this.random.nextInt(Integer.MAX_VALUE) * 16L);
+    }
+    return sb.toString();
+  }
+
+  private String intList(int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(this.random.nextInt(10000));
+    }
+    return sb.toString();
+  }
+
+  private String doubleList(int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(String.format(Locale.US, "%.2f",
+          this.random.nextDouble() * 1000.0));
+    }
+    return sb.toString();
+  }
+
+  private String countryMap() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < COUNTRIES.length; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(COUNTRIES[i]).append('=')
+          .append(8 * (1 + this.random.nextInt(100)));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,114 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.benchmark;
+
+import org.torproject.descriptor.Descriptor;
+import org.torproject.descriptor.DescriptorReader;
+import org.torproject.descriptor.DescriptorSourceFactory;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of reading a tarball with many small entries, each containing
+ * a single synthetic descriptor, which is dominated by extracting entry
+ * bytes rather than by parsing.
+ *
+ * <p>Run with {@code -prof gc}, which is the default for {@code ant jmh},
+ * to compare allocation rates per operation.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TarballEntryBenchmark {
+
+  /** Type of the descriptor in each tarball entry. */
+  @Param({ "microdescriptor", "server-descriptor" })
+  public String type;
+
+  /** Number of tarball entries. */
+  @Param({ "10000" })
+  public int entries;
+
+  private File tempDirectory;
+
+  private File tarball;
+
+  /** Writes the tarball once per trial. */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.tempDirectory = Files.createTempDirectory("metrics-lib-").toFile();
+    this.tarball = new File(this.tempDirectory, "descriptors.tar");
+    byte[] bytes = SyntheticDescriptors.generate(
+        SyntheticDescriptors.Type.fromName(this.type), 1);
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+        Files.newOutputStream(this.tarball.toPath()))) {
+      for (int i = 0; i < this.entries; i++) {
+        TarArchiveEntry entry = new TarArchiveEntry(this.type + "-" + i);
+        entry.setSize(bytes.length);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+      }
+    }
+  }
+
+  /** Deletes the tarball after the trial. */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.tarball.delete();
+    this.tempDirectory.delete();
+  }
+
+  /** Reads and parses all tarball entries. */
+  @Benchmark
+  public int readTarballEntries(Blackhole blackhole) {
+    DescriptorReader descriptorReader =
+        DescriptorSourceFactory.createDescriptorReader();
+    int descriptors = 0;
+    for (Descriptor descriptor
+        : descriptorReader.readDescriptors(this.tarball)) {
+      blackhole.consume(descriptor);
+      descriptors++;
+    }
+    return descriptors;
+  }
+
+  /** Reads and parses all tarball entries in batches of descriptors. */
+  @Benchmark
+  public int readTarballEntryBatches(Blackhole blackhole) {
+    DescriptorReader descriptorReader =
+        DescriptorSourceFactory.createDescriptorReader();
+    int descriptors = 0;
+    for (List<Descriptor> batch
+        : descriptorReader.readDescriptorBatches(100, this.tarball)) {
+      blackhole.consume(batch);
+      descriptors += batch.size();
+    }
+    return descriptors;
+  }
+}
@@ -49,5 +49,71 @@ public interface BandwidthHistory extends Serializable {
    * @since 1.0.0
    */
   SortedMap<Long, Long> getBandwidthValues();
+
+  /**
+   * Return the (possibly empty) bandwidth history as number of bytes used
+   * in each interval, ordered from oldest to newest interval, without
+   * boxing times or values.
+   *
+   * <p>The last value belongs to the interval ending at
+   * {@link #getHistoryEndMillis()}, and each value before that belongs to
+   * the interval ending {@link #getIntervalLength()} seconds
+   * earlier.</p>
+   *
+   * @since 2.15.0
+   */
+  long[] getBandwidthValueArray();
+
+  /**
+   * Consumer of bandwidth history values that accepts the time in
+   * milliseconds since the epoch when an interval ends and the number of
+   * bytes used in that interval.
+   *
+   * @since 2.15.0
+   */
+  @FunctionalInterface
+  interface IntervalConsumer {
+
+    /**
+     * Accept the number of bytes used in the interval ending at the given
+     * time.
+     *
+     * @param intervalEndMillis Time in milliseconds since the epoch when
+     *     the interval ends.
+     * @param bandwidthValue Number of bytes used in the interval.
+     *
+     * @since 2.15.0
+     */
+    void accept(long intervalEndMillis, long bandwidthValue);
+  }
+
+  /**
+   * Pass each interval end time and bandwidth value to the given consumer,
+   * ordered from oldest to newest interval, without boxing times or
+   * values.
+   *
+   * @param consumer Consumer of interval end times and bandwidth values.
+   *
+   * @since 2.15.0
+   */
+  void forEachBandwidthValue(IntervalConsumer consumer);
+
+  /**
+   * Return the total number of bytes used in all intervals.
+   *
+   * @since 2.15.0
+   */
+  long getTotalBandwidth();
+
+  /**
+   * Return the total number of bytes used in intervals ending at or after
+   * {@code startMillis} and before {@code endMillis}.
+   *
+   * @param startMillis Time in milliseconds since the epoch, inclusive.
+   * @param endMillis Time in milliseconds since the epoch, exclusive.
+   *
+   * @since 2.15.0
+   */
+  long getTotalBandwidth(long startMillis, long endMillis);
 }
 
@@ -60,5 +60,36 @@ public interface DescriptorCollector {
   void collectDescriptors(String collecTorBaseUrl,
       String[] remoteDirectories, long minLastModified,
       File localDirectory, boolean deleteExtraneousLocalFiles);
+
+  /**
+   * Fetch up to this number of remote files concurrently (default: 1).
+   *
+   * @param maxConnections Maximum number of concurrent connections to the
+   *     CollecTor instance, which must be at least 1.
+   *
+   * @since 2.15.0
+   */
+  void setMaxConnections(int maxConnections);
+
+  /**
+   * Retry fetching a remote file up to this number of times after a
+   * failed attempt that may succeed when trying again, like a failed or
+   * interrupted connection or a server error (default: 2).
+   *
+   * <p>A remote file that does not exist or cannot be accessed, which
+   * includes any HTTP(S) response code from 400 to 499, is not fetched
+   * again.  Retries are delayed by one second after the first failed attempt,
+   * and that delay is doubled after each further failed attempt.  When
+   * fetching via HTTP(S), a retry continues where the previous attempt
+   * stopped by requesting only the remaining bytes.  The same happens for
+   * partially fetched files left behind by a previous, interrupted
+   * collection, as long as the remote file has not changed since.</p>
+   *
+   * @param maxRetries Maximum number of retries per remote file, which
+   *     must be at least 0.
+   *
+   * @since 2.15.0
+   */
+  void setMaxRetries(int maxRetries);
 }
 
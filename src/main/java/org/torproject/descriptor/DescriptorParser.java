@@ -4,6 +4,7 @@
 package org.torproject.descriptor;
 
 import java.io.File;
+import java.util.Iterator;
 
 /**
  * Descriptor source that parses descriptors from raw descriptor contents.
@@ -40,4 +41,50 @@ public interface DescriptorParser {
    */
   Iterable<Descriptor> parseDescriptors(byte[] rawDescriptorBytes,
       File sourceFile, String fileName);
+
+  /**
+   * Parse descriptors in the given byte array one by one while iterating
+   * over them, rather than parsing all of them before returning.
+   *
+   * <p>This is useful for large files containing many descriptors of the
+   * same type, like concatenated server descriptors or microdescriptors,
+   * because it allows processing the first descriptor before the remaining
+   * descriptors are even located.  Descriptors that cannot be split are
+   * parsed as a whole before returning.  The returned iterator can only be
+   * used by a single thread.</p>
+   *
+   * @param rawDescriptorBytes Raw descriptor bytes containing one or more
+   *     descriptors
+   * @param sourceFile Optional descriptor source file reference, e.g., the name
+   *     of a tar file that contains descriptors, included in parsed/unparseable
+   *     descriptors.
+   * @param fileName Proper file name for the descriptor used as a parser hint,
+   *     publication time of some descriptor types
+   *
+   * @return Iterator over parsed/unparseable descriptors
+   *
+   * @since 2.15.0
+   */
+  Iterator<Descriptor> parseDescriptorsIncrementally(
+      byte[] rawDescriptorBytes, File sourceFile, String fileName);
+
+  /**
+   * Parse parts of descriptors only when accessing them for the first time
+   * (default: false).
+   *
+   * <p>This setting currently only affects status entries in network status
+   * consensuses, of which only the r line is parsed right away.  All other
+   * status entry lines are only located and then parsed when calling the
+   * corresponding getter method for the first time, which saves time and
+   * memory for applications that only use a few of them.</p>
+   *
+   * <p>As a consequence, a malformed status entry line does not make the
+   * entire consensus unparseable, but the getter method that attempts to
+   * parse that line throws an {@link IllegalStateException}.</p>
+   *
+   * @param lazyParsing Whether to parse parts of descriptors lazily.
+   *
+   * @since 2.15.0
+   */
+  void setLazyParsing(boolean lazyParsing);
 }
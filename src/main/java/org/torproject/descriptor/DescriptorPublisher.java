@@ -0,0 +1,36 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor;
+
+/**
+ * Provider of descriptors to a subscriber that requests descriptors as it
+ * is ready to process them, as returned by
+ * {@link DescriptorReader#publishDescriptors}.
+ *
+ * <p>This interface follows the contract of
+ * {@code java.util.concurrent.Flow.Publisher<Descriptor>} in Java 9 or
+ * higher, and the equivalent Reactive Streams interface, which makes it
+ * straightforward to adapt it to either of them.</p>
+ *
+ * @since 2.15.0
+ */
+@FunctionalInterface
+public interface DescriptorPublisher {
+
+  /**
+   * Add the given subscriber, which will receive a subscription via
+   * {@link DescriptorSubscriber#onSubscribe} and, after requesting them,
+   * descriptors via {@link DescriptorSubscriber#onNext}.
+   *
+   * <p>Publishers returned by {@link DescriptorReader} only permit a
+   * single subscriber.  Any further subscriber receives an
+   * {@code IllegalStateException} via
+   * {@link DescriptorSubscriber#onError}.</p>
+   *
+   * @param subscriber Subscriber to receive descriptors.
+   *
+   * @since 2.15.0
+   */
+  void subscribe(DescriptorSubscriber subscriber);
+}
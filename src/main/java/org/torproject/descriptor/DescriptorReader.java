@@ -4,7 +4,10 @@
 package org.torproject.descriptor;
 
 import java.io.File;
+import java.util.List;
 import java.util.SortedMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 /**
  * Descriptor source that reads descriptors from local files and provides
@@ -32,9 +35,14 @@ import java.util.SortedMap;
  *   }
  * }}</pre>
  *
+ * <p>Applications that may stop processing descriptors before reading
+ * all of them should close the reader, for example using a
+ * try-with-resources statement, in order to stop reading and release
+ * resources held for reading right away.</p>
+ *
  * @since 1.0.0
  */
-public interface DescriptorReader {
+public interface DescriptorReader extends AutoCloseable {
 
   /**
    * Set a history file to load before reading descriptors and exclude
@@ -48,6 +56,31 @@ public interface DescriptorReader {
    */
   void setHistoryFile(File historyFile);
 
+  /**
+   * Set a history file to load before reading descriptors and exclude
+   * descriptor files that haven't changed since they have last been read,
+   * and choose whether {@link #saveHistoryFile(File)} writes history
+   * files in the text format described in {@link #setHistoryFile(File)}
+   * or in a compact binary format.
+   *
+   * <p>The compact format stores 64-bit hashes of absolute paths together
+   * with last modified times in sorted order, which keeps memory usage
+   * and loading time low even for millions of files.  Saving the history
+   * to the same compact history file that was loaded only appends entries
+   * of newly parsed files, until appended entries outnumber sorted entries
+   * and the file is compacted.  The loaded history file may be in either
+   * format, so that a text history file is converted the first time the
+   * history is saved in compact format.  Calling
+   * {@link #setHistoryFile(File)} afterwards switches back to saving
+   * history files in text format.</p>
+   *
+   * @param historyFile History file in text or compact format.
+   * @param compactFormat Whether to save history files in compact format.
+   *
+   * @since 2.15.0
+   */
+  void setHistoryFile(File historyFile, boolean compactFormat);
+
   /**
    * Save a history file with file names and last modified timestamps of
    * descriptor files that exist in the input directory or directories and that
@@ -104,6 +137,269 @@ public interface DescriptorReader {
    */
   void setMaxDescriptorsInQueue(int maxDescriptorsInQueue);
 
+  /**
+   * Don't keep more than this number of bytes worth of descriptors in the
+   * queue, estimated as the sum of raw descriptor lengths plus a fixed
+   * overhead per parsed descriptor (default: no limit by size).
+   *
+   * <p>Limiting the queue by size rather than by number of descriptors
+   * bounds memory use when reading large descriptors like consensuses
+   * without slowing down reading small descriptors like microdescriptors.
+   * Unless a maximum number of descriptors in the queue has been set
+   * explicitly, the queue is then only limited by size.  A single
+   * descriptor is always added to an empty queue, even if it exceeds
+   * this size.</p>
+   *
+   * @param maxBytesInQueue Maximum number of bytes in the queue.
+   * @throws IllegalArgumentException Thrown if the given number of bytes
+   *     is smaller than 1.
+   *
+   * @since 2.15.0
+   */
+  void setMaxBytesInQueue(long maxBytesInQueue);
+
+  /**
+   * Parse descriptors using this number of threads (default: 1).
+   *
+   * <p>Descriptor files and tarballs are still read by a single thread,
+   * but if this number is greater than 1, contained descriptor files and
+   * tarball entries are handed over to a pool of parser threads and parsed
+   * concurrently.  Also, .tar.bz2 tarballs and .tar.xz tarballs
+   * consisting of more than one xz block of up to 64 MiB, like those
+   * written by {@code xz --threads}, are decompressed using up to this
+   * number of threads.</p>
+   *
+   * @param parallelism Number of threads parsing descriptors.
+   *
+   * @since 2.15.0
+   */
+  void setParallelism(int parallelism);
+
+  /**
+   * Traverse given directories using this number of threads (default: 1).
+   *
+   * <p>If this number is greater than 1, directories are listed and file
+   * attributes are read on a pool of traversal threads, with
+   * subdirectories being traversed concurrently, and descriptor files are
+   * read as soon as they are found.  This can considerably speed up
+   * finding files in large directory trees on network file systems, where
+   * reading file attributes is slow.  Descriptor files are then read in
+   * no particular order, though still before any tarballs.</p>
+   *
+   * @param traversalParallelism Number of threads traversing directories.
+   *
+   * @since 2.15.0
+   */
+  void setTraversalParallelism(int traversalParallelism);
+
+  /**
+   * Provide descriptors in the order in which their descriptor files and
+   * tarball entries were read (default: true).
+   *
+   * <p>This setting only has an effect when parsing descriptors using more
+   * than one thread.  Relaxing the order allows the reader to provide
+   * descriptors as soon as they are parsed, rather than waiting for
+   * descriptors read earlier that take longer to parse.  Descriptors
+   * contained in the same descriptor file or tarball entry are always
+   * provided in their original order.</p>
+   *
+   * @param preserveOrder Whether to preserve the original order.
+   *
+   * @since 2.15.0
+   */
+  void setPreserveOrder(boolean preserveOrder);
+
+  /**
+   * Parse parts of descriptors only when accessing them for the first time
+   * (default: false).
+   *
+   * <p>See {@link DescriptorParser#setLazyParsing(boolean)} for details.</p>
+   *
+   * @param lazyParsing Whether to parse parts of descriptors lazily.
+   *
+   * @since 2.15.0
+   */
+  void setLazyParsing(boolean lazyParsing);
+
+  /**
+   * Memory-map uncompressed descriptor files rather than reading them into
+   * memory as a whole (default: false).
+   *
+   * <p>Memory-mapped descriptor files containing one or more descriptors
+   * of the same type, like cached-descriptors or cached-microdescs files,
+   * are split into descriptors directly in the mapped file, and only the
+   * bytes of single descriptors are copied into memory for parsing.  This
+   * keeps memory usage low regardless of descriptor file size.  Descriptor
+   * files containing descriptors that cannot be split, compressed
+   * descriptor files, and tarballs are still read into memory as a
+   * whole.</p>
+   *
+   * @param memoryMapping Whether to memory-map uncompressed descriptor
+   *     files.
+   *
+   * @since 2.15.0
+   */
+  void setMemoryMapping(boolean memoryMapping);
+
+  /**
+   * Only provide descriptors that are instances of one of the given
+   * descriptor types, like {@code RelayNetworkStatusConsensus.class}, and
+   * skip all other descriptors without parsing them (default: provide
+   * descriptors of all types).
+   *
+   * <p>The type of descriptors in a descriptor file or tarball entry is
+   * detected from its first bytes, so that descriptor files and tarball
+   * entries containing descriptors of other types, or of unknown type,
+   * are skipped as a whole.  Skipped descriptor files are still included
+   * in parsed files and in the parse history.  Descriptors of wanted types
+   * that cannot be parsed are still provided as
+   * {@link UnparseableDescriptor}.</p>
+   *
+   * <p>If descriptor type annotations are set using
+   * {@link #setDescriptorTypeAnnotations(String...)}, descriptors matching
+   * either the given descriptor types or the given annotations are
+   * provided.</p>
+   *
+   * @param descriptorTypes Descriptor interfaces, all of which must extend
+   *     {@link Descriptor}.
+   *
+   * @throws IllegalArgumentException If a given type does not extend
+   *     {@link Descriptor}.
+   *
+   * @since 2.15.0
+   */
+  void setDescriptorTypes(Class<?>... descriptorTypes);
+
+  /**
+   * Only provide descriptors starting with an {@code @type} annotation
+   * using one of the given names, like {@code "network-status-consensus-3"}
+   * for {@code @type network-status-consensus-3 1.0}, regardless of the
+   * annotation version, and skip all other descriptors without parsing
+   * them (default: provide descriptors of all types).
+   *
+   * <p>Descriptors without {@code @type} annotation can only be selected
+   * using {@link #setDescriptorTypes(Class...)}, which is otherwise
+   * equivalent to this method.</p>
+   *
+   * @param descriptorTypeAnnotations Names in {@code @type} annotations.
+   *
+   * @since 2.15.0
+   */
+  void setDescriptorTypeAnnotations(String... descriptorTypeAnnotations);
+
+  /**
+   * Only provide descriptors from descriptor files and tarball entries
+   * with a timestamp in the given time window, and skip all others with a
+   * timestamp outside of it without parsing them (default: provide
+   * descriptors regardless of their time).
+   *
+   * <p>Timestamps are taken from file names following CollecTor's naming
+   * conventions, like {@code "2020-05-01-12-00-00-consensus"} for network
+   * statuses, votes, and exit lists or
+   * {@code "20200501-120000-<fingerprint>"} for bridge network statuses.
+   * If the file name does not start with a timestamp, the timestamp is
+   * taken from the {@code valid-after} line near the start of a network
+   * status.  Descriptor files and tarball entries skipped by their file
+   * name are not even read completely.  Descriptor files and tarball
+   * entries without any of these timestamps, like server descriptors or
+   * microdescriptors, are always provided.</p>
+   *
+   * @param startMillis Start of the time window in milliseconds since
+   *     the epoch, inclusive.
+   * @param endMillis End of the time window in milliseconds since the
+   *     epoch, exclusive.
+   * @throws IllegalArgumentException Thrown if the end of the time window
+   *     is before its start.
+   *
+   * @since 2.15.0
+   */
+  void setTimeWindow(long startMillis, long endMillis);
+
+  /**
+   * Keep raw descriptors of tarballs and descriptor files in the given
+   * cache directory, so that reading them again while they remain
+   * unmodified skips decompressing them, detecting descriptor types,
+   * skipping unwanted descriptors, and splitting descriptors, and only
+   * parses descriptors again (default: don't cache anything).
+   *
+   * <p>Cache files are keyed by absolute path, last-modified time, and
+   * size of the tarball or descriptor file and contain the raw bytes of
+   * its wanted descriptors together with their locations and types, in a
+   * versioned binary format.  They are also keyed by the settings made
+   * using {@link #setDescriptorTypes(Class...)},
+   * {@link #setDescriptorTypeAnnotations(String...)},
+   * {@link #setTimeWindow(long, long)}, and
+   * {@link #setLazyParsing(boolean)}, and only contain descriptors
+   * provided with these settings, so that reading with other settings
+   * reads the tarball or descriptor file again.  Whenever cache files
+   * grow beyond the given total size, the least recently used cache files
+   * are deleted.</p>
+   *
+   * @param cacheDirectory Directory for cache files, which is created if
+   *     it does not exist yet, or null for not caching anything.
+   * @param maxCacheBytes Maximum total size of cache files in bytes.
+   *
+   * @throws IllegalArgumentException If the maximum total size is
+   *     negative.
+   *
+   * @since 2.15.0
+   */
+  void setCacheDirectory(File cacheDirectory, long maxCacheBytes);
+
+  /**
+   * Read and decompress tarballs on separate read-ahead threads into
+   * buffers of up to the given number of bytes, and start reading and
+   * decompressing the next tarball when starting to read the current
+   * tarball (default: 0, which reads and decompresses tarballs in the
+   * thread parsing them, one after another).
+   *
+   * <p>Reading ahead overlaps disk I/O and decompression with parsing, in
+   * particular when reading many tarballs, at the cost of keeping up to
+   * twice the given number of decompressed bytes in memory.  Tarballs read
+   * from the cache directory set by
+   * {@link #setCacheDirectory(File, long)} are not read ahead.</p>
+   *
+   * @param readAheadBytes Maximum number of bytes to read ahead per
+   *     tarball, or 0 for not reading ahead.
+   * @throws IllegalArgumentException Thrown if the given number of bytes
+   *     is negative.
+   *
+   * @since 2.15.0
+   */
+  void setReadAheadBytes(int readAheadBytes);
+
+  /**
+   * Return statistics on reading and parsing descriptors, which are
+   * updated while reading and can be retrieved at any time, including
+   * before starting to read and while reading.
+   *
+   * @return Statistics on reading and parsing descriptors.
+   *
+   * @since 2.15.0
+   */
+  ReaderStatistics getStatistics();
+
+  /**
+   * Stop reading descriptors and release all resources held for reading,
+   * including the reader thread started by {@link #readDescriptors} or
+   * {@link #readDescriptorBatches}.
+   *
+   * <p>Descriptors that have been read but not provided yet are
+   * discarded, and iterators, streams, and subscriptions end early as if
+   * there were no more descriptors.  The reader thread stops before
+   * reading the next descriptor file or tarball entry, and any tarball,
+   * decompression threads, and parser threads are closed or shut down.
+   * After closing the reader before it has finished reading,
+   * {@link #getParsedFiles()}, {@link #getExcludedFiles()}, and
+   * {@link #saveHistoryFile(File)} are not permitted.  This method may be
+   * called from any thread and more than once, and it has no effect
+   * after reading has finished.</p>
+   *
+   * @since 2.15.0
+   */
+  @Override
+  void close();
+
   /**
    * Read descriptors from the given descriptor file(s) and return the parsed
    * descriptors.
@@ -120,5 +416,110 @@ public interface DescriptorReader {
    * @since 1.9.0
    */
   Iterable<Descriptor> readDescriptors(File... descriptorFiles);
+
+  /**
+   * Read descriptors from the given descriptor file(s) and return the parsed
+   * descriptors in batches.
+   *
+   * <p>This method works like {@link #readDescriptors(File...)}, except
+   * that the reader thread hands over lists of up to the given number of
+   * descriptors at once rather than single descriptors, which reduces the
+   * overhead of passing descriptors between threads when reading many
+   * small descriptors like microdescriptors or server descriptors.
+   * Batches contain descriptors in the order in which
+   * {@link #readDescriptors(File...)} would provide them, possibly from
+   * more than one descriptor file or tarball entry, and only the last
+   * batch may contain fewer descriptors than the given number.  The
+   * maximum number of descriptors or bytes in the queue applies to all
+   * descriptors in queued batches.  This method can only be run once.</p>
+   *
+   * @param maxBatchSize Maximum number of descriptors in a batch.
+   * @param descriptorFiles One or more directories, tarballs, or files
+   *     containing descriptors.
+   *
+   * @return Batches of parsed descriptors.
+   *
+   * @throws IllegalArgumentException Thrown if the given maximum number of
+   *     descriptors in a batch is smaller than 1.
+   *
+   * @since 2.15.0
+   */
+  Iterable<List<Descriptor>> readDescriptorBatches(int maxBatchSize,
+      File... descriptorFiles);
+
+  /**
+   * Read descriptors from the given descriptor file(s) and provide the
+   * parsed descriptors to a single subscriber as it requests them.
+   *
+   * <p>Unlike {@link #readDescriptors}, this method does not start a
+   * reader thread and does not block the caller.  Descriptors are read and
+   * parsed by tasks run on the given executor only as long as the
+   * subscriber has outstanding requests, and no thread is held while
+   * waiting for further requests.  This allows for running many readers
+   * concurrently on a small executor.  Parser threads configured via
+   * {@link #setParallelism(int)} are still used if configured.  Either
+   * this method or {@link #readDescriptors} can only be run once.</p>
+   *
+   * <p>Reading starts when the subscriber requests descriptors for the
+   * first time.  After the subscriber has received all descriptors,
+   * {@link #getExcludedFiles()}, {@link #getParsedFiles()}, and
+   * {@link #saveHistoryFile(File)} can be used just like after reading
+   * descriptors using {@link #readDescriptors}.</p>
+   *
+   * @param executor Executor for running tasks that read and parse
+   *     descriptors and provide them to the subscriber.
+   * @param descriptorFiles One or more directories, tarballs, or files
+   *     containing descriptors.
+   *
+   * @return Publisher for a single subscriber.
+   *
+   * @since 2.15.0
+   */
+  DescriptorPublisher publishDescriptors(Executor executor,
+      File... descriptorFiles);
+
+  /**
+   * Read descriptors from the given descriptor file(s) and return a stream
+   * of parsed descriptors that can be processed in parallel.
+   *
+   * <p>Descriptors are only read and parsed while the stream is being
+   * processed, by the threads processing it.  A parallel stream first
+   * splits its work between descriptor files and tarballs, and further
+   * splits off batches of entries from a tarball or of descriptors from a
+   * memory-mapped descriptor file, which are then parsed concurrently.
+   * Tarballs are still read and decompressed by a single thread at a time.
+   * The parser threads of {@link #setParallelism(int)} and the setting of
+   * {@link #setPreserveOrder(boolean)} are not used; the encounter order
+   * of the stream is the order in which {@link #readDescriptors} would
+   * provide descriptors.  Either this method, {@link #readDescriptors}, or
+   * {@link #publishDescriptors} can only be run once.</p>
+   *
+   * <p>After all descriptors have been processed,
+   * {@link #getExcludedFiles()}, {@link #getParsedFiles()}, and
+   * {@link #saveHistoryFile(File)} can be used just like after reading
+   * descriptors using {@link #readDescriptors}.  Streams that are not
+   * processed completely, for example when using
+   * {@link Stream#findFirst()}, should be closed in order to release any
+   * open tarballs and memory-mapped files.</p>
+   *
+   * <p>Code sample:</p>
+   * <pre>{@code
+   * try (Stream<Descriptor> descriptors =
+   *     descriptorReader.readDescriptorsAsStream(new File("in"))) {
+   *   long relays = descriptors.parallel()
+   *       .filter(d -> d instanceof RelayNetworkStatusConsensus)
+   *       .mapToLong(d -> ((RelayNetworkStatusConsensus) d)
+   *           .getStatusEntries().size())
+   *       .sum();
+   * }}</pre>
+   *
+   * @param descriptorFiles One or more directories, tarballs, or files
+   *     containing descriptors.
+   *
+   * @return Sequential stream of parsed descriptors.
+   *
+   * @since 2.15.0
+   */
+  Stream<Descriptor> readDescriptorsAsStream(File... descriptorFiles);
 }
 
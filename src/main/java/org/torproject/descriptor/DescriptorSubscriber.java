@@ -0,0 +1,54 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor;
+
+/**
+ * Receiver of descriptors from a {@link DescriptorPublisher}.
+ *
+ * <p>This interface follows the contract of
+ * {@code java.util.concurrent.Flow.Subscriber<Descriptor>} in Java 9 or
+ * higher.  Methods are invoked sequentially, though not necessarily by
+ * the same thread.</p>
+ *
+ * @since 2.15.0
+ */
+public interface DescriptorSubscriber {
+
+  /**
+   * Receive the subscription for requesting descriptors, before receiving
+   * any other calls.
+   *
+   * @param subscription Subscription for requesting descriptors.
+   *
+   * @since 2.15.0
+   */
+  void onSubscribe(DescriptorSubscription subscription);
+
+  /**
+   * Receive the next descriptor, which has been requested before.
+   *
+   * @param descriptor Parsed or unparseable descriptor.
+   *
+   * @since 2.15.0
+   */
+  void onNext(Descriptor descriptor);
+
+  /**
+   * Receive an error that terminates the subscription, after which no
+   * further calls are made.
+   *
+   * @param throwable Error that terminated the subscription.
+   *
+   * @since 2.15.0
+   */
+  void onError(Throwable throwable);
+
+  /**
+   * Be notified that all descriptors have been provided, after which no
+   * further calls are made.
+   *
+   * @since 2.15.0
+   */
+  void onComplete();
+}
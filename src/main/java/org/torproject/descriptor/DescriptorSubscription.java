@@ -0,0 +1,43 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor;
+
+/**
+ * Link between a {@link DescriptorPublisher} and a
+ * {@link DescriptorSubscriber} for requesting descriptors or cancelling
+ * the subscription.
+ *
+ * <p>This interface follows the contract of
+ * {@code java.util.concurrent.Flow.Subscription} in Java 9 or higher.</p>
+ *
+ * @since 2.15.0
+ */
+public interface DescriptorSubscription {
+
+  /**
+   * Request the given number of additional descriptors.
+   *
+   * <p>Descriptors are only read and parsed as long as there are
+   * outstanding requests, except for reading ahead as far as necessary to
+   * tell whether there are any descriptors left.  Requesting
+   * {@code Long.MAX_VALUE} descriptors effectively requests all remaining
+   * descriptors.  Requesting zero or a negative number of descriptors
+   * terminates the subscription with an
+   * {@code IllegalArgumentException}.</p>
+   *
+   * @param n Number of additional descriptors to request.
+   *
+   * @since 2.15.0
+   */
+  void request(long n);
+
+  /**
+   * Stop receiving descriptors, possibly after receiving descriptors
+   * that have been requested before, and release resources held for
+   * reading them.
+   *
+   * @since 2.15.0
+   */
+  void cancel();
+}
@@ -0,0 +1,150 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor;
+
+import java.util.Map;
+import javax.management.MXBean;
+
+/**
+ * Statistics on reading and parsing descriptors by a
+ * {@link DescriptorReader}, which are updated while reading.
+ *
+ * <p>Statistics tell whether reading is slowed down by reading files,
+ * by decompressing them, by parsing descriptors, or by the application
+ * processing parsed descriptors.  All values are cumulative since the
+ * reader was created, except for the current queue size.  Values are
+ * updated using counters with low overhead, and reading them while
+ * descriptors are being read may return values that are slightly
+ * behind.</p>
+ *
+ * <p>This interface is an MXBean interface, so that statistics can be
+ * monitored via JMX after registering them with an MBean server:</p>
+ *
+ * <pre>{@code
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(
+ *     descriptorReader.getStatistics(),
+ *     new ObjectName("org.torproject.descriptor:type=ReaderStatistics"));
+ * }</pre>
+ *
+ * @since 2.15.0
+ */
+@MXBean
+public interface ReaderStatistics {
+
+  /**
+   * Return the number of bytes read from descriptor files and tarballs
+   * as stored on disk, counted as they are read, which excludes bytes
+   * read from cache files instead.
+   *
+   * @return Number of bytes read.
+   *
+   * @since 2.15.0
+   */
+  long getBytesRead();
+
+  /**
+   * Return the number of bytes read from cache files instead of
+   * descriptor files and tarballs, if a cache directory has
+   * been set using
+   * {@link DescriptorReader#setCacheDirectory(java.io.File, long)}.
+   *
+   * @return Number of bytes read from cache files.
+   *
+   * @since 2.15.0
+   */
+  long getCacheBytesRead();
+
+  /**
+   * Return the total size of descriptor files and tarball entries after
+   * decompressing them, including uncompressed files, that have been
+   * handed over for parsing.
+   *
+   * @return Number of bytes handed over for parsing.
+   *
+   * @since 2.15.0
+   */
+  long getBytesDecompressed();
+
+  /**
+   * Return the number of parsed descriptors by descriptor type, using the
+   * simple names of descriptor interfaces like
+   * {@code "RelayServerDescriptor"} or {@code "UnparseableDescriptor"},
+   * including descriptors parsed again from cache files.
+   *
+   * @return Number of parsed descriptors by type.
+   *
+   * @since 2.15.0
+   */
+  Map<String, Long> getDescriptorsParsed();
+
+  /**
+   * Return the time spent parsing descriptors by descriptor type, using
+   * the same type names as {@link #getDescriptorsParsed()}, summed up
+   * over all threads parsing descriptors.
+   *
+   * @return Parse time in nanoseconds by type.
+   *
+   * @since 2.15.0
+   */
+  Map<String, Long> getParseNanos();
+
+  /**
+   * Return the number of descriptors that could not be parsed and were
+   * provided as {@link UnparseableDescriptor}.
+   *
+   * @return Number of unparseable descriptors.
+   *
+   * @since 2.15.0
+   */
+  long getUnparseableDescriptors();
+
+  /**
+   * Return the number of parsed descriptors currently waiting in the
+   * queue of a reader started with
+   * {@link DescriptorReader#readDescriptors(java.io.File...)}, the number
+   * of batches of descriptors for a reader started with
+   * {@link DescriptorReader#readDescriptorBatches(int, java.io.File...)},
+   * or 0 for readers not using a queue.
+   *
+   * @return Current number of descriptors or batches in the queue.
+   *
+   * @since 2.15.0
+   */
+  int getQueueSize();
+
+  /**
+   * Return the estimated number of bytes of parsed descriptors currently
+   * waiting in the queue of a reader with a maximum number of bytes in
+   * the queue as set by {@link DescriptorReader#setMaxBytesInQueue(long)},
+   * or 0 for readers not limiting the queue by size.
+   *
+   * @return Current estimated number of bytes in the queue.
+   *
+   * @since 2.15.0
+   */
+  long getQueueBytes();
+
+  /**
+   * Return the time that the reader thread spent waiting for room in the
+   * queue, which indicates that the application processes descriptors
+   * more slowly than they are read and parsed.
+   *
+   * @return Time spent waiting for room in the queue in nanoseconds.
+   *
+   * @since 2.15.0
+   */
+  long getProducerWaitNanos();
+
+  /**
+   * Return the time that the application spent waiting for descriptors
+   * in the queue, which indicates that reading and parsing descriptors
+   * is slower than processing them.
+   *
+   * @return Time spent waiting for descriptors in the queue in
+   *     nanoseconds.
+   *
+   * @since 2.15.0
+   */
+  long getConsumerWaitNanos();
+}
@@ -103,5 +103,45 @@ public class BandwidthHistoryImpl implements BandwidthHistory {
     }
     return result;
   }
+
+  @Override
+  public long[] getBandwidthValueArray() {
+    return this.bandwidthValues == null ? new long[0]
+        : this.bandwidthValues.clone();
+  }
+
+  @Override
+  public void forEachBandwidthValue(IntervalConsumer consumer) {
+    if (this.bandwidthValues != null) {
+      long intervalMillis = this.intervalLength * 1000L;
+      long endMillis = this.historyEndMillis
+          - (this.bandwidthValues.length - 1) * intervalMillis;
+      for (long bandwidthValue : this.bandwidthValues) {
+        consumer.accept(endMillis, bandwidthValue);
+        endMillis += intervalMillis;
+      }
+    }
+  }
+
+  @Override
+  public long getTotalBandwidth() {
+    return this.getTotalBandwidth(Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  @Override
+  public long getTotalBandwidth(long startMillis, long endMillis) {
+    long total = 0L;
+    if (this.bandwidthValues != null) {
+      long intervalEndMillis = this.historyEndMillis;
+      for (int i = this.bandwidthValues.length - 1; i >= 0
+          && intervalEndMillis >= startMillis; i--) {
+        if (intervalEndMillis < endMillis) {
+          total += this.bandwidthValues[i];
+        }
+        intervalEndMillis -= this.intervalLength * 1000L;
+      }
+    }
+    return total;
+  }
 }
 
@@ -4,71 +4,339 @@
 package org.torproject.descriptor.impl;
 
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.NoSuchElementException;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToLongFunction;
 
 /* Provide an iterator for a queue of objects and block when there are
  * currently no objects in the queue.  Allow the producer to signal that
- * there won't be further objects and unblock any waiting consumers. */
+ * there won't be further objects and unblock any waiting consumers.
+ *
+ * The queue is a bounded ring buffer that producers and consumers access
+ * without taking a lock: each slot carries a sequence number that tells
+ * whether the slot is ready to be written or read at a given position,
+ * and producers and consumers claim positions by atomically incrementing
+ * the tail and head counters.  Producers waiting for room and consumers
+ * waiting for objects first spin, then yield, and finally register as
+ * waiting, check once more, and park until the other side wakes up all
+ * registered waiters.  Slot sequence numbers are written with volatile
+ * stores, so that a thread registering as waiting and the other side
+ * making progress right before waking up waiters cannot miss each
+ * other.
+ *
+ * The queue can optionally be bounded by the total weight of contained
+ * objects, in addition to their number, so that a few large objects
+ * don't take up as much memory as many small objects.  An object is
+ * always added to an empty queue, even if it weighs more than the
+ * budget. */
 public class BlockingIteratorImpl<T> implements Iterator<T>, Iterable<T> {
 
-  /* Queue containing produced elemnts waiting for consumers. */
-  private Queue<T> queue = new LinkedList<>();
+  /* Number of attempts to busy-spin before yielding, which only makes
+   * sense if the other side can make progress on another processor. */
+  private static final int SPINS =
+      Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+
+  /* Number of attempts to yield before parking. */
+  private static final int YIELDS = 100;
+
+  /* Maximum number of slots, so that a very large maximum queue size
+   * doesn't allocate huge arrays up front.  A queue with a larger maximum
+   * size is bounded by its number of slots instead, which only makes
+   * producers wait for consumers earlier. */
+  private static final int MAX_CAPACITY = 1 << 16;
 
   /* Maximum number of elements in queue. */
   private int maxQueueSize = 100;
 
+  /* Number of slots, which is at least 2, because with a single slot the
+   * sequence number of a slot containing an element for reading at
+   * position p would be the same as the one of a free slot at position
+   * p + 1, and at most MAX_CAPACITY. */
+  private int capacity;
+
+  /* Slots containing produced elements waiting for consumers. */
+  private Object[] elements;
+
+  /* Function for weighing elements, or null if the queue is only bounded
+   * by the number of elements. */
+  private ToLongFunction<? super T> weigher;
+
+  /* Maximum total weight of elements in queue. */
+  private long maxQueueWeight = Long.MAX_VALUE;
+
+  /* Weights of elements in slots, or null if not weighing elements. */
+  private long[] weights;
+
+  /* Total weight of elements currently in the queue. */
+  private AtomicLong queueWeight = new AtomicLong();
+
+  /* Sequence numbers of slots: a slot at position p is free for writing if
+   * its sequence number is p, and it contains an element for reading if
+   * its sequence number is p + 1. */
+  private AtomicLongArray sequences;
+
+  /* Next position to be written by a producer. */
+  private AtomicLong tail = new AtomicLong();
+
+  /* Next position to be read by a consumer. */
+  private AtomicLong head = new AtomicLong();
+
+  /* Threads currently waiting for room or for elements, which may be
+   * several producers and, in turn, several consumers. */
+  private Set<Thread> waitingProducers = ConcurrentHashMap.newKeySet();
+
+  private Set<Thread> waitingConsumers = ConcurrentHashMap.newKeySet();
+
+  /* Element taken from the queue by hasNext() and not yet returned by
+   * next(), guarded by this iterator's lock. */
+  private T nextElement;
+
+  /* Total time that producers waited for room and that consumers waited
+   * for elements, only measured when having to wait. */
+  private LongAdder producerWaitNanos = new LongAdder();
+
+  private LongAdder consumerWaitNanos = new LongAdder();
+
   /* Create instance with maximum queue size. */
   protected BlockingIteratorImpl(Integer maxQueueSize) {
     if (null != maxQueueSize) {
+      if (maxQueueSize < 1) {
+        throw new IllegalArgumentException("Maximum queue size must be at "
+            + "least 1, but is " + maxQueueSize + ".");
+      }
       this.maxQueueSize = maxQueueSize;
     }
+    this.capacity = Math.max(2, Math.min(MAX_CAPACITY, this.maxQueueSize));
+    this.elements = new Object[this.capacity];
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      this.sequences.set(i, i);
+    }
+  }
+
+  /* Create instance with maximum queue size and maximum total weight of
+   * elements in the queue as determined by the given function. */
+  protected BlockingIteratorImpl(Integer maxQueueSize, long maxQueueWeight,
+      ToLongFunction<? super T> weigher) {
+    this(maxQueueSize);
+    if (maxQueueWeight < 1L) {
+      throw new IllegalArgumentException("Maximum queue weight must be at "
+          + "least 1, but is " + maxQueueWeight + ".");
+    }
+    this.maxQueueWeight = maxQueueWeight;
+    this.weigher = weigher;
+    this.weights = new long[this.capacity];
   }
 
   /* Add an object to the queue if there's still room. */
-  protected synchronized void add(T object) {
+  protected void add(T object) {
     if (this.outOfDescriptors) {
       throw new IllegalStateException("Internal error: Adding results to "
           + "descriptor queue not allowed after sending end-of-stream "
           + "object.");
     }
-    while (this.queue.size() >= this.maxQueueSize) {
+    long weight = null == this.weigher ? 0L
+        : this.weigher.applyAsLong(object);
+    int attempt = 0;
+    long waitStarted = 0L;
+    while (!this.isClosed && !this.offer(object, weight)) {
+      if (0 == attempt) {
+        waitStarted = System.nanoTime();
+      }
+      this.await(attempt++, this.waitingProducers,
+          () -> this.isClosed || this.hasRoom(weight));
+    }
+    if (attempt > 0) {
+      this.producerWaitNanos.add(System.nanoTime() - waitStarted);
+    }
+    this.wakeUp(this.waitingConsumers);
+  }
+
+  /* Return whether there currently appears to be room for an object with
+   * the given weight, without claiming it. */
+  private boolean hasRoom(long weight) {
+    long position = this.tail.get();
+    long queueWeight = this.queueWeight.get();
+    return position - this.head.get() < this.maxQueueSize
+        && (queueWeight <= 0L || queueWeight + weight <= this.maxQueueWeight)
+        && this.sequences.get((int) (position % this.capacity)) == position;
+  }
+
+  /* Return whether there currently appears to be an object to take. */
+  private boolean hasElement() {
+    long position = this.head.get();
+    return this.sequences.get((int) (position % this.capacity))
+        == position + 1L;
+  }
+
+  /* Try to add an object with the given weight to the queue and return
+   * whether there was room.  The weight budget is checked before claiming
+   * a slot, so that concurrent producers may exceed it slightly. */
+  private boolean offer(T object, long weight) {
+    long position = this.tail.get();
+    while (true) {
+      if (position - this.head.get() >= this.maxQueueSize) {
+        return false;
+      }
+      long queueWeight = this.queueWeight.get();
+      if (queueWeight > 0L && queueWeight + weight > this.maxQueueWeight) {
+        return false;
+      }
+      int index = (int) (position % this.capacity);
+      long difference = this.sequences.get(index) - position;
+      if (difference == 0L) {
+        if (this.tail.compareAndSet(position, position + 1L)) {
+          if (null != this.weights) {
+            this.weights[index] = weight;
+            this.queueWeight.addAndGet(weight);
+          }
+          this.elements[index] = object;
+          this.sequences.set(index, position + 1L);
+          return true;
+        }
+        position = this.tail.get();
+      } else if (difference < 0L) {
+        return false;
+      } else {
+        position = this.tail.get();
+      }
+    }
+  }
+
+  /* Try to remove an object from the queue and return it, or return null
+   * if the queue is currently empty. */
+  @SuppressWarnings("unchecked")
+  private T poll() {
+    long position = this.head.get();
+    while (true) {
+      int index = (int) (position % this.capacity);
+      long difference = this.sequences.get(index) - (position + 1L);
+      if (difference == 0L) {
+        if (this.head.compareAndSet(position, position + 1L)) {
+          T object = (T) this.elements[index];
+          this.elements[index] = null;
+          if (null != this.weights) {
+            this.queueWeight.addAndGet(-this.weights[index]);
+          }
+          this.sequences.set(index, position + this.capacity);
+          this.wakeUp(this.waitingProducers);
+          return object;
+        }
+        position = this.head.get();
+      } else if (difference < 0L) {
+        return null;
+      } else {
+        position = this.head.get();
+      }
+    }
+  }
+
+  /* Wait a little before the next attempt, depending on how many attempts
+   * have been made before, and eventually park until woken up.  Before
+   * parking, register as waiting in the given set and check the given
+   * condition again, so that the other side either sees the registration
+   * after making progress and wakes us up, or we see its progress and
+   * don't park at all. */
+  private void await(int attempt, Set<Thread> waiters,
+      BooleanSupplier canProceed) {
+    if (attempt < SPINS) {
+      return;
+    } else if (attempt < SPINS + YIELDS) {
+      Thread.yield();
+    } else {
+      Thread thread = Thread.currentThread();
+      waiters.add(thread);
       try {
-        wait();
-      } catch (InterruptedException e) {
-        /* nothing to be done */
+        if (!canProceed.getAsBoolean()) {
+          LockSupport.park(this);
+          /* Ignore interrupts, just like we always did while waiting. */
+          Thread.interrupted();
+        }
+      } finally {
+        waiters.remove(thread);
+      }
+    }
+  }
+
+  /* Wake up all threads registered in the given set of waiters, which
+   * check for themselves whether they can proceed. */
+  private void wakeUp(Set<Thread> waiters) {
+    if (!waiters.isEmpty()) {
+      for (Thread waiter : waiters) {
+        LockSupport.unpark(waiter);
       }
     }
-    this.queue.offer(object);
-    notifyAll();
   }
 
   /* Signalize that there won't be any further objects to be enqueued. */
-  private boolean outOfDescriptors = false;
+  private volatile boolean outOfDescriptors = false;
+
+  /* Signalize that consumers have stopped taking objects, so that any
+   * waiting producer stops waiting, further objects are discarded rather
+   * than added, and no more objects are provided. */
+  private volatile boolean isClosed = false;
+
+  protected void close() {
+    this.isClosed = true;
+    while (null != this.poll()) {
+      /* Discard objects in the queue. */
+    }
+    this.wakeUp(this.waitingProducers);
+    this.wakeUp(this.waitingConsumers);
+  }
 
-  protected synchronized void setOutOfDescriptors() {
+  protected void setOutOfDescriptors() {
     if (this.outOfDescriptors) {
       throw new IllegalStateException("Internal error: Sending "
           + "end-of-stream object only permitted once.");
     }
     this.outOfDescriptors = true;
-    notifyAll();
+    this.wakeUp(this.waitingConsumers);
   }
 
   /* Return whether there are more objects.  Block if there are currently
    * no objects, but the producer hasn't signalized that there won't be
-   * further objects. */
+   * further objects.  Synchronized like next(), so that several consumer
+   * threads may share this iterator, whereas producers never take the
+   * lock. */
   @Override
   public synchronized boolean hasNext() {
-    while (!this.outOfDescriptors && this.queue.isEmpty()) {
-      try {
-        wait();
-      } catch (InterruptedException e) {
-        /* nothing to be done */
+    int attempt = 0;
+    long waitStarted = 0L;
+    if (this.isClosed) {
+      this.nextElement = null;
+      return false;
+    }
+    try {
+      while (null == this.nextElement) {
+        /* Read the end-of-stream flag before polling, so that we don't miss
+         * objects added right before setting it. */
+        boolean lastAttempt = this.outOfDescriptors;
+        this.nextElement = this.poll();
+        if (null == this.nextElement) {
+          if (lastAttempt || this.isClosed) {
+            return false;
+          }
+          if (0 == attempt) {
+            waitStarted = System.nanoTime();
+          }
+          this.await(attempt++, this.waitingConsumers,
+              () -> this.outOfDescriptors || this.isClosed
+              || this.hasElement());
+        }
+      }
+      return true;
+    } finally {
+      if (attempt > 0) {
+        this.consumerWaitNanos.add(System.nanoTime() - waitStarted);
       }
     }
-    return this.queue.peek() != null;
   }
 
   /* Return the next object in the queue or throw an exception when there
@@ -77,18 +345,33 @@ public class BlockingIteratorImpl<T> implements Iterator<T>, Iterable<T> {
    * objects. */
   @Override
   public synchronized T next() {
-    while (!this.outOfDescriptors && this.queue.isEmpty()) {
-      try {
-        wait();
-      } catch (InterruptedException e) {
-        /* nothing to be done */
-      }
-    }
-    if (this.queue.peek() == null) {
+    if (!this.hasNext()) {
       throw new NoSuchElementException();
     }
-    notifyAll();
-    return this.queue.remove();
+    T object = this.nextElement;
+    this.nextElement = null;
+    return object;
+  }
+
+  /* Return the number of objects currently in the queue, which may be
+   * slightly off while objects are being added or removed. */
+  int size() {
+    return (int) Math.max(0L, Math.min(this.maxQueueSize,
+        this.tail.get() - this.head.get()));
+  }
+
+  /* Return the total weight of objects currently in the queue, or 0 if
+   * not weighing objects. */
+  long weight() {
+    return Math.max(0L, this.queueWeight.get());
+  }
+
+  long getProducerWaitNanos() {
+    return this.producerWaitNanos.sum();
+  }
+
+  long getConsumerWaitNanos() {
+    return this.consumerWaitNanos.sum();
   }
 
   /* Don't support explicitly removing objects.  They are removed
@@ -103,4 +386,3 @@ public class BlockingIteratorImpl<T> implements Iterator<T>, Iterable<T> {
     return this;
   }
 }
-
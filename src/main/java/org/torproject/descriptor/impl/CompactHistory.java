@@ -0,0 +1,338 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parse history in a compact binary format that stores 64-bit hashes of
+ * absolute paths rather than the paths themselves.
+ *
+ * <p>A compact history file starts with a magic number, a format version,
+ * and the number of records that follow in ascending order of path
+ * hashes.  Each record consists of a path hash and a last-modified time.
+ * Further records may be appended in any order, with later records
+ * replacing earlier records of the same path hash.  Sorted records are
+ * looked up by binary search, appended records in a hash table, and
+ * neither keeps paths or boxed values in memory.</p>
+ *
+ * <p>Saving the history to the file it was read from only appends records
+ * of files that were parsed or whose last-modified time changed, unless
+ * appended records would outnumber sorted records, in which case the file
+ * is compacted by rewriting it with all records in ascending order.  This
+ * also removes records of files that were neither parsed nor excluded
+ * from parsing.</p>
+ */
+public class CompactHistory {
+
+  private static final int MAGIC = 0x4d4c4448;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 12;
+
+  private static final int RECORD_LENGTH = 16;
+
+  private final File historyFile;
+
+  /* Path hashes of sorted records in ascending order, and last-modified
+   * times at the same indexes. */
+  private final long[] sortedHashes;
+
+  private final long[] sortedLastModified;
+
+  private final LongTable appendedRecords;
+
+  /* Number of appended records in the history file, including records
+   * replaced by later records. */
+  private final int appendedCount;
+
+  private CompactHistory(File historyFile, long[] sortedHashes,
+      long[] sortedLastModified, LongTable appendedRecords,
+      int appendedCount) {
+    this.historyFile = historyFile;
+    this.sortedHashes = sortedHashes;
+    this.sortedLastModified = sortedLastModified;
+    this.appendedRecords = appendedRecords;
+    this.appendedCount = appendedCount;
+  }
+
+  /**
+   * Returns whether the given history file exists and starts with the
+   * magic number of the compact format.
+   *
+   * @param historyFile History file in either format.
+   *
+   * @return Whether the history file is in compact format.
+   */
+  public static boolean isCompact(File historyFile) {
+    if (historyFile.length() < HEADER_LENGTH) {
+      return false;
+    }
+    try (DataInputStream dis = new DataInputStream(
+        new FileInputStream(historyFile))) {
+      return MAGIC == dis.readInt();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads the given compact history file, ignoring an incomplete last
+   * record that may have been left by an interrupted append.
+   *
+   * @param historyFile Compact history file.
+   *
+   * @return Parse history read from the given file.
+   *
+   * @throws IOException Thrown if the file cannot be read or is not a
+   *     compact history file of a supported version.
+   */
+  public static CompactHistory read(File historyFile) throws IOException {
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(historyFile)))) {
+      if (MAGIC != dis.readInt() || VERSION != dis.readInt()) {
+        throw new IOException("Unsupported history file format.");
+      }
+      int sortedCount = dis.readInt();
+      long records = (historyFile.length() - HEADER_LENGTH) / RECORD_LENGTH;
+      if (sortedCount < 0 || sortedCount > records) {
+        throw new IOException("Truncated history file.");
+      }
+      long[] sortedHashes = new long[sortedCount];
+      long[] sortedLastModified = new long[sortedCount];
+      for (int i = 0; i < sortedCount; i++) {
+        sortedHashes[i] = dis.readLong();
+        sortedLastModified[i] = dis.readLong();
+      }
+      int appendedCount = (int) Math.min(records - sortedCount,
+          Integer.MAX_VALUE / 2);
+      LongTable appendedRecords = new LongTable(appendedCount);
+      for (int i = 0; i < appendedCount; i++) {
+        appendedRecords.put(dis.readLong(), dis.readLong());
+      }
+      return new CompactHistory(historyFile.getAbsoluteFile(), sortedHashes,
+          sortedLastModified, appendedRecords, appendedCount);
+    }
+  }
+
+  /**
+   * Returns whether the history contains a record for the given absolute
+   * path with the given last-modified time.
+   *
+   * @param absolutePath Absolute path of a descriptor file or tarball.
+   * @param lastModifiedMillis Last-modified time of the file.
+   *
+   * @return Whether the file is contained with the given time.
+   */
+  public boolean contains(String absolutePath, long lastModifiedMillis) {
+    return this.contains(hash(absolutePath), lastModifiedMillis);
+  }
+
+  private boolean contains(long hash, long lastModifiedMillis) {
+    if (this.appendedRecords.containsKey(hash)) {
+      return this.appendedRecords.get(hash) == lastModifiedMillis;
+    }
+    int index = Arrays.binarySearch(this.sortedHashes, hash);
+    return index >= 0 && this.sortedLastModified[index] == lastModifiedMillis;
+  }
+
+  /**
+   * Writes the given histories of excluded and parsed files to the given
+   * history file in compact format, either by appending records to the
+   * previously read history if it was read from the same file, or by
+   * rewriting the file.
+   *
+   * @param historyFile Compact history file to write.
+   * @param previousHistory Previously read history, or null.
+   * @param excludedFiles Absolute paths and last-modified times of files
+   *     excluded from parsing.
+   * @param parsedFiles Absolute paths and last-modified times of parsed
+   *     files.
+   *
+   * @throws IOException Thrown if the file cannot be written.
+   */
+  public static void write(File historyFile, CompactHistory previousHistory,
+      Map<String, Long> excludedFiles, Map<String, Long> parsedFiles)
+      throws IOException {
+    List<Map<String, Long>> histories = Arrays.asList(excludedFiles,
+        parsedFiles);
+    if (null != previousHistory
+        && previousHistory.historyFile.equals(historyFile.getAbsoluteFile())
+        && isCompact(historyFile)
+        && previousHistory.append(histories)) {
+      return;
+    }
+    LongTable records = new LongTable(excludedFiles.size()
+        + parsedFiles.size());
+    for (Map<String, Long> history : histories) {
+      for (Map.Entry<String, Long> e : history.entrySet()) {
+        records.put(hash(e.getKey()), e.getValue());
+      }
+    }
+    long[] hashes = records.keys();
+    Arrays.sort(hashes);
+    File parentFile = historyFile.getAbsoluteFile().getParentFile();
+    parentFile.mkdirs();
+    File tempFile = Files.createTempFile(parentFile.toPath(),
+        historyFile.getName(), ".tmp").toFile();
+    try {
+      try (DataOutputStream dos = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(hashes.length);
+        for (long hash : hashes) {
+          dos.writeLong(hash);
+          dos.writeLong(records.get(hash));
+        }
+      }
+      Files.move(tempFile.toPath(), historyFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  /* Append records that are not contained in this history to the history
+   * file, or return false without appending anything if the history file
+   * needs to be compacted. */
+  private boolean append(List<Map<String, Long>> histories)
+      throws IOException {
+    LongTable newRecords = new LongTable(0);
+    for (Map<String, Long> history : histories) {
+      for (Map.Entry<String, Long> e : history.entrySet()) {
+        long hash = hash(e.getKey());
+        if (newRecords.containsKey(hash) || !this.contains(hash,
+            e.getValue())) {
+          newRecords.put(hash, e.getValue());
+        }
+      }
+    }
+    if ((long) this.appendedCount + newRecords.size()
+        > this.sortedHashes.length) {
+      return false;
+    }
+    try (DataOutputStream dos = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(this.historyFile,
+        true)))) {
+      for (long hash : newRecords.keys()) {
+        dos.writeLong(hash);
+        dos.writeLong(newRecords.get(hash));
+      }
+    }
+    return true;
+  }
+
+  /* Return the first 64 bits of the SHA-256 digest of the given absolute
+   * path. */
+  private static long hash(String absolutePath) {
+    return ByteBuffer.wrap(DigestUtils.sha256(
+        absolutePath.getBytes(StandardCharsets.UTF_8))).getLong();
+  }
+
+  /* Hash table with open addressing that maps path hashes to last-modified
+   * times without boxing either of them. */
+  private static class LongTable {
+
+    private long[] keys;
+
+    private long[] values;
+
+    private boolean[] used;
+
+    private int size = 0;
+
+    private LongTable(int expectedSize) {
+      int capacity = 16;
+      while (capacity < 2L * expectedSize) {
+        capacity <<= 1;
+      }
+      this.keys = new long[capacity];
+      this.values = new long[capacity];
+      this.used = new boolean[capacity];
+    }
+
+    /* Return the slot containing the given key, or the empty slot where it
+     * would be inserted. */
+    private int slot(long key) {
+      int mask = this.keys.length - 1;
+      int slot = (int) (key ^ (key >>> 32)) & mask;
+      while (this.used[slot] && this.keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private boolean containsKey(long key) {
+      return this.used[this.slot(key)];
+    }
+
+    private long get(long key) {
+      return this.values[this.slot(key)];
+    }
+
+    private void put(long key, long value) {
+      int slot = this.slot(key);
+      if (!this.used[slot]) {
+        if (2 * (this.size + 1) > this.keys.length) {
+          this.grow();
+          slot = this.slot(key);
+        }
+        this.used[slot] = true;
+        this.keys[slot] = key;
+        this.size++;
+      }
+      this.values[slot] = value;
+    }
+
+    private void grow() {
+      long[] oldKeys = this.keys;
+      long[] oldValues = this.values;
+      boolean[] oldUsed = this.used;
+      this.keys = new long[2 * oldKeys.length];
+      this.values = new long[2 * oldKeys.length];
+      this.used = new boolean[2 * oldKeys.length];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldUsed[i]) {
+          int slot = this.slot(oldKeys[i]);
+          this.used[slot] = true;
+          this.keys[slot] = oldKeys[i];
+          this.values[slot] = oldValues[i];
+        }
+      }
+    }
+
+    private int size() {
+      return this.size;
+    }
+
+    private long[] keys() {
+      long[] result = new long[this.size];
+      int index = 0;
+      for (int i = 0; i < this.keys.length; i++) {
+        if (this.used[i]) {
+          result[index++] = this.keys[i];
+        }
+      }
+      return result;
+    }
+  }
+}
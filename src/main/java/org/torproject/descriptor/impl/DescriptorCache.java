@@ -0,0 +1,679 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import org.torproject.descriptor.Descriptor;
+import org.torproject.descriptor.internal.CountingInputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * On-disk cache of descriptors contained in descriptor files and
+ * tarballs, keyed by absolute path, last-modified time, and size of the
+ * descriptor file or tarball, and by the reader settings that determine
+ * which descriptors are parsed and how.
+ *
+ * <p>The cache contains the raw bytes of descriptor files and tarball
+ * entries that were not skipped by reader settings, together with the
+ * descriptor implementation class and the offsets and lengths of
+ * contained descriptors.  Reading from the cache skips decompressing,
+ * detecting types, skipping unwanted entries, and splitting descriptors,
+ * but descriptors are parsed again from cached raw bytes.</p>
+ *
+ * <p>Each cached descriptor file or tarball is stored in a cache file of
+ * its own, named after a hash of its absolute path and the reader
+ * settings, using a compact, versioned binary encoding: a header with
+ * magic number, format version, absolute path, last-modified time, file
+ * size, and reader settings, followed by entries, and a terminating zero
+ * byte.  Each entry starts with a one byte, followed by the entry name,
+ * the name of the descriptor implementation class or an empty string if
+ * the entry needs to be parsed as a whole, the length and raw bytes of
+ * the entry, and the number, offsets, and lengths of descriptors.  Cache
+ * files are first written to a temporary file and only renamed when
+ * complete.  Whenever cache files exceed the maximum total size, the
+ * least recently used cache files are deleted.</p>
+ */
+public class DescriptorCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+      DescriptorCache.class);
+
+  private static final int MAGIC = 0x4d4c4443;
+
+  private static final int VERSION = 1;
+
+  private static final String SUFFIX = ".cache";
+
+  private final File directory;
+
+  private final long maxBytes;
+
+  private final String settings;
+
+  private final LongConsumer bytesRead;
+
+  /* Total size of cache files, or -1 if the cache directory has not been
+   * listed yet. */
+  private long totalBytes = -1L;
+
+  /**
+   * Creates a new cache in the given directory that keeps cache files up
+   * to the given total size.
+   *
+   * @param directory Directory for cache files, created if necessary.
+   * @param maxBytes Maximum total size of cache files in bytes.
+   * @param settings Reader settings that determine which descriptors are
+   *     parsed and how, which only match cache files written with equal
+   *     settings.
+   * @param bytesRead Consumer of the number of bytes read from cache
+   *     files.
+   */
+  public DescriptorCache(File directory, long maxBytes, String settings,
+      LongConsumer bytesRead) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.settings = settings;
+    this.bytesRead = bytesRead;
+  }
+
+  private File cacheFile(File file) {
+    return new File(this.directory, DigestUtils.sha256Hex(
+        file.getAbsolutePath() + "\n" + this.settings) + SUFFIX);
+  }
+
+  /**
+   * Returns whether the given descriptor file or tarball has a cache file,
+   * which may still turn out to be outdated when opening it.
+   *
+   * @param file Descriptor file or tarball.
+   *
+   * @return Whether there is a cache file.
+   */
+  public boolean contains(File file) {
+    return this.cacheFile(file).exists();
+  }
+
+  /**
+   * Opens cached entries of the given descriptor file or tarball, or
+   * returns null if the file has not been cached, has been modified since
+   * being cached, or if the cache file cannot be read.
+   *
+   * @param file Descriptor file or tarball.
+   *
+   * @return Cached entries, or null.
+   */
+  public CachedEntries open(File file) {
+    File cacheFile = this.cacheFile(file);
+    if (!cacheFile.exists()) {
+      return null;
+    }
+    DataInputStream dis = null;
+    try {
+      dis = new DataInputStream(new BufferedInputStream(
+          new CountingInputStream(new FileInputStream(cacheFile),
+          this.bytesRead)));
+      if (dis.readInt() != MAGIC || dis.readInt() != VERSION
+          || !dis.readUTF().equals(file.getAbsolutePath())
+          || dis.readLong() != file.lastModified()
+          || dis.readLong() != file.length()
+          || !dis.readUTF().equals(this.settings)) {
+        dis.close();
+        this.delete(cacheFile);
+        return null;
+      }
+      cacheFile.setLastModified(System.currentTimeMillis());
+      return new CachedEntries(cacheFile, dis);
+    } catch (IOException e) {
+      logger.warn("Unable to read cache file {}.", cacheFile, e);
+      if (null != dis) {
+        try {
+          dis.close();
+        } catch (IOException closeException) {
+          /* Nothing left to do. */
+        }
+      }
+      this.delete(cacheFile);
+      return null;
+    }
+  }
+
+  /**
+   * Starts caching entries of the given descriptor file or tarball, or
+   * returns null if the cache file cannot be created.
+   *
+   * @param file Descriptor file or tarball.
+   *
+   * @return Writer for cached entries, or null.
+   */
+  public CacheWriter create(File file) {
+    try {
+      Files.createDirectories(this.directory.toPath());
+      File tempFile = Files.createTempFile(this.directory.toPath(),
+          "descriptors", ".tmp").toFile();
+      DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tempFile)));
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeUTF(file.getAbsolutePath());
+      dos.writeLong(file.lastModified());
+      dos.writeLong(file.length());
+      dos.writeUTF(this.settings);
+      return new CacheWriter(this.cacheFile(file), tempFile, dos);
+    } catch (IOException e) {
+      logger.warn("Unable to create cache file for {}.", file, e);
+      return null;
+    }
+  }
+
+  /* Add the given number of bytes to the total size of cache files, which
+   * is only determined by listing the cache directory the first time, and
+   * delete least recently used cache files if the total size exceeds the
+   * maximum size. */
+  private synchronized void addBytes(long bytes) {
+    if (this.totalBytes < 0L) {
+      this.totalBytes = 0L;
+      for (File cacheFile : this.listCacheFiles()) {
+        this.totalBytes += cacheFile.length();
+      }
+    } else {
+      this.totalBytes += bytes;
+    }
+    if (this.totalBytes > this.maxBytes) {
+      this.evict();
+    }
+  }
+
+  /* Delete least recently used cache files until the total size of cache
+   * files does not exceed the maximum size anymore. */
+  private void evict() {
+    File[] cacheFiles = this.listCacheFiles();
+    this.totalBytes = 0L;
+    for (File cacheFile : cacheFiles) {
+      this.totalBytes += cacheFile.length();
+    }
+    Arrays.sort(cacheFiles, Comparator.comparingLong(File::lastModified));
+    for (File cacheFile : cacheFiles) {
+      if (this.totalBytes <= this.maxBytes) {
+        break;
+      }
+      long length = cacheFile.length();
+      if (cacheFile.delete()) {
+        this.totalBytes -= length;
+      } else {
+        logger.warn("Unable to delete cache file {}.", cacheFile);
+      }
+    }
+  }
+
+  private File[] listCacheFiles() {
+    File[] cacheFiles = this.directory.listFiles(
+        (dir, name) -> name.endsWith(SUFFIX));
+    return null == cacheFiles ? new File[0] : cacheFiles;
+  }
+
+  /* Delete the given cache file or temporary file, and subtract its size
+   * from the total size of cache files if it's a cache file. */
+  private void delete(File file) {
+    long length = file.length();
+    if (file.exists() && !file.delete()) {
+      logger.warn("Unable to delete cache file {}.", file);
+    } else if (file.getName().endsWith(SUFFIX)) {
+      this.addBytes(-length);
+    }
+  }
+
+  /* Return whether descriptors of the given class can be parsed again from
+   * their offsets and lengths in raw descriptor bytes, which requires a
+   * concrete class with the constructor used for parsing single
+   * descriptors. */
+  private static boolean isReparseable(
+      Class<? extends DescriptorImpl> descriptorClass) {
+    if (Modifier.isAbstract(descriptorClass.getModifiers())
+        || UnparseableDescriptorImpl.class == descriptorClass) {
+      return false;
+    }
+    try {
+      descriptorClass.getDeclaredConstructor(byte[].class, int[].class,
+          File.class);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Entry of a cached descriptor file or tarball.
+   */
+  public static class CachedEntry {
+
+    private final String name;
+
+    private final Class<? extends DescriptorImpl> descriptorClass;
+
+    private final byte[] bytes;
+
+    private final List<int[]> offsetsAndLengths;
+
+    private CachedEntry(String name,
+        Class<? extends DescriptorImpl> descriptorClass, byte[] bytes,
+        List<int[]> offsetsAndLengths) {
+      this.name = name;
+      this.descriptorClass = descriptorClass;
+      this.bytes = bytes;
+      this.offsetsAndLengths = offsetsAndLengths;
+    }
+
+    /**
+     * Returns the file name of this entry.
+     *
+     * @return File name of this entry.
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Returns the class of descriptors in this entry, or null if this entry
+     * needs to be parsed as a whole.
+     *
+     * @return Class of descriptors, or null.
+     */
+    public Class<? extends DescriptorImpl> getDescriptorClass() {
+      return this.descriptorClass;
+    }
+
+    /**
+     * Returns the raw bytes of this entry.
+     *
+     * @return Raw bytes of this entry.
+     */
+    public byte[] getBytes() {
+      return this.bytes;
+    }
+
+    /**
+     * Returns two-element arrays containing offsets and lengths of
+     * descriptors in the raw bytes of this entry, which is empty if this
+     * entry needs to be parsed as a whole.
+     *
+     * @return Offsets and lengths of descriptors.
+     */
+    public List<int[]> getOffsetsAndLengths() {
+      return this.offsetsAndLengths;
+    }
+  }
+
+  /**
+   * Reader of entries of a cached descriptor file or tarball, in the order
+   * in which they were cached.
+   */
+  public class CachedEntries implements Closeable {
+
+    private final File cacheFile;
+
+    private final DataInputStream dis;
+
+    private CachedEntries(File cacheFile, DataInputStream dis) {
+      this.cacheFile = cacheFile;
+      this.dis = dis;
+    }
+
+    /**
+     * Reads the next cached entry, or returns null if there are no more
+     * entries.
+     *
+     * @return Next cached entry, or null.
+     *
+     * @throws IOException Thrown if the cache file cannot be read or is
+     *     malformed, in which case it is deleted.
+     */
+    public CachedEntry next() throws IOException {
+      try {
+        if (0 == this.dis.readByte()) {
+          return null;
+        }
+        String name = this.dis.readUTF();
+        Class<? extends DescriptorImpl> descriptorClass =
+            descriptorClass(this.dis.readUTF());
+        byte[] bytes = new byte[this.dis.readInt()];
+        this.dis.readFully(bytes);
+        int descriptors = this.dis.readInt();
+        if (descriptors < 0
+            || (null == descriptorClass) != (0 == descriptors)) {
+          throw new IOException("Invalid number of descriptors: "
+              + descriptors);
+        }
+        List<int[]> offsetsAndLengths = new ArrayList<>();
+        for (int i = 0; i < descriptors; i++) {
+          int offset = this.dis.readInt();
+          int length = this.dis.readInt();
+          if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IOException("Invalid offset " + offset
+                + " and length " + length + ".");
+          }
+          offsetsAndLengths.add(new int[] { offset, length });
+        }
+        return new CachedEntry(name, descriptorClass, bytes,
+            offsetsAndLengths);
+      } catch (IOException | NegativeArraySizeException e) {
+        this.close();
+        delete(this.cacheFile);
+        throw e instanceof IOException ? (IOException) e
+            : new EOFException("Invalid entry length.");
+      }
+    }
+
+    /* Return the descriptor implementation class with the given name, or
+     * null if the name is empty, without initializing it, and fail if it's
+     * not a descriptor implementation class, so that cache files cannot
+     * make the reader instantiate any other classes. */
+    private Class<? extends DescriptorImpl> descriptorClass(String name)
+        throws IOException {
+      if (name.isEmpty()) {
+        return null;
+      }
+      Class<?> descriptorClass;
+      try {
+        descriptorClass = Class.forName(name, false,
+            DescriptorImpl.class.getClassLoader());
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Unknown descriptor class " + name + ".", e);
+      }
+      if (!DescriptorImpl.class.isAssignableFrom(descriptorClass)
+          || !isReparseable(descriptorClass.asSubclass(
+          DescriptorImpl.class))) {
+        throw new IOException("Not a descriptor class: " + name + ".");
+      }
+      return descriptorClass.asSubclass(DescriptorImpl.class);
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.dis.close();
+    }
+  }
+
+  /**
+   * Writer of entries of a descriptor file or tarball to a temporary file
+   * that only replaces the cache file after being committed and after all
+   * added entries have been written.
+   *
+   * <p>Entries are added in order by the thread reading the descriptor
+   * file or tarball, but their descriptors may be parsed by other threads.
+   * Entries are written in the order in which they were added as soon as
+   * all their descriptors have been parsed.</p>
+   */
+  public class CacheWriter {
+
+    private final File cacheFile;
+
+    private final File tempFile;
+
+    private final DataOutputStream dos;
+
+    /* Number of bytes written to the temporary file, which is not limited
+     * to the range of an int like the size of the output stream. */
+    private long bytesWritten;
+
+    /* Entries that have been added but not written yet, in the order in
+     * which they were added. */
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+
+    private boolean isCommitted = false;
+
+    private volatile boolean isDone = false;
+
+    private CacheWriter(File cacheFile, File tempFile, DataOutputStream dos) {
+      this.cacheFile = cacheFile;
+      this.tempFile = tempFile;
+      this.dos = dos;
+      this.bytesWritten = dos.size();
+    }
+
+    /**
+     * Adds an entry with the given name and raw bytes containing the
+     * descriptors provided by the given iterator, and returns an iterator
+     * over the same descriptors that remembers where they are located in
+     * the raw bytes and that completes the entry when there are no more
+     * descriptors.
+     *
+     * @param name File name of the entry.
+     * @param bytes Raw bytes of the entry.
+     * @param descriptors Descriptors parsed from the raw bytes.
+     *
+     * @return Iterator over the given descriptors.
+     */
+    public synchronized Iterator<Descriptor> add(String name, byte[] bytes,
+        Iterator<Descriptor> descriptors) {
+      if (this.isDone) {
+        return descriptors;
+      }
+      PendingEntry entry = new PendingEntry(name, bytes);
+      this.pendingEntries.add(entry);
+      return new Iterator<Descriptor>() {
+
+        @Override
+        public boolean hasNext() {
+          boolean hasNext = descriptors.hasNext();
+          if (!hasNext && !entry.isComplete) {
+            complete(entry);
+          }
+          return hasNext;
+        }
+
+        @Override
+        public Descriptor next() {
+          Descriptor descriptor = descriptors.next();
+          if (!isDone) {
+            entry.add(descriptor);
+          }
+          return descriptor;
+        }
+      };
+    }
+
+    private synchronized void complete(PendingEntry entry) {
+      entry.isComplete = true;
+      this.writeCompletedEntries();
+    }
+
+    /* Write all completed entries at the start of pending entries, and
+     * replace the cache file once all entries have been written after
+     * committing. */
+    private void writeCompletedEntries() {
+      while (!this.isDone && !this.pendingEntries.isEmpty()
+          && this.pendingEntries.peek().isComplete) {
+        this.write(this.pendingEntries.remove());
+      }
+      if (!this.isDone && this.pendingEntries.isEmpty()
+          && this.isCommitted) {
+        this.replaceCacheFile();
+      }
+    }
+
+    /* Write the given entry, unless it doesn't contain any descriptors, or
+     * abort caching if the cache file would exceed the maximum total size
+     * of cache files. */
+    private void write(PendingEntry entry) {
+      if (0 == entry.descriptors) {
+        return;
+      }
+      boolean isParsedAsWhole = entry.isParsedAsWhole
+          || null == entry.descriptorClass;
+      String className = isParsedAsWhole ? ""
+          : entry.descriptorClass.getName();
+      int offsetsAndLengths = isParsedAsWhole ? 0 : entry.descriptors;
+      long entryBytes = 9L + utfBytes(entry.name) + utfBytes(className)
+          + entry.bytes.length + 8L * offsetsAndLengths;
+      if (this.bytesWritten + entryBytes > maxBytes) {
+        this.abort();
+        return;
+      }
+      try {
+        this.dos.writeByte(1);
+        this.dos.writeUTF(entry.name);
+        this.dos.writeUTF(className);
+        this.dos.writeInt(entry.bytes.length);
+        this.dos.write(entry.bytes);
+        this.dos.writeInt(offsetsAndLengths);
+        for (int i = 0; i < 2 * offsetsAndLengths; i++) {
+          this.dos.writeInt(entry.offsetsAndLengths[i]);
+        }
+        this.bytesWritten += entryBytes;
+      } catch (IOException e) {
+        logger.warn("Unable to write cache file {}.", this.tempFile, e);
+        this.abort();
+      }
+    }
+
+    /* Return the number of bytes written for the given string by
+     * writeUTF, except for rare characters encoded differently. */
+    private long utfBytes(String string) {
+      return 2L + string.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Completes the cache file, once all added entries have been written,
+     * and evicts least recently used cache files if necessary.
+     */
+    public synchronized void commit() {
+      this.isCommitted = true;
+      this.writeCompletedEntries();
+    }
+
+    private void replaceCacheFile() {
+      long replacedBytes = this.cacheFile.length();
+      try {
+        this.dos.writeByte(0);
+        this.dos.close();
+        Files.move(this.tempFile.toPath(), this.cacheFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        logger.warn("Unable to write cache file {}.", this.cacheFile, e);
+        this.abort();
+        return;
+      }
+      this.isDone = true;
+      addBytes(this.bytesWritten + 1L - replacedBytes);
+    }
+
+    /**
+     * Discards the temporary file without replacing the cache file, unless
+     * the cache file has been replaced already.
+     */
+    public synchronized void abort() {
+      if (this.isDone) {
+        return;
+      }
+      this.isDone = true;
+      this.pendingEntries.clear();
+      try {
+        this.dos.close();
+      } catch (IOException e) {
+        /* Deleting the file below is all that's left to do. */
+      }
+      delete(this.tempFile);
+    }
+
+    /**
+     * Returns whether the cache file has been replaced or caching has been
+     * aborted.
+     *
+     * @return Whether writing has ended.
+     */
+    public boolean isDone() {
+      return this.isDone;
+    }
+  }
+
+  /* Entry that has been added to a cache writer and that is complete once
+   * all its descriptors have been parsed. */
+  private static class PendingEntry {
+
+    private final String name;
+
+    private final byte[] bytes;
+
+    /* Class of parsed descriptors, or null if none have been parsed yet
+     * or if only unparseable descriptors have been parsed so far. */
+    private Class<? extends DescriptorImpl> descriptorClass;
+
+    /* Offsets and lengths of parsed descriptors in the raw bytes, one after
+     * the other. */
+    private int[] offsetsAndLengths = new int[8];
+
+    private int descriptors = 0;
+
+    /* Whether descriptors cannot be parsed again from their offsets and
+     * lengths in the raw bytes, because they are not contained in the raw
+     * bytes, are not all of the same class, or are of a class that is only
+     * parsed from whole files, in which case the entry needs to be parsed
+     * as a whole. */
+    private boolean isParsedAsWhole = false;
+
+    private volatile boolean isComplete = false;
+
+    private PendingEntry(String name, byte[] bytes) {
+      this.name = name;
+      this.bytes = bytes;
+    }
+
+    private void add(Descriptor descriptor) {
+      if (!this.isParsedAsWhole && descriptor instanceof DescriptorImpl
+          && ((DescriptorImpl) descriptor).rawDescriptorBytes == this.bytes) {
+        DescriptorImpl descriptorImpl = (DescriptorImpl) descriptor;
+        if (!(descriptor instanceof UnparseableDescriptorImpl)) {
+          if (null == this.descriptorClass) {
+            this.descriptorClass = descriptorImpl.getClass();
+            this.isParsedAsWhole = !isReparseable(this.descriptorClass);
+          } else if (this.descriptorClass != descriptorImpl.getClass()) {
+            this.isParsedAsWhole = true;
+          }
+        }
+        if (2 * this.descriptors + 2 > this.offsetsAndLengths.length) {
+          this.offsetsAndLengths = Arrays.copyOf(this.offsetsAndLengths,
+              2 * this.offsetsAndLengths.length);
+        }
+        /* Include annotation lines that were cut off when parsing the
+         * descriptor, so that they are parsed again, too. */
+        int annotationBytes = 0;
+        for (String annotation : descriptorImpl.getAnnotations()) {
+          annotationBytes += annotation.length() + 1;
+        }
+        this.offsetsAndLengths[2 * this.descriptors] =
+            descriptorImpl.offset - annotationBytes;
+        this.offsetsAndLengths[2 * this.descriptors + 1] =
+            descriptorImpl.length + annotationBytes;
+      } else {
+        this.isParsedAsWhole = true;
+      }
+      this.descriptors++;
+    }
+  }
+}
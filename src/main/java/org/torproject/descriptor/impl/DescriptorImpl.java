@@ -64,7 +64,7 @@ public abstract class DescriptorImpl implements Descriptor {
    *
    * <p>If possible, subclasses should avoid retrieving raw descriptor bytes and
    * converting them to a String themselves and instead rely on
-   * {@link #newScanner()} and related methods to parse the descriptor.</p>
+   * {@link #newLineCursor()} and related methods to parse the descriptor.</p>
    *
    * @return Copy of the full raw descriptor bytes.
    */
@@ -79,7 +79,7 @@ public abstract class DescriptorImpl implements Descriptor {
    *
    * <p>If possible, subclasses should avoid retrieving raw descriptor bytes and
    * converting them to a String themselves and instead rely on
-   * {@link #newScanner()} and related methods to parse the descriptor.</p>
+   * {@link #newLineCursor()} and related methods to parse the descriptor.</p>
    *
    * @param offset The index of the first byte to include.
    * @param length The number of bytes to include.
@@ -121,6 +121,29 @@ public abstract class DescriptorImpl implements Descriptor {
         this.rawDescriptorBytes, offset, length), StandardCharsets.UTF_8));
   }
 
+  /**
+   * Returns a new {@link LineCursor} for parsing the full raw descriptor line
+   * by line using UTF-8 as charset.
+   *
+   * @return Line cursor for the full raw descriptor bytes.
+   */
+  protected LineCursor newLineCursor() {
+    return this.newLineCursor(this.offset, this.length);
+  }
+
+  /**
+   * Returns a new {@link LineCursor} for parsing the raw descriptor starting
+   * at byte {@code offset} containing {@code length} bytes line by line using
+   * UTF-8 as charset.
+   *
+   * @param offset The index of the first byte to parse.
+   * @param length The number of bytes to parse.
+   * @return Line cursor for the given raw descriptor bytes.
+   */
+  protected LineCursor newLineCursor(int offset, int length) {
+    return new LineCursor(this.rawDescriptorBytes, offset, length);
+  }
+
   /**
    * Returns the index within the raw descriptor of the first occurrence of the
    * given {@code key}, or {@code -1} if the key is not contained.
@@ -256,23 +279,23 @@ public abstract class DescriptorImpl implements Descriptor {
       throw new DescriptorParseException("Descriptor is empty.");
     }
     boolean skipCrypto = false;
-    Scanner scanner = this.newScanner().useDelimiter(NL);
-    while (scanner.hasNext()) {
-      String line = scanner.next();
-      if (line.isEmpty() && !blankLinesAllowed) {
+    LineCursor cursor = this.newLineCursor();
+    while (cursor.nextLine()) {
+      if (cursor.lineLength() == 0 && !blankLinesAllowed) {
         throw new DescriptorParseException("Blank lines are not allowed.");
-      } else if (line.startsWith(Key.CRYPTO_BEGIN.keyword)) {
+      } else if (cursor.lineStartsWith(Key.CRYPTO_BEGIN.keyword)) {
         skipCrypto = true;
-      } else if (line.startsWith(Key.CRYPTO_END.keyword)) {
+      } else if (cursor.lineStartsWith(Key.CRYPTO_END.keyword)) {
         skipCrypto = false;
-      } else if (!line.isEmpty() && !line.startsWith("@")
+      } else if (cursor.lineLength() > 0 && !cursor.lineStartsWith("@")
           && !skipCrypto) {
-        String lineNoOpt = line.startsWith(Key.OPT.keyword + SP)
-            ? line.substring(Key.OPT.keyword.length() + 1) : line;
-        String keyword = lineNoOpt.split(SP, -1)[0];
+        String lineNoOpt = cursor.lineNoOpt();
+        int keywordEnd = lineNoOpt.indexOf(SP);
+        String keyword = keywordEnd < 0 ? lineNoOpt
+            : lineNoOpt.substring(0, keywordEnd);
         if (keyword.equals("")) {
           throw new DescriptorParseException("Illegal keyword in line '"
-              + line + "'.");
+              + cursor.line() + "'.");
         }
         Key key = Key.get(keyword);
         if (Key.EMPTY == this.firstKey) {
@@ -9,6 +9,7 @@ import static org.torproject.descriptor.impl.DescriptorImpl.SP;
 import org.torproject.descriptor.Descriptor;
 import org.torproject.descriptor.DescriptorParseException;
 import org.torproject.descriptor.DescriptorParser;
+import org.torproject.descriptor.LogDescriptor;
 import org.torproject.descriptor.log.LogDescriptorImpl;
 import org.torproject.descriptor.onionperf.OnionPerfAnalysisConverter;
 
@@ -18,15 +19,102 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DescriptorParserImpl implements DescriptorParser {
 
   private static final Logger logger
       = LoggerFactory.getLogger(DescriptorParserImpl.class);
 
+  /* Constructor of consensuses that takes whether to parse status entries
+   * lazily as additional parameter. */
+  private static final Constructor<? extends DescriptorImpl>
+      LAZY_CONSENSUS_CONSTRUCTOR;
+
+  static {
+    try {
+      LAZY_CONSENSUS_CONSTRUCTOR = RelayNetworkStatusConsensusImpl.class
+          .getDeclaredConstructor(byte[].class, int[].class, File.class,
+          boolean.class);
+    } catch (NoSuchMethodException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private boolean lazyParsing = false;
+
+  @Override
+  public void setLazyParsing(boolean lazyParsing) {
+    this.lazyParsing = lazyParsing;
+  }
+
+  /* Descriptor types to parse, or null if all types are wanted. */
+  private List<Class<?>> descriptorTypes;
+
+  /* Names in @type annotations of descriptors to parse, or null if
+   * descriptors are not selected by their annotation. */
+  private Set<String> descriptorTypeAnnotations;
+
+  /* Only parse descriptors that are instances of one of the given
+   * descriptor types or that start with an @type annotation using one of
+   * the given names, and skip all other descriptors, including those of
+   * unknown type. */
+  void setWantedTypes(List<Class<?>> descriptorTypes,
+      Set<String> descriptorTypeAnnotations) {
+    this.descriptorTypes = descriptorTypes;
+    this.descriptorTypeAnnotations = descriptorTypeAnnotations;
+  }
+
+  /* Pattern of file names of network statuses, votes, and exit lists
+   * starting with a timestamp, like "2020-05-01-12-00-00-consensus", but
+   * not of files containing several descriptors written at that time,
+   * like "2020-05-01-12-05-00-server-descriptors". */
+  private static final Pattern FILE_NAME_TIMESTAMP = Pattern.compile(
+      "^(\\d{4}-\\d{2}-\\d{2})-(\\d{2})-(\\d{2})-(\\d{2})"
+      + "(-consensus|-consensus-microdesc|-vote-.*)?$");
+
+  /* Pattern of file names starting with a compact timestamp, like
+   * "20200501-120000-4A0CCD2DDC7995083D73F5D667100C8A5831F16D", used for
+   * bridge network statuses. */
+  private static final Pattern COMPACT_FILE_NAME_TIMESTAMP = Pattern.compile(
+      "^(\\d{4})(\\d{2})(\\d{2})-(\\d{2})(\\d{2})(\\d{2})-.*$");
+
+  /* Number of bytes at the start of raw descriptor bytes in which to look
+   * for a valid-after line. */
+  static final int VALID_AFTER_SEARCH_BYTES = 1000;
+
+  /* Start (inclusive) and end (exclusive) of the time window of
+   * descriptors to parse, in milliseconds since the epoch. */
+  private long timeWindowStartMillis = Long.MIN_VALUE;
+
+  private long timeWindowEndMillis = Long.MAX_VALUE;
+
+  /* Only parse descriptors with a timestamp in their file name or
+   * valid-after line within the given time window, and skip all other
+   * descriptors with such a timestamp. */
+  void setTimeWindow(long startMillis, long endMillis) {
+    this.timeWindowStartMillis = startMillis;
+    this.timeWindowEndMillis = endMillis;
+  }
+
+  /* Return the number of bytes at the start of a descriptor file or
+   * tarball entry that need to be passed to isWanted, which includes the
+   * bytes searched for a valid-after line if a time window has been
+   * set. */
+  int bytesToInspect() {
+    return Long.MIN_VALUE == this.timeWindowStartMillis
+        && Long.MAX_VALUE == this.timeWindowEndMillis
+        ? 100 : VALID_AFTER_SEARCH_BYTES;
+  }
+
   @Override
   public Iterable<Descriptor> parseDescriptors(byte[] rawDescriptorBytes,
       File sourceFile, String fileName) {
@@ -42,9 +130,234 @@ public class DescriptorParserImpl implements DescriptorParser {
     }
   }
 
+  @Override
+  public Iterator<Descriptor> parseDescriptorsIncrementally(
+      byte[] rawDescriptorBytes, File sourceFile, String fileName) {
+    DescriptorType type;
+    try {
+      type = this.detectType(rawDescriptorBytes, fileName);
+    } catch (DescriptorParseException e) {
+      type = null;
+    }
+    if (!this.isWantedType(type, rawDescriptorBytes)
+        || !this.isInTimeWindow(rawDescriptorBytes, fileName)) {
+      return Collections.emptyIterator();
+    }
+    if (null == type || null == type.key) {
+      return this.parseDescriptors(rawDescriptorBytes, sourceFile, fileName)
+          .iterator();
+    }
+    return this.splitAndParseDescriptors(rawDescriptorBytes, sourceFile,
+        type.key, type.descriptorClass.asSubclass(DescriptorImpl.class));
+  }
+
   private List<Descriptor> detectTypeAndParseDescriptors(
       byte[] rawDescriptorBytes, File sourceFile, String fileName)
       throws DescriptorParseException {
+    DescriptorType type = this.detectType(rawDescriptorBytes, fileName);
+    if (null != type.key) {
+      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
+          type.key, type.descriptorClass.asSubclass(DescriptorImpl.class));
+    }
+    List<Descriptor> parsedDescriptors = new ArrayList<>();
+    if (BridgeNetworkStatusImpl.class == type.descriptorClass) {
+      parsedDescriptors.add(new BridgeNetworkStatusImpl(
+          rawDescriptorBytes, new int[] { 0, rawDescriptorBytes.length },
+          sourceFile, fileName));
+    } else if (ExitListImpl.class == type.descriptorClass) {
+      parsedDescriptors.add(new ExitListImpl(rawDescriptorBytes, sourceFile,
+          fileName));
+    } else if (TorperfResultImpl.class == type.descriptorClass) {
+      return TorperfResultImpl.parseTorperfResults(rawDescriptorBytes,
+          sourceFile);
+    } else if (BandwidthFileImpl.class == type.descriptorClass) {
+      parsedDescriptors.add(new BandwidthFileImpl(rawDescriptorBytes,
+          sourceFile));
+    } else if (LogDescriptorImpl.class == type.descriptorClass) {
+      return LogDescriptorImpl.parse(rawDescriptorBytes, sourceFile,
+          fileName);
+    } else if (OnionPerfAnalysisConverter.class == type.descriptorClass) {
+      return new OnionPerfAnalysisConverter(rawDescriptorBytes, sourceFile)
+          .asTorperfResults();
+    }
+    return parsedDescriptors;
+  }
+
+  /**
+   * Type of descriptors contained in a descriptor file.
+   */
+  static class DescriptorType {
+
+    /**
+     * Key starting each descriptor, or null if descriptors of this type
+     * cannot be split by key and need to be parsed as a whole.
+     */
+    final Key key;
+
+    /**
+     * Class for parsing descriptors of this type.
+     */
+    final Class<?> descriptorClass;
+
+    DescriptorType(Key key, Class<?> descriptorClass) {
+      this.key = key;
+      this.descriptorClass = descriptorClass;
+    }
+
+    /* Return whether parsed descriptors of this type are instances of the
+     * given descriptor type, or may be in the case of log descriptors
+     * whose exact type depends on the file name. */
+    boolean isInstanceOf(Class<?> descriptorType) {
+      if (OnionPerfAnalysisConverter.class == this.descriptorClass) {
+        return descriptorType.isAssignableFrom(TorperfResultImpl.class);
+      } else if (LogDescriptorImpl.class == this.descriptorClass) {
+        return LogDescriptor.class.isAssignableFrom(descriptorType)
+            || descriptorType.isAssignableFrom(LogDescriptor.class);
+      } else {
+        return descriptorType.isAssignableFrom(this.descriptorClass);
+      }
+    }
+  }
+
+  /* Return whether descriptors in the given raw descriptor bytes, which
+   * may only be the first bytes of a descriptor file or tarball entry, are
+   * of a wanted type and within the time window, as far as can be told
+   * from the given bytes. */
+  boolean isWanted(byte[] rawDescriptorBytes, String fileName) {
+    return this.isInTimeWindow(rawDescriptorBytes, fileName)
+        && this.isWantedType(rawDescriptorBytes, fileName);
+  }
+
+  /* Return whether descriptors in the given raw descriptor bytes, of
+   * which only the first 100 bytes are inspected, are of a wanted type,
+   * which is always the case if no wanted types have been set. */
+  boolean isWantedType(byte[] rawDescriptorBytes, String fileName) {
+    if (null == this.descriptorTypes
+        && null == this.descriptorTypeAnnotations) {
+      return true;
+    }
+    DescriptorType type;
+    try {
+      type = this.detectType(rawDescriptorBytes, fileName);
+    } catch (DescriptorParseException e) {
+      type = null;
+    }
+    return this.isWantedType(type, rawDescriptorBytes);
+  }
+
+  private boolean isWantedType(DescriptorType type,
+      byte[] rawDescriptorBytes) {
+    if (null == this.descriptorTypes
+        && null == this.descriptorTypeAnnotations) {
+      return true;
+    }
+    if (null != this.descriptorTypeAnnotations) {
+      String annotation = typeAnnotation(rawDescriptorBytes);
+      if (null != annotation
+          && this.descriptorTypeAnnotations.contains(annotation)) {
+        return true;
+      }
+    }
+    if (null != type && null != this.descriptorTypes) {
+      for (Class<?> descriptorType : this.descriptorTypes) {
+        if (type.isInstanceOf(descriptorType)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /* Return whether the timestamp in the given file name or, if the file
+   * name doesn't contain one, in a valid-after line near the start of the
+   * given raw descriptor bytes is within the time window, which is always
+   * the case if no time window has been set or if there is no such
+   * timestamp. */
+  boolean isInTimeWindow(byte[] rawDescriptorBytes, String fileName) {
+    if (Long.MIN_VALUE == this.timeWindowStartMillis
+        && Long.MAX_VALUE == this.timeWindowEndMillis) {
+      return true;
+    }
+    long timestamp = fileNameTimestamp(fileName);
+    if (timestamp < 0L) {
+      timestamp = validAfterTimestamp(rawDescriptorBytes);
+    }
+    return timestamp < 0L || (timestamp >= this.timeWindowStartMillis
+        && timestamp < this.timeWindowEndMillis);
+  }
+
+  /* Return the timestamp that the given file name starts with, or -1 if
+   * it doesn't start with a timestamp. */
+  static long fileNameTimestamp(String fileName) {
+    if (null == fileName) {
+      return -1L;
+    }
+    Matcher matcher = FILE_NAME_TIMESTAMP.matcher(fileName);
+    if (matcher.matches()) {
+      return ParseHelper.parseDateTime(matcher.group(1), matcher.group(2)
+          + ":" + matcher.group(3) + ":" + matcher.group(4));
+    }
+    matcher = COMPACT_FILE_NAME_TIMESTAMP.matcher(fileName);
+    if (matcher.matches()) {
+      return ParseHelper.parseDateTime(matcher.group(1) + "-"
+          + matcher.group(2) + "-" + matcher.group(3), matcher.group(4)
+          + ":" + matcher.group(5) + ":" + matcher.group(6));
+    }
+    return -1L;
+  }
+
+  /* Return the timestamp in the first valid-after line within the first
+   * bytes of the given raw descriptor bytes, or -1 if there is no such
+   * line or if it's incomplete or malformed. */
+  static long validAfterTimestamp(byte[] rawDescriptorBytes) {
+    String firstLines = new String(rawDescriptorBytes, 0,
+        Math.min(VALID_AFTER_SEARCH_BYTES, rawDescriptorBytes.length),
+        StandardCharsets.US_ASCII);
+    String prefix = Key.VALID_AFTER.keyword + SP;
+    int start = firstLines.startsWith(prefix) ? 0
+        : firstLines.indexOf(NL + prefix);
+    if (start < 0) {
+      return -1L;
+    }
+    if (start > 0) {
+      start += NL.length();
+    }
+    int end = firstLines.indexOf(NL, start);
+    if (end < 0) {
+      return -1L;
+    }
+    String[] parts = firstLines.substring(start, end).split(SP);
+    return parts.length < 3 ? -1L
+        : ParseHelper.parseDateTime(parts[1], parts[2]);
+  }
+
+  /* Return the name in the @type annotation that the given raw descriptor
+   * bytes start with, like "server-descriptor" for "@type
+   * server-descriptor 1.0", or null if they don't start with an @type
+   * annotation. */
+  private static String typeAnnotation(byte[] rawDescriptorBytes) {
+    byte[] prefix = "@type ".getBytes(StandardCharsets.US_ASCII);
+    if (rawDescriptorBytes.length <= prefix.length) {
+      return null;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (rawDescriptorBytes[i] != prefix[i]) {
+        return null;
+      }
+    }
+    int end = prefix.length;
+    while (end < rawDescriptorBytes.length && rawDescriptorBytes[end] != ' '
+        && rawDescriptorBytes[end] != '\n') {
+      end++;
+    }
+    return new String(rawDescriptorBytes, prefix.length, end - prefix.length,
+        StandardCharsets.US_ASCII);
+  }
+
+  /* Detect the type of descriptors contained in the given raw descriptor
+   * bytes, of which only the first 100 bytes are inspected. */
+  DescriptorType detectType(byte[] rawDescriptorBytes, String fileName)
+      throws DescriptorParseException {
     byte[] first100Chars = new byte[Math.min(100,
         rawDescriptorBytes.length)];
     System.arraycopy(rawDescriptorBytes, 0, first100Chars, 0,
@@ -59,8 +372,8 @@ public class DescriptorParserImpl implements DescriptorParser {
         NL + Key.NETWORK_STATUS_VERSION.keyword + SP + "3"))
         && firstLines.contains(
         NL + Key.VOTE_STATUS.keyword + SP + "consensus" + NL))) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.NETWORK_STATUS_VERSION, RelayNetworkStatusConsensusImpl.class);
+      return new DescriptorType(Key.NETWORK_STATUS_VERSION,
+          RelayNetworkStatusConsensusImpl.class);
     } else if (firstLines.startsWith("@type network-status-vote-3 1.")
         || ((firstLines.startsWith(
         Key.NETWORK_STATUS_VERSION.keyword + SP + "3" + NL)
@@ -68,97 +381,84 @@ public class DescriptorParserImpl implements DescriptorParser {
         NL + Key.NETWORK_STATUS_VERSION.keyword + SP + "3" + NL))
         && firstLines.contains(
         NL + Key.VOTE_STATUS.keyword + SP + "vote" + NL))) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.NETWORK_STATUS_VERSION, RelayNetworkStatusVoteImpl.class);
+      return new DescriptorType(Key.NETWORK_STATUS_VERSION,
+          RelayNetworkStatusVoteImpl.class);
     } else if (firstLines.startsWith("@type bridge-network-status 1.")
         || firstLines.startsWith(Key.R.keyword + SP)) {
-      List<Descriptor> parsedDescriptors = new ArrayList<>();
-      parsedDescriptors.add(new BridgeNetworkStatusImpl(
-          rawDescriptorBytes, new int[] { 0, rawDescriptorBytes.length },
-          sourceFile, fileName));
-      return parsedDescriptors;
+      return new DescriptorType(null, BridgeNetworkStatusImpl.class);
     } else if (firstLines.startsWith("@type bridge-server-descriptor 1.")) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.ROUTER, BridgeServerDescriptorImpl.class);
+      return new DescriptorType(Key.ROUTER,
+          BridgeServerDescriptorImpl.class);
     } else if (firstLines.startsWith("@type server-descriptor 1.")
         || firstLines.startsWith(Key.ROUTER.keyword + SP)
         || firstLines.contains(NL + Key.ROUTER.keyword + SP)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.ROUTER, RelayServerDescriptorImpl.class);
+      return new DescriptorType(Key.ROUTER,
+          RelayServerDescriptorImpl.class);
     } else if (firstLines.startsWith("@type bridge-extra-info 1.")) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.EXTRA_INFO, BridgeExtraInfoDescriptorImpl.class);
+      return new DescriptorType(Key.EXTRA_INFO,
+          BridgeExtraInfoDescriptorImpl.class);
     } else if (firstLines.startsWith("@type extra-info 1.")
         || firstLines.startsWith(Key.EXTRA_INFO.keyword + SP)
         || firstLines.contains(NL + Key.EXTRA_INFO.keyword + SP)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.EXTRA_INFO, RelayExtraInfoDescriptorImpl.class);
+      return new DescriptorType(Key.EXTRA_INFO,
+          RelayExtraInfoDescriptorImpl.class);
     } else if (firstLines.startsWith("@type microdescriptor 1.")
         || firstLines.startsWith(Key.ONION_KEY.keyword + NL)
         || firstLines.contains(NL + Key.ONION_KEY.keyword + NL)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.ONION_KEY, MicrodescriptorImpl.class);
+      return new DescriptorType(Key.ONION_KEY,
+          MicrodescriptorImpl.class);
     } else if (firstLines.startsWith("@type bridge-pool-assignment 1.")
         || firstLines.startsWith(Key.BRIDGE_POOL_ASSIGNMENT.keyword + SP)
         || firstLines.contains(NL + Key.BRIDGE_POOL_ASSIGNMENT.keyword + SP)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.BRIDGE_POOL_ASSIGNMENT, BridgePoolAssignmentImpl.class);
+      return new DescriptorType(Key.BRIDGE_POOL_ASSIGNMENT,
+          BridgePoolAssignmentImpl.class);
     } else if (firstLines.startsWith("@type dir-key-certificate-3 1.")
         || firstLines.startsWith(Key.DIR_KEY_CERTIFICATE_VERSION.keyword + SP)
         || firstLines.contains(
         NL + Key.DIR_KEY_CERTIFICATE_VERSION.keyword + SP)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.DIR_KEY_CERTIFICATE_VERSION, DirectoryKeyCertificateImpl.class);
+      return new DescriptorType(Key.DIR_KEY_CERTIFICATE_VERSION,
+          DirectoryKeyCertificateImpl.class);
     } else if (firstLines.startsWith("@type tordnsel 1.")
         || firstLines.startsWith("ExitNode" + SP)
         || firstLines.contains(NL + "ExitNode" + SP)) {
-      List<Descriptor> parsedDescriptors = new ArrayList<>();
-      parsedDescriptors.add(new ExitListImpl(rawDescriptorBytes, sourceFile,
-          fileName));
-      return parsedDescriptors;
+      return new DescriptorType(null, ExitListImpl.class);
     } else if (firstLines.startsWith("@type network-status-2 1.")
         || firstLines.startsWith(
         Key.NETWORK_STATUS_VERSION.keyword + SP + "2" + NL)
         || firstLines.contains(
         NL + Key.NETWORK_STATUS_VERSION.keyword + SP + "2" + NL)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.NETWORK_STATUS_VERSION, RelayNetworkStatusImpl.class);
+      return new DescriptorType(Key.NETWORK_STATUS_VERSION,
+          RelayNetworkStatusImpl.class);
     } else if (firstLines.startsWith("@type directory 1.")
         || firstLines.startsWith(Key.SIGNED_DIRECTORY.keyword + NL)
         || firstLines.contains(NL + Key.SIGNED_DIRECTORY.keyword + NL)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.SIGNED_DIRECTORY, RelayDirectoryImpl.class);
+      return new DescriptorType(Key.SIGNED_DIRECTORY,
+          RelayDirectoryImpl.class);
     } else if (firstLines.startsWith("@type torperf 1.")) {
-      return TorperfResultImpl.parseTorperfResults(rawDescriptorBytes,
-          sourceFile);
+      return new DescriptorType(null, TorperfResultImpl.class);
     } else if (firstLines.startsWith("@type snowflake-stats 1.")
         || firstLines.startsWith(Key.SNOWFLAKE_STATS_END.keyword + SP)
         || firstLines.contains(NL + Key.SNOWFLAKE_STATS_END.keyword + SP)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.SNOWFLAKE_STATS_END, SnowflakeStatsImpl.class);
+      return new DescriptorType(Key.SNOWFLAKE_STATS_END,
+          SnowflakeStatsImpl.class);
     } else if (firstLines.startsWith("@type bridgedb-metrics 1.")
         || firstLines.startsWith(Key.BRIDGEDB_METRICS_END.keyword + SP)
         || firstLines.contains(NL + Key.BRIDGEDB_METRICS_END.keyword + SP)) {
-      return this.parseOneOrMoreDescriptors(rawDescriptorBytes, sourceFile,
-          Key.BRIDGEDB_METRICS_END, BridgedbMetricsImpl.class);
+      return new DescriptorType(Key.BRIDGEDB_METRICS_END,
+          BridgedbMetricsImpl.class);
     } else if (firstLines.startsWith("@type bandwidth-file 1.")
         || firstLines.matches("(?s)[0-9]{10}\\n.*")) {
       /* Identifying bandwidth files by a 10-digit timestamp in the first line
        * breaks with files generated before 2002 or after 2286 and when the next
        * descriptor identifier starts with just a timestamp in the first line
        * rather than a document type identifier. */
-      List<Descriptor> parsedDescriptors = new ArrayList<>();
-      parsedDescriptors.add(new BandwidthFileImpl(rawDescriptorBytes,
-          sourceFile));
-      return parsedDescriptors;
+      return new DescriptorType(null, BandwidthFileImpl.class);
     } else if (null != fileName
         && fileName.contains(LogDescriptorImpl.MARKER)) {
-      return LogDescriptorImpl.parse(rawDescriptorBytes, sourceFile,
-          fileName);
+      return new DescriptorType(null, LogDescriptorImpl.class);
     } else if (null != fileName
         && fileName.endsWith(".onionperf.analysis.json.xz")) {
-      return new OnionPerfAnalysisConverter(rawDescriptorBytes, sourceFile)
-          .asTorperfResults();
+      return new DescriptorType(null, OnionPerfAnalysisConverter.class);
     } else {
       throw new DescriptorParseException("Could not detect descriptor "
           + "type in descriptor starting with '" + firstLines + "'.");
@@ -169,63 +469,93 @@ public class DescriptorParserImpl implements DescriptorParser {
       File sourceFile, Key key,
       Class<? extends DescriptorImpl> descriptorClass) {
     List<Descriptor> parsedDescriptors = new ArrayList<>();
-    Constructor<? extends DescriptorImpl> constructor;
+    this.splitAndParseDescriptors(rawDescriptorBytes, sourceFile, key,
+        descriptorClass).forEachRemaining(parsedDescriptors::add);
+    return parsedDescriptors;
+  }
+
+  /* Return an iterator that locates and parses the next descriptor only
+   * when being asked for it. */
+  private Iterator<Descriptor> splitAndParseDescriptors(
+      byte[] rawDescriptorBytes, File sourceFile, Key key,
+      Class<? extends DescriptorImpl> descriptorClass) {
+    Constructor<? extends DescriptorImpl> constructor =
+        this.getConstructor(descriptorClass);
+    DescriptorSplitter splitter = new DescriptorSplitter(
+        ByteBuffer.wrap(rawDescriptorBytes), key);
+    return new Iterator<Descriptor>() {
+
+      @Override
+      public boolean hasNext() {
+        return splitter.hasNext();
+      }
+
+      @Override
+      public Descriptor next() {
+        return parseDescriptor(rawDescriptorBytes, splitter.next(),
+            sourceFile, constructor);
+      }
+    };
+  }
+
+  /* Return an iterator that parses descriptors of the given class at the
+   * given offsets and lengths in the given raw descriptor bytes while
+   * iterating over them, without detecting their type or locating them
+   * again, or that parses all raw descriptor bytes incrementally if no
+   * class is given. */
+  Iterator<Descriptor> parseDescriptorsAt(byte[] rawDescriptorBytes,
+      File sourceFile, String fileName,
+      Class<? extends DescriptorImpl> descriptorClass,
+      List<int[]> offsetsAndLengths) {
+    if (null == descriptorClass) {
+      return this.parseDescriptorsIncrementally(rawDescriptorBytes,
+          sourceFile, fileName);
+    }
+    Constructor<? extends DescriptorImpl> constructor =
+        this.getConstructor(descriptorClass);
+    Iterator<int[]> offsetAndLength = offsetsAndLengths.iterator();
+    return new Iterator<Descriptor>() {
+
+      @Override
+      public boolean hasNext() {
+        return offsetAndLength.hasNext();
+      }
+
+      @Override
+      public Descriptor next() {
+        return parseDescriptor(rawDescriptorBytes, offsetAndLength.next(),
+            sourceFile, constructor);
+      }
+    };
+  }
+
+  /* Return the constructor for parsing a single descriptor of the given
+   * class, which is the lazy consensus constructor for consensuses. */
+  Constructor<? extends DescriptorImpl> getConstructor(
+      Class<? extends DescriptorImpl> descriptorClass) {
+    if (RelayNetworkStatusConsensusImpl.class == descriptorClass) {
+      return LAZY_CONSENSUS_CONSTRUCTOR;
+    }
     try {
-      constructor = descriptorClass.getDeclaredConstructor(byte[].class,
+      return descriptorClass.getDeclaredConstructor(byte[].class,
           int[].class, File.class);
     } catch (NoSuchMethodException e) {
       throw new RuntimeException(e);
     }
-    int startAnnotations = 0;
-    int endAllDescriptors = rawDescriptorBytes.length;
-    String ascii = new String(rawDescriptorBytes, StandardCharsets.US_ASCII);
-    boolean containsAnnotations = ascii.startsWith("@")
-        || ascii.contains(NL + "@");
-    while (startAnnotations < endAllDescriptors) {
-      int startDescriptor;
-      if (startAnnotations == ascii.indexOf(key.keyword + SP,
-          startAnnotations) || startAnnotations == ascii.indexOf(
-          key.keyword + NL)) {
-        startDescriptor = startAnnotations;
-      } else {
-        startDescriptor = ascii.indexOf(NL + key.keyword + SP,
-            startAnnotations - 1);
-        if (startDescriptor < 0) {
-          startDescriptor = ascii.indexOf(NL + key.keyword + NL,
-              startAnnotations - 1);
-        }
-        if (startDescriptor < 0) {
-          break;
-        } else {
-          startDescriptor += 1;
-        }
-      }
-      int endDescriptor = -1;
-      if (containsAnnotations) {
-        endDescriptor = ascii.indexOf(NL + "@", startDescriptor);
-      }
-      if (endDescriptor < 0) {
-        endDescriptor = ascii.indexOf(NL + key.keyword + SP, startDescriptor);
-      }
-      if (endDescriptor < 0) {
-        endDescriptor = ascii.indexOf(NL + key.keyword + NL, startDescriptor);
-      }
-      if (endDescriptor < 0) {
-        endDescriptor = endAllDescriptors - 1;
-      }
-      endDescriptor += 1;
-      int[] offsetAndLength = new int[] { startAnnotations,
-          endDescriptor - startAnnotations };
-      try {
-        parsedDescriptors.add(this.parseOneDescriptor(rawDescriptorBytes,
-            offsetAndLength, sourceFile, constructor));
-      } catch (DescriptorParseException e) {
-        parsedDescriptors.add(new UnparseableDescriptorImpl(
-            rawDescriptorBytes, offsetAndLength, sourceFile, e));
-      }
-      startAnnotations = endDescriptor;
+  }
+
+  /* Parse a single descriptor, or return an unparseable descriptor if it
+   * cannot be parsed. */
+  Descriptor parseDescriptor(byte[] rawDescriptorBytes,
+      int[] offsetAndLength, File sourceFile,
+      Constructor<? extends DescriptorImpl> constructor) {
+    try {
+      return this.parseOneDescriptor(rawDescriptorBytes, offsetAndLength,
+          sourceFile, constructor);
+    } catch (DescriptorParseException e) {
+      return new UnparseableDescriptorImpl(rawDescriptorBytes,
+          offsetAndLength, sourceFile, e);
     }
-    return parsedDescriptors;
   }
 
   Descriptor parseOneDescriptor(byte[] rawDescriptorBytes,
@@ -233,6 +563,10 @@ public class DescriptorParserImpl implements DescriptorParser {
       Constructor<? extends DescriptorImpl> constructor)
       throws DescriptorParseException {
     try {
+      if (LAZY_CONSENSUS_CONSTRUCTOR.equals(constructor)) {
+        return constructor.newInstance(rawDescriptorBytes, offsetAndLength,
+            sourceFile, this.lazyParsing);
+      }
       return constructor.newInstance(rawDescriptorBytes, offsetAndLength,
           sourceFile);
     } catch (InvocationTargetException e) {
@@ -0,0 +1,199 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import org.torproject.descriptor.Descriptor;
+import org.torproject.descriptor.DescriptorPublisher;
+import org.torproject.descriptor.DescriptorSubscriber;
+import org.torproject.descriptor.DescriptorSubscription;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher that provides descriptors from an iterator to a single
+ * subscriber, only advancing the iterator as far as requested by the
+ * subscriber.
+ *
+ * <p>Descriptors are provided by tasks run on the given executor.  A task
+ * is only scheduled after the subscriber requests more descriptors or
+ * cancels the subscription, and it returns as soon as all requested
+ * descriptors are provided, so that no thread is held while waiting for
+ * further requests.  At most one task runs at a time.</p>
+ */
+public class DescriptorPublisherImpl implements DescriptorPublisher {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+      DescriptorPublisherImpl.class);
+
+  private final Iterator<Descriptor> descriptors;
+
+  private final Runnable onTermination;
+
+  private final Executor executor;
+
+  private final AtomicBoolean hasSubscriber = new AtomicBoolean();
+
+  /**
+   * Creates a new publisher for the given descriptors.
+   *
+   * @param descriptors Iterator that reads and parses descriptors while
+   *     iterating over them.
+   * @param onTermination Task to release any resources held by the
+   *     iterator after the subscription has been completed, failed, or
+   *     cancelled.
+   * @param executor Executor for running tasks that provide descriptors.
+   */
+  public DescriptorPublisherImpl(Iterator<Descriptor> descriptors,
+      Runnable onTermination, Executor executor) {
+    this.descriptors = descriptors;
+    this.onTermination = onTermination;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(DescriptorSubscriber subscriber) {
+    if (null == subscriber) {
+      throw new NullPointerException("Subscriber must not be null.");
+    }
+    if (!this.hasSubscriber.compareAndSet(false, true)) {
+      subscriber.onSubscribe(new DescriptorSubscription() {
+
+        @Override
+        public void request(long n) {
+          /* Nothing to request. */
+        }
+
+        @Override
+        public void cancel() {
+          /* Nothing to cancel. */
+        }
+      });
+      subscriber.onError(new IllegalStateException("Only a single "
+          + "subscriber is permitted."));
+      return;
+    }
+    Subscription subscription = new Subscription(subscriber);
+    subscriber.onSubscribe(subscription);
+  }
+
+  private class Subscription implements DescriptorSubscription, Runnable {
+
+    private final DescriptorSubscriber subscriber;
+
+    /* Number of requested descriptors not provided yet, or Long.MAX_VALUE
+     * if all remaining descriptors have been requested. */
+    private final AtomicLong requested = new AtomicLong();
+
+    /* Number of times that a task has been scheduled or that a running
+     * task has been asked to check again for requests or cancellation. */
+    private final AtomicInteger pendingSignals = new AtomicInteger();
+
+    private volatile boolean isCancelled = false;
+
+    private volatile Throwable requestError;
+
+    /* Only accessed by the task providing descriptors. */
+    private boolean isTerminated = false;
+
+    private Subscription(DescriptorSubscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0L) {
+        this.requestError = new IllegalArgumentException("Number of "
+            + "requested descriptors must be positive, but is " + n + ".");
+      } else {
+        this.requested.accumulateAndGet(n, (current, added)
+            -> current + added < 0L ? Long.MAX_VALUE : current + added);
+      }
+      this.schedule();
+    }
+
+    @Override
+    public void cancel() {
+      this.isCancelled = true;
+      this.schedule();
+    }
+
+    /* Schedule a task to provide descriptors, unless a task is already
+     * running or scheduled, in which case that task will check again for
+     * requests or cancellation before returning. */
+    private void schedule() {
+      if (0 == this.pendingSignals.getAndIncrement()) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          logger.warn("Executor rejected task for providing descriptors.",
+              e);
+          this.isCancelled = true;
+          this.terminate();
+          this.subscriber.onError(e);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      int signals = 1;
+      do {
+        this.provideDescriptors();
+        signals = this.pendingSignals.addAndGet(-signals);
+      } while (0 != signals);
+    }
+
+    private void provideDescriptors() {
+      if (this.isTerminated) {
+        return;
+      }
+      while (!this.isCancelled && null == this.requestError) {
+        Descriptor descriptor;
+        try {
+          if (!descriptors.hasNext()) {
+            this.terminate();
+            this.subscriber.onComplete();
+            return;
+          }
+          if (0L == this.requested.get()) {
+            return;
+          }
+          descriptor = descriptors.next();
+        } catch (RuntimeException e) {
+          this.terminate();
+          this.subscriber.onError(e);
+          return;
+        }
+        try {
+          this.subscriber.onNext(descriptor);
+        } catch (RuntimeException e) {
+          logger.warn("Subscriber failed to receive descriptor.  "
+              + "Cancelling subscription.", e);
+          this.isCancelled = true;
+        }
+        this.requested.getAndUpdate((current)
+            -> Long.MAX_VALUE == current ? current : current - 1L);
+      }
+      this.terminate();
+      if (null != this.requestError && !this.isCancelled) {
+        this.subscriber.onError(this.requestError);
+      }
+    }
+
+    private void terminate() {
+      if (!this.isTerminated) {
+        this.isTerminated = true;
+        onTermination.run();
+      }
+    }
+  }
+}
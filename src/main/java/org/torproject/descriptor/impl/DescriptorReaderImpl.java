@@ -4,14 +4,20 @@
 package org.torproject.descriptor.impl;
 
 import org.torproject.descriptor.Descriptor;
-import org.torproject.descriptor.DescriptorParser;
+import org.torproject.descriptor.DescriptorParseException;
+import org.torproject.descriptor.DescriptorPublisher;
 import org.torproject.descriptor.DescriptorReader;
+import org.torproject.descriptor.ReaderStatistics;
+import org.torproject.descriptor.internal.CountingInputStream;
+import org.torproject.descriptor.internal.ParallelBzip2InputStream;
+import org.torproject.descriptor.internal.ParallelXzInputStream;
+import org.torproject.descriptor.internal.ReadAheadInputStream;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
 import org.apache.commons.compress.utils.IOUtils;
 
 import org.slf4j.Logger;
@@ -24,15 +30,40 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.Spliterator;
 import java.util.Stack;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DescriptorReaderImpl implements DescriptorReader {
 
@@ -45,11 +76,19 @@ public class DescriptorReaderImpl implements DescriptorReader {
 
   @Override
   public void setHistoryFile(File historyFile) {
+    this.setHistoryFile(historyFile, false);
+  }
+
+  private boolean compactHistoryFormat = false;
+
+  @Override
+  public void setHistoryFile(File historyFile, boolean compactFormat) {
     if (this.hasStartedReading) {
       throw new IllegalStateException("Reconfiguration is not permitted "
           + "after starting to read.");
     }
     this.manualSaveHistoryFile = historyFile;
+    this.compactHistoryFormat = compactFormat;
   }
 
   private SortedMap<String, Long> excludedFiles;
@@ -81,7 +120,10 @@ public class DescriptorReaderImpl implements DescriptorReader {
     return new TreeMap<>(this.reader.parsedFilesAfter);
   }
 
-  private int maxDescriptorsInQueue = 100;
+  /* Maximum number of descriptors in the queue, or null if not set
+   * explicitly, in which case it's 100 unless limiting the queue by
+   * size. */
+  private Integer maxDescriptorsInQueue = null;
 
   @Override
   public void setMaxDescriptorsInQueue(int maxDescriptorsInQueue) {
@@ -92,8 +134,207 @@ public class DescriptorReaderImpl implements DescriptorReader {
     this.maxDescriptorsInQueue = maxDescriptorsInQueue;
   }
 
+  /* Estimated number of bytes of a parsed descriptor in addition to its
+   * raw descriptor bytes, which also serves as lower bound for the size of
+   * a descriptor when sizing the queue. */
+  private static final long DESCRIPTOR_OVERHEAD_BYTES = 512L;
+
+  private long maxBytesInQueue = -1L;
+
+  @Override
+  public void setMaxBytesInQueue(long maxBytesInQueue) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    if (maxBytesInQueue < 1L) {
+      throw new IllegalArgumentException("Maximum number of bytes in queue "
+          + "must be at least 1, but is " + maxBytesInQueue + ".");
+    }
+    this.maxBytesInQueue = maxBytesInQueue;
+  }
+
+  private int parallelism = 1;
+
+  @Override
+  public void setParallelism(int parallelism) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1, "
+          + "but is " + parallelism + ".");
+    }
+    this.parallelism = parallelism;
+  }
+
+  private int traversalParallelism = 1;
+
+  @Override
+  public void setTraversalParallelism(int traversalParallelism) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    if (traversalParallelism < 1) {
+      throw new IllegalArgumentException("Traversal parallelism must be at "
+          + "least 1, but is " + traversalParallelism + ".");
+    }
+    this.traversalParallelism = traversalParallelism;
+  }
+
+  private boolean preserveOrder = true;
+
+  @Override
+  public void setPreserveOrder(boolean preserveOrder) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    this.preserveOrder = preserveOrder;
+  }
+
+  private boolean lazyParsing = false;
+
+  @Override
+  public void setLazyParsing(boolean lazyParsing) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    this.lazyParsing = lazyParsing;
+  }
+
+  private boolean memoryMapping = false;
+
+  @Override
+  public void setMemoryMapping(boolean memoryMapping) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    this.memoryMapping = memoryMapping;
+  }
+
+  private List<Class<?>> descriptorTypes;
+
+  @Override
+  public void setDescriptorTypes(Class<?>... descriptorTypes) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    for (Class<?> descriptorType : descriptorTypes) {
+      if (!Descriptor.class.isAssignableFrom(descriptorType)) {
+        throw new IllegalArgumentException("Descriptor type must extend "
+            + "Descriptor, but " + descriptorType.getName() + " does not.");
+      }
+    }
+    this.descriptorTypes = new ArrayList<>(Arrays.asList(descriptorTypes));
+  }
+
+  private Set<String> descriptorTypeAnnotations;
+
+  @Override
+  public void setDescriptorTypeAnnotations(
+      String... descriptorTypeAnnotations) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    this.descriptorTypeAnnotations = new HashSet<>(
+        Arrays.asList(descriptorTypeAnnotations));
+  }
+
+  private long timeWindowStartMillis = Long.MIN_VALUE;
+
+  private long timeWindowEndMillis = Long.MAX_VALUE;
+
+  @Override
+  public void setTimeWindow(long startMillis, long endMillis) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    if (endMillis < startMillis) {
+      throw new IllegalArgumentException("End of time window must not be "
+          + "before its start, but " + endMillis + " is before "
+          + startMillis + ".");
+    }
+    this.timeWindowStartMillis = startMillis;
+    this.timeWindowEndMillis = endMillis;
+  }
+
+  private File cacheDirectory;
+
+  private long maxCacheBytes;
+
+  @Override
+  public void setCacheDirectory(File cacheDirectory, long maxCacheBytes) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    if (maxCacheBytes < 0L) {
+      throw new IllegalArgumentException("Maximum cache size must not be "
+          + "negative, but is " + maxCacheBytes + ".");
+    }
+    this.cacheDirectory = cacheDirectory;
+    this.maxCacheBytes = maxCacheBytes;
+  }
+
+  /* Return the settings that determine which descriptors are parsed and
+   * how, so that descriptors cached with other settings are not used. */
+  private String cacheSettings() {
+    StringBuilder sb = new StringBuilder("types");
+    if (null == this.descriptorTypes) {
+      sb.append(" all");
+    } else {
+      for (Class<?> descriptorType : this.descriptorTypes) {
+        sb.append(" ").append(descriptorType.getName());
+      }
+    }
+    sb.append("\nannotations");
+    if (null == this.descriptorTypeAnnotations) {
+      sb.append(" all");
+    } else {
+      for (String annotation : new TreeSet<>(this.descriptorTypeAnnotations)) {
+        sb.append(" ").append(annotation);
+      }
+    }
+    sb.append("\ntime-window ").append(this.timeWindowStartMillis)
+        .append(" ").append(this.timeWindowEndMillis);
+    sb.append("\nlazy-parsing ").append(this.lazyParsing);
+    return sb.toString();
+  }
+
+  private int readAheadBytes = 0;
+
+  @Override
+  public void setReadAheadBytes(int readAheadBytes) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Reconfiguration is not permitted "
+          + "after starting to read.");
+    }
+    if (readAheadBytes < 0) {
+      throw new IllegalArgumentException("Number of bytes to read ahead "
+          + "must not be negative, but is " + readAheadBytes + ".");
+    }
+    this.readAheadBytes = readAheadBytes;
+  }
+
+  private final ReaderStatisticsImpl statistics = new ReaderStatisticsImpl();
+
+  @Override
+  public ReaderStatistics getStatistics() {
+    return this.statistics;
+  }
+
   private DescriptorReaderRunnable reader;
 
+  private BlockingIteratorImpl<?> descriptorQueue;
+
   @Override
   public Iterable<Descriptor> readDescriptors(File... descriptorFiles) {
     if (this.hasStartedReading) {
@@ -102,15 +343,149 @@ public class DescriptorReaderImpl implements DescriptorReader {
     }
     this.hasStartedReading = true;
     BlockingIteratorImpl<Descriptor> descriptorQueue =
-        new BlockingIteratorImpl<>(this.maxDescriptorsInQueue);
-    this.reader = new DescriptorReaderRunnable(descriptorFiles, descriptorQueue,
-        this.manualSaveHistoryFile, this.excludedFiles);
+        this.createDescriptorQueue();
+    this.statistics.setDescriptorQueue(descriptorQueue);
+    this.descriptorQueue = descriptorQueue;
+    this.reader = this.createReader(descriptorFiles, descriptorQueue);
     Thread readerThread = new Thread(this.reader);
     readerThread.setDaemon(true);
     readerThread.start();
     return descriptorQueue;
   }
 
+  @Override
+  public Iterable<List<Descriptor>> readDescriptorBatches(int maxBatchSize,
+      File... descriptorFiles) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Maximum batch size must be at "
+          + "least 1, but is " + maxBatchSize + ".");
+    }
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Initiating reading is only "
+          + "permitted once.");
+    }
+    this.hasStartedReading = true;
+    BlockingIteratorImpl<List<Descriptor>> batchQueue =
+        this.createBatchQueue(maxBatchSize);
+    this.statistics.setDescriptorQueue(batchQueue);
+    this.descriptorQueue = batchQueue;
+    this.reader = this.createReader(descriptorFiles, null);
+    this.reader.batchQueue = batchQueue;
+    this.reader.maxBatchSize = maxBatchSize;
+    Thread readerThread = new Thread(this.reader);
+    readerThread.setDaemon(true);
+    readerThread.start();
+    return batchQueue;
+  }
+
+  @Override
+  public DescriptorPublisher publishDescriptors(Executor executor,
+      File... descriptorFiles) {
+    if (null == executor) {
+      throw new NullPointerException("Executor must not be null.");
+    }
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Initiating reading is only "
+          + "permitted once.");
+    }
+    this.hasStartedReading = true;
+    this.reader = this.createReader(descriptorFiles, null);
+    return new DescriptorPublisherImpl(this.reader, this.reader::close,
+        executor);
+  }
+
+  @Override
+  public Stream<Descriptor> readDescriptorsAsStream(File... descriptorFiles) {
+    if (this.hasStartedReading) {
+      throw new IllegalStateException("Initiating reading is only "
+          + "permitted once.");
+    }
+    this.hasStartedReading = true;
+    DescriptorReaderRunnable reader = this.createReader(descriptorFiles,
+        null);
+    this.reader = reader;
+    return StreamSupport.stream(reader::createSpliterator,
+        Spliterator.ORDERED | Spliterator.NONNULL, false)
+        .onClose(reader::close);
+  }
+
+  /* Return the maximum number of descriptors in the queue, which is only
+   * derived from the maximum number of bytes in the queue if limiting the
+   * queue by size and not by number. */
+  private int maxDescriptorsInQueue() {
+    if (null != this.maxDescriptorsInQueue) {
+      return this.maxDescriptorsInQueue;
+    } else if (this.maxBytesInQueue < 0L) {
+      return 100;
+    } else {
+      return (int) Math.min(Integer.MAX_VALUE,
+          this.maxBytesInQueue / DESCRIPTOR_OVERHEAD_BYTES + 1L);
+    }
+  }
+
+  private static long estimateBytes(Descriptor descriptor) {
+    return descriptor.getRawDescriptorLength() + DESCRIPTOR_OVERHEAD_BYTES;
+  }
+
+  private BlockingIteratorImpl<Descriptor> createDescriptorQueue() {
+    int maxDescriptors = this.maxDescriptorsInQueue();
+    if (this.maxBytesInQueue < 0L) {
+      return new BlockingIteratorImpl<>(maxDescriptors);
+    }
+    return new BlockingIteratorImpl<>(maxDescriptors, this.maxBytesInQueue,
+        DescriptorReaderImpl::estimateBytes);
+  }
+
+  private BlockingIteratorImpl<List<Descriptor>> createBatchQueue(
+      int maxBatchSize) {
+    int maxBatches = Math.max(1, this.maxDescriptorsInQueue() / maxBatchSize);
+    if (this.maxBytesInQueue < 0L) {
+      return new BlockingIteratorImpl<>(maxBatches);
+    }
+    return new BlockingIteratorImpl<>(maxBatches, this.maxBytesInQueue,
+        (batch) -> {
+          long bytes = 0L;
+          for (Descriptor descriptor : batch) {
+            bytes += estimateBytes(descriptor);
+          }
+          return bytes;
+        });
+  }
+
+  private DescriptorReaderRunnable createReader(File[] descriptorFiles,
+      BlockingIteratorImpl<Descriptor> descriptorQueue) {
+    DescriptorReaderRunnable reader = new DescriptorReaderRunnable(
+        descriptorFiles, descriptorQueue, this.manualSaveHistoryFile,
+        this.excludedFiles, this.parallelism, this.preserveOrder,
+        this.lazyParsing, this.memoryMapping);
+    reader.descriptorParser.setWantedTypes(this.descriptorTypes,
+        this.descriptorTypeAnnotations);
+    reader.descriptorParser.setTimeWindow(this.timeWindowStartMillis,
+        this.timeWindowEndMillis);
+    if (null != this.cacheDirectory) {
+      reader.descriptorCache = new DescriptorCache(this.cacheDirectory,
+          this.maxCacheBytes, this.cacheSettings(),
+          this.statistics::addCacheBytesRead);
+    }
+    reader.compactHistoryFormat = this.compactHistoryFormat;
+    reader.traversalParallelism = this.traversalParallelism;
+    reader.readAheadBytes = this.readAheadBytes;
+    reader.statistics = this.statistics;
+    return reader;
+  }
+
+  @Override
+  public void close() {
+    DescriptorReaderRunnable reader = this.reader;
+    if (null == reader || reader.hasFinishedReading) {
+      return;
+    }
+    reader.isCancelled = true;
+    if (null != this.descriptorQueue) {
+      this.descriptorQueue.close();
+    }
+  }
+
   @Override
   public void saveHistoryFile(File historyFile) {
     if (!this.reader.hasFinishedReading) {
@@ -120,12 +495,27 @@ public class DescriptorReaderImpl implements DescriptorReader {
     this.reader.writeNewHistory(historyFile);
   }
 
-  private static class DescriptorReaderRunnable implements Runnable {
+  /* Reader of descriptor files and tarballs that provides parsed
+   * descriptors one by one, and that only reads and parses as many files or
+   * tarball entries as needed to provide the next descriptor.  When run, it
+   * adds all descriptors to the queue, which blocks whenever the queue is
+   * full. */
+  static class DescriptorReaderRunnable
+      implements Runnable, Iterator<Descriptor> {
+
+    /* Largest number of bytes that fits into a byte array. */
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
 
     private File[] descriptorFiles;
 
     private BlockingIteratorImpl<Descriptor> descriptorQueue;
 
+    /* Queue of descriptor batches when providing descriptors in batches
+     * rather than one by one, or null. */
+    private BlockingIteratorImpl<List<Descriptor>> batchQueue;
+
+    private int maxBatchSize;
+
     private File manualSaveHistoryFile;
 
     private List<File> tarballs = new ArrayList<>();
@@ -136,13 +526,150 @@ public class DescriptorReaderImpl implements DescriptorReader {
 
     private SortedMap<String, Long> parsedFilesAfter = new TreeMap<>();
 
-    private DescriptorParser descriptorParser;
+    /* History read from a history file in compact format, or null. */
+    private CompactHistory compactHistory;
+
+    /* Whether to write history files in compact format. */
+    private boolean compactHistoryFormat;
+
+    private DescriptorParserImpl descriptorParser;
+
+    private int parallelism;
+
+    /* Maximum number of threads decompressing a .tar.xz or .tar.bz2
+     * tarball. */
+    private int decompressionThreads;
+
+    private boolean preserveOrder;
+
+    private boolean lazyParsing;
+
+    private boolean memoryMapping;
+
+    /* Cache of descriptors in tarballs and descriptor files, or null if
+     * nothing is cached. */
+    private DescriptorCache descriptorCache;
+
+    /* Writers of cached descriptors of tarballs and descriptor files that
+     * have been read completely, but whose descriptors may still be parsed
+     * by other threads, which are aborted when closing this reader. */
+    private Set<DescriptorCache.CacheWriter> cacheWriters =
+        ConcurrentHashMap.newKeySet();
+
+    private ReaderStatisticsImpl statistics = new ReaderStatisticsImpl();
+
+    /* Reader that created this reader for reading a single descriptor file
+     * or tarball as part of a stream, or null. */
+    private DescriptorReaderRunnable parent;
+
+    /* Readers of single descriptor files or tarballs created by this reader
+     * that have not finished reading yet. */
+    Set<DescriptorReaderRunnable> fileReaders =
+        ConcurrentHashMap.newKeySet();
+
+    /* Number of descriptor files and tarballs handed out to streams that
+     * have not been read completely yet. */
+    private AtomicInteger unreadFiles = new AtomicInteger();
+
+    /* Pool of parser threads, or null if descriptors are parsed by the
+     * thread requesting them. */
+    private ExecutorService parserThreads;
+
+    /* Parse results in the order of submitting parse tasks, used when
+     * preserving the original order. */
+    private Deque<Future<Iterable<Descriptor>>> pendingResults =
+        new ArrayDeque<>();
+
+    /* Parse results in the order of completing parse tasks, used when
+     * relaxing the original order. */
+    private CompletionService<Iterable<Descriptor>> completedResults;
+
+    private int pendingTasks = 0;
+
+    private boolean hasStarted = false;
+
+    private volatile boolean hasFinishedReading = false;
+
+    /* Whether reading has been cancelled by closing the descriptor reader,
+     * in which case the thread reading descriptors stops and releases
+     * resources held for reading as soon as it notices. */
+    volatile boolean isCancelled = false;
+
+    /* Index of the next given descriptor file or directory to visit. */
+    private int nextDescriptorFileIndex = 0;
+
+    /* Files and directories found in the current given directory that
+     * still need to be visited. */
+    private Stack<File> files = new Stack<>();
+
+    /* Number of threads traversing given directories, or 1 for visiting
+     * files and directories one by one in the reading thread. */
+    private int traversalParallelism = 1;
+
+    /* Traversal of given files and directories on traversal threads, or
+     * null if not started yet or not used. */
+    private DirectoryTraversal directoryTraversal;
+
+    /* Currently memory-mapped descriptor file with a splitter over its
+     * descriptors, or null if no file is mapped. */
+    private File mappedFile;
+
+    private MappedByteBuffer mappedBuffer;
+
+    private DescriptorSplitter mappedSplitter;
+
+    private Constructor<? extends DescriptorImpl> mappedConstructor;
+
+    /* Writer of descriptors of the currently memory-mapped descriptor file
+     * to the cache, or null if the file is not being cached. */
+    private DescriptorCache.CacheWriter mappedCacheWriter;
+
+    /* Descriptor file whose descriptors are currently read from the cache,
+     * and its cached entries, or null. */
+    private File cachedFile;
+
+    private DescriptorCache.CachedEntries cachedFileEntries;
+
+    /* Index of the next tarball to open. */
+    private int nextTarballIndex = 0;
+
+    /* Currently open tarball, or null if no tarball is open. */
+    private File tarball;
+
+    private TarArchiveInputStream tarballInputStream;
+
+    private long tarballBytesTotal = 0L;
+
+    private long tarballBytesRead = 0L;
+
+    /* Cached entries of the currently open tarball, read instead of the
+     * tarball itself, or null. */
+    private DescriptorCache.CachedEntries cachedEntries;
 
-    private boolean hasFinishedReading = false;
+    /* Writer of descriptors of the currently open tarball to the cache, or
+     * null if the tarball is not being cached. */
+    private DescriptorCache.CacheWriter cacheWriter;
+
+    /* Maximum number of bytes to read ahead per tarball, or 0 for not
+     * reading ahead. */
+    private int readAheadBytes = 0;
+
+    /* Next tarball that has been opened for reading ahead while reading
+     * the current tarball, or null, and its decompressed contents, or null
+     * if it's empty. */
+    private File prefetchedTarball;
+
+    private InputStream prefetchedTarballStream;
+
+    /* Descriptors parsed from the current descriptor file or tarball entry
+     * that have not been provided yet. */
+    private Iterator<Descriptor> descriptors = Collections.emptyIterator();
 
     private DescriptorReaderRunnable(File[] descriptorFiles,
         BlockingIteratorImpl<Descriptor> descriptorQueue,
-        File manualSaveHistoryFile, SortedMap<String, Long> excludedFiles) {
+        File manualSaveHistoryFile, SortedMap<String, Long> excludedFiles,
+        int parallelism, boolean preserveOrder, boolean lazyParsing,
+        boolean memoryMapping) {
       this.descriptorFiles = descriptorFiles;
       this.descriptorQueue = descriptorQueue;
       this.manualSaveHistoryFile = manualSaveHistoryFile;
@@ -150,28 +677,289 @@ public class DescriptorReaderImpl implements DescriptorReader {
         this.excludedFilesBefore = excludedFiles;
       }
       this.descriptorParser = new DescriptorParserImpl();
+      this.descriptorParser.setLazyParsing(lazyParsing);
+      this.lazyParsing = lazyParsing;
+      this.parallelism = parallelism;
+      this.decompressionThreads = parallelism;
+      this.preserveOrder = preserveOrder;
+      this.memoryMapping = memoryMapping;
     }
 
     public void run() {
       try {
-        this.readOldHistory(this.manualSaveHistoryFile);
-        this.readDescriptorFiles();
-        this.readTarballs();
-        this.hasFinishedReading = true;
+        if (null != this.batchQueue) {
+          while (this.hasNext()) {
+            this.batchQueue.add(this.nextBatch());
+          }
+        } else {
+          while (this.hasNext()) {
+            this.descriptorQueue.add(this.next());
+          }
+        }
       } catch (Throwable t) {
-        logger.error("Bug: uncaught exception or error while reading "
-            + "descriptors.", t);
+        if (!this.isCancelled) {
+          logger.error("Bug: uncaught exception or error while reading "
+              + "descriptors.", t);
+        }
       } finally {
+        this.close();
         if (null != this.descriptorQueue) {
           this.descriptorQueue.setOutOfDescriptors();
         }
+        if (null != this.batchQueue) {
+          this.batchQueue.setOutOfDescriptors();
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (!this.hasStarted) {
+        this.startParserThreads();
+        this.readOldHistory(this.manualSaveHistoryFile);
+        this.hasStarted = true;
+      }
+      if (this.isCancelled) {
+        this.close();
+        return false;
+      }
+      while (!this.descriptors.hasNext()) {
+        if (this.hasFinishedReading) {
+          return false;
+        }
+        Iterator<Descriptor> nextDescriptors = null == this.parserThreads
+            ? this.nextParseTask() : this.nextParseResult();
+        if (null == nextDescriptors) {
+          this.close();
+          if (!this.isCancelled) {
+            this.hasFinishedReading = true;
+          }
+          return false;
+        }
+        this.descriptors = nextDescriptors;
+      }
+      return true;
+    }
+
+    @Override
+    public Descriptor next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return this.descriptors.next();
+    }
+
+    /* Return a batch of up to the maximum batch size of descriptors, which
+     * contains at least one descriptor. */
+    private List<Descriptor> nextBatch() {
+      List<Descriptor> batch = new ArrayList<>();
+      do {
+        batch.add(this.next());
+      } while (batch.size() < this.maxBatchSize && this.hasNext());
+      return batch;
+    }
+
+    /* Release any resources held for reading, without discarding the
+     * history of excluded and parsed files. */
+    void close() {
+      if (null != this.parserThreads) {
+        this.parserThreads.shutdownNow();
+      }
+      this.mappedFile = null;
+      this.mappedBuffer = null;
+      this.mappedSplitter = null;
+      if (null != this.mappedCacheWriter) {
+        this.mappedCacheWriter.abort();
+        this.mappedCacheWriter = null;
+      }
+      if (null != this.cachedFileEntries) {
+        this.closeCachedFile();
+      }
+      if (null != this.tarball) {
+        this.closeTarball();
+      }
+      if (null != this.prefetchedTarballStream) {
+        try {
+          this.prefetchedTarballStream.close();
+        } catch (IOException e) {
+          logger.warn("Unable to close tarball {}.", this.prefetchedTarball,
+              e);
+        }
+      }
+      this.prefetchedTarball = null;
+      this.prefetchedTarballStream = null;
+      this.descriptors = Collections.emptyIterator();
+      if (null != this.directoryTraversal) {
+        this.directoryTraversal.close();
+      }
+      for (DescriptorReaderRunnable fileReader : this.fileReaders) {
+        fileReader.close();
+      }
+      for (DescriptorCache.CacheWriter cacheWriter : this.cacheWriters) {
+        cacheWriter.abort();
+      }
+      this.cacheWriters.clear();
+    }
+
+    /* Find all descriptor files and tarballs to read, skipping excluded
+     * files, and return a spliterator that reads and parses them while
+     * traversing it. */
+    private Spliterator<Descriptor> createSpliterator() {
+      this.readOldHistory(this.manualSaveHistoryFile);
+      this.hasStarted = true;
+      List<File> files = new ArrayList<>();
+      File file;
+      while (null != (file = this.nextDescriptorFile())) {
+        files.add(file);
+      }
+      for (File tarball : this.tarballs) {
+        this.tarballBytesTotal += tarball.length();
+        files.add(tarball);
+      }
+      this.unreadFiles.set(files.size());
+      if (files.isEmpty()) {
+        this.hasFinishedReading = true;
+      }
+      return new DescriptorSpliterator(this, files, 0, files.size());
+    }
+
+    /* Create a reader for a single descriptor file or tarball found by
+     * this reader, which uses the same settings except for reading the
+     * file in the calling thread. */
+    DescriptorReaderRunnable createFileReader(File file) {
+      DescriptorReaderRunnable fileReader = new DescriptorReaderRunnable(
+          new File[] { file }, null, null, null, 1, true, this.lazyParsing,
+          this.memoryMapping);
+      fileReader.parent = this;
+      fileReader.descriptorParser = this.descriptorParser;
+      fileReader.decompressionThreads = this.decompressionThreads;
+      fileReader.descriptorCache = this.descriptorCache;
+      fileReader.readAheadBytes = this.readAheadBytes;
+      fileReader.statistics = this.statistics;
+      this.fileReaders.add(fileReader);
+      return fileReader;
+    }
+
+    /* Take over the history of a reader of a single descriptor file or
+     * tarball that has finished reading, and finish reading when this
+     * was the last descriptor file or tarball. */
+    void finishFileReader(DescriptorReaderRunnable fileReader) {
+      fileReader.close();
+      this.fileReaders.remove(fileReader);
+      synchronized (this) {
+        this.parsedFilesAfter.putAll(fileReader.parsedFilesAfter);
+      }
+      if (0 == this.unreadFiles.decrementAndGet()) {
+        this.hasFinishedReading = true;
+      }
+    }
+
+    private void startParserThreads() {
+      if (this.parallelism <= 1) {
+        return;
+      }
+      this.parserThreads = Executors.newFixedThreadPool(this.parallelism,
+          (runnable) -> {
+            Thread parserThread = new Thread(runnable);
+            parserThread.setDaemon(true);
+            return parserThread;
+          });
+      this.completedResults =
+          new ExecutorCompletionService<>(this.parserThreads);
+    }
+
+    /* Hand over parse tasks to the pool of parser threads, but don't read
+     * too far ahead of the parser threads, or we'd keep too many raw
+     * descriptor bytes in memory, and return the next parse result, or
+     * null if there are no parse tasks left. */
+    private Iterator<Descriptor> nextParseResult() {
+      while (this.pendingTasks < 2 * this.parallelism) {
+        Iterator<Descriptor> task = this.nextParseTask();
+        if (null == task) {
+          break;
+        }
+        Callable<Iterable<Descriptor>> callable = () -> {
+          List<Descriptor> parsedDescriptors = new ArrayList<>();
+          task.forEachRemaining(parsedDescriptors::add);
+          return parsedDescriptors;
+        };
+        if (this.preserveOrder) {
+          this.pendingResults.add(this.parserThreads.submit(callable));
+        } else {
+          this.completedResults.submit(callable);
+        }
+        this.pendingTasks++;
+      }
+      if (0 == this.pendingTasks) {
+        return null;
+      }
+      try {
+        Future<Iterable<Descriptor>> result = this.preserveOrder
+            ? this.pendingResults.remove() : this.completedResults.take();
+        this.pendingTasks--;
+        return result.get().iterator();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for "
+            + "parser threads.", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Parser thread failed.",
+            e.getCause());
+      }
+    }
+
+    /* Read the next descriptor file, tarball entry, cached entry, or
+     * descriptor in a memory-mapped descriptor file, and return an
+     * iterator that parses contained descriptors while iterating over
+     * them, or null if there is nothing left to read.  Plain descriptor
+     * files are read before tarballs. */
+    Iterator<Descriptor> nextParseTask() {
+      while (true) {
+        if (this.isCancelled) {
+          return null;
+        }
+        Iterator<Descriptor> task = null;
+        if (null != this.mappedSplitter) {
+          task = this.nextMappedDescriptor();
+        } else if (null != this.cachedFileEntries) {
+          task = this.nextCachedFileEntry();
+        } else if (null != this.tarball) {
+          task = this.nextTarballEntry();
+        } else {
+          File file = this.nextDescriptorFile();
+          if (null != file) {
+            task = this.readDescriptorFile(file);
+          } else if (!this.openNextTarball()) {
+            return null;
+          }
+        }
+        if (null != task) {
+          return task;
+        }
       }
     }
 
+    private Iterator<Descriptor> parseDescriptors(byte[] rawDescriptorBytes,
+        File file, String fileName) {
+      this.statistics.addBytesDecompressed(rawDescriptorBytes.length);
+      return this.statistics.countDescriptors(
+          () -> this.descriptorParser.parseDescriptorsIncrementally(
+          rawDescriptorBytes, file, fileName));
+    }
+
     private void readOldHistory(File historyFile) {
       if (historyFile == null || !historyFile.exists()) {
         return;
       }
+      if (CompactHistory.isCompact(historyFile)) {
+        try {
+          this.compactHistory = CompactHistory.read(historyFile);
+        } catch (IOException e) {
+          logger.warn("Trouble reading given history file {}.", historyFile,
+              e);
+        }
+        return;
+      }
       List<String> lines;
       try {
         lines = Files.readAllLines(historyFile.toPath(),
@@ -195,6 +983,16 @@ public class DescriptorReaderImpl implements DescriptorReader {
       if (historyFile == null) {
         return;
       }
+      if (this.compactHistoryFormat) {
+        try {
+          CompactHistory.write(historyFile, this.compactHistory,
+              this.excludedFilesAfter, this.parsedFilesAfter);
+        } catch (IOException e) {
+          logger.warn("Trouble writing new history file '{}'.",
+              historyFile, e);
+        }
+        return;
+      }
       if (historyFile.getParentFile() != null) {
         historyFile.getParentFile().mkdirs();
       }
@@ -215,131 +1013,555 @@ public class DescriptorReaderImpl implements DescriptorReader {
       }
     }
 
-    private void readDescriptorFiles() {
+    /* Return the next plain descriptor file to read, or null if there are
+     * no more plain descriptor files, while skipping excluded files and
+     * remembering tarballs for later. */
+    private File nextDescriptorFile() {
       if (null == this.descriptorFiles) {
-        return;
+        return null;
       }
-      Stack<File> files = new Stack<>();
-      for (File descriptorFile : this.descriptorFiles) {
-        if (!descriptorFile.exists()) {
+      if (this.traversalParallelism > 1) {
+        return this.nextTraversedFile();
+      }
+      while (true) {
+        if (this.files.isEmpty()) {
+          if (this.nextDescriptorFileIndex >= this.descriptorFiles.length) {
+            return null;
+          }
+          File descriptorFile =
+              this.descriptorFiles[this.nextDescriptorFileIndex++];
+          if (descriptorFile.exists()) {
+            this.files.add(descriptorFile);
+          }
           continue;
         }
-        files.add(descriptorFile);
-        while (!files.isEmpty()) {
-          File file = files.pop();
-          try {
-            String absolutePath = file.getAbsolutePath();
-            long lastModifiedMillis = file.lastModified();
-            if (this.excludedFilesBefore.getOrDefault(absolutePath, 0L)
-                == lastModifiedMillis) {
-              this.excludedFilesAfter.put(absolutePath, lastModifiedMillis);
-              continue;
-            }
-            if (file.isDirectory()) {
-              files.addAll(Arrays.asList(file.listFiles()));
-              continue;
-            } else if (file.getName().endsWith(".tar")
-                || file.getName().endsWith(".tar.bz2")
-                || file.getName().endsWith(".tar.xz")) {
-              tarballs.add(file);
-              continue;
-            } else {
-              this.readDescriptorFile(file);
+        File file = this.files.pop();
+        String absolutePath = file.getAbsolutePath();
+        long lastModifiedMillis = file.lastModified();
+        if (this.isExcluded(absolutePath, lastModifiedMillis)) {
+          this.excludedFilesAfter.put(absolutePath, lastModifiedMillis);
+        } else if (file.isDirectory()) {
+          this.files.addAll(Arrays.asList(file.listFiles()));
+        } else if (isTarball(file)) {
+          this.tarballs.add(file);
+        } else {
+          return file;
+        }
+      }
+    }
+
+    /* Return the next plain descriptor file found by traversal threads,
+     * or null if there are no more plain descriptor files, while
+     * remembering excluded files and tarballs. */
+    private File nextTraversedFile() {
+      if (null == this.directoryTraversal) {
+        this.directoryTraversal = new DirectoryTraversal(
+            this.descriptorFiles, this.traversalParallelism,
+            this::isExcluded);
+      }
+      DirectoryTraversal.FoundFile foundFile;
+      while (null != (foundFile = this.directoryTraversal.next())) {
+        File file = foundFile.getFile();
+        if (foundFile.isExcluded()) {
+          this.excludedFilesAfter.put(file.getAbsolutePath(),
+              foundFile.getLastModifiedMillis());
+        } else if (isTarball(file)) {
+          this.tarballs.add(file);
+        } else {
+          return file;
+        }
+      }
+      return null;
+    }
+
+    /* Return whether the given file or directory is excluded, which may be
+     * called concurrently by traversal threads. */
+    private boolean isExcluded(String absolutePath, long lastModifiedMillis) {
+      return this.excludedFilesBefore.getOrDefault(absolutePath, 0L)
+          == lastModifiedMillis || (null != this.compactHistory
+          && this.compactHistory.contains(absolutePath, lastModifiedMillis));
+    }
+
+    private static boolean isTarball(File file) {
+      return file.getName().endsWith(".tar")
+          || file.getName().endsWith(".tar.bz2")
+          || file.getName().endsWith(".tar.xz")
+          || file.getName().endsWith(".tar.zst");
+    }
+
+    private boolean openNextTarball() {
+      if (this.nextTarballIndex >= this.tarballs.size()) {
+        return false;
+      }
+      if (0 == this.nextTarballIndex) {
+        for (File tarball : this.tarballs) {
+          this.tarballBytesTotal += tarball.length();
+        }
+      }
+      this.tarball = this.tarballs.get(this.nextTarballIndex++);
+      boolean isPrefetched = this.tarball.equals(this.prefetchedTarball);
+      InputStream prefetchedTarballStream = this.prefetchedTarballStream;
+      this.prefetchedTarball = null;
+      this.prefetchedTarballStream = null;
+      this.prefetchNextTarball();
+      if (null != this.descriptorCache) {
+        this.cachedEntries = this.descriptorCache.open(this.tarball);
+        if (null != this.cachedEntries) {
+          if (isPrefetched && null != prefetchedTarballStream) {
+            try {
+              prefetchedTarballStream.close();
+            } catch (IOException e) {
+              logger.warn("Unable to close tarball {}.", this.tarball, e);
             }
-            this.parsedFilesAfter.put(absolutePath, lastModifiedMillis);
-          } catch (IOException e) {
-            logger.warn("Unable to read descriptor file {}.", file, e);
           }
+          return true;
         }
+        this.cacheWriter = this.descriptorCache.create(this.tarball);
+      }
+      try {
+        InputStream in = isPrefetched ? prefetchedTarballStream
+            : this.openTarballStream(this.tarball);
+        if (null == in) {
+          this.finishTarball(true);
+          return true;
+        }
+        this.tarballInputStream = new TarArchiveInputStream(in);
+      } catch (IOException e) {
+        logger.warn("Unable to read tarball {}.", this.tarball, e);
+        this.finishTarball(false);
+      }
+      return true;
+    }
+
+    /* Open the given tarball and return an input stream providing its
+     * decompressed contents, which are read ahead if configured, or null
+     * if the tarball is empty. */
+    private InputStream openTarballStream(File tarball) throws IOException {
+      FileInputStream fis = new FileInputStream(tarball);
+      if (fis.available() <= 0) {
+        fis.close();
+        return null;
+      }
+      /* Buffer above counting bytes read, so that they are counted once
+       * per chunk, and below the tar stream, so that skipping the rest of
+       * an entry never skips buffered bytes of the next entry. */
+      InputStream in = new BufferedInputStream(new CountingInputStream(fis,
+          this.statistics::addBytesRead));
+      InputStream decompressed;
+      if (tarball.getName().endsWith(".tar.bz2")) {
+        decompressed = this.decompressionThreads > 1
+            ? new ParallelBzip2InputStream(in, this.decompressionThreads)
+            : new BZip2CompressorInputStream(in);
+      } else if (tarball.getName().endsWith(".tar.xz")) {
+        in.close();
+        decompressed = ParallelXzInputStream.open(tarball,
+            this.decompressionThreads, this.statistics::addBytesRead);
+      } else if (tarball.getName().endsWith(".tar.zst")) {
+        decompressed = new ZstdCompressorInputStream(in);
+      } else {
+        decompressed = in;
       }
+      return this.readAheadBytes > 0
+          ? new ReadAheadInputStream(decompressed, this.readAheadBytes)
+          : decompressed;
     }
 
-    private void readTarballs() {
-      if (this.tarballs.isEmpty()) {
+    /* Open the tarball following the one that is about to be read, if
+     * reading ahead, so that it's read and decompressed while parsing the
+     * current tarball. */
+    private void prefetchNextTarball() {
+      if (this.readAheadBytes <= 0
+          || this.nextTarballIndex >= this.tarballs.size()) {
         return;
       }
-      long total = 0L;
-      for (File tarball : this.tarballs) {
-        total += tarball.length();
+      File nextTarball = this.tarballs.get(this.nextTarballIndex);
+      if (null != this.descriptorCache
+          && this.descriptorCache.contains(nextTarball)) {
+        return;
       }
-      long progress = 0L;
-      for (File tarball : this.tarballs) {
+      try {
+        this.prefetchedTarballStream = this.openTarballStream(nextTarball);
+        this.prefetchedTarball = nextTarball;
+      } catch (IOException e) {
+        /* Try again when opening the tarball for reading. */
+      }
+    }
+
+    /* Read the next non-empty entry from the currently open tarball, or
+     * close the tarball and return null if there are no more entries. */
+    private Iterator<Descriptor> nextTarballEntry() {
+      try {
+        if (null != this.cachedEntries) {
+          return this.nextCachedEntry();
+        }
+        TarArchiveEntry tae;
+        while ((tae = this.tarballInputStream.getNextTarEntry()) != null) {
+          if (tae.isDirectory()) {
+            continue;
+          }
+          String fileName = tae.getName().substring(
+              tae.getName().lastIndexOf("/") + 1);
+          byte[] rawDescriptorBytes = this.readWantedBytes(
+              this.tarballInputStream, fileName, tae.getSize());
+          if (null == rawDescriptorBytes || rawDescriptorBytes.length < 1) {
+            continue;
+          }
+          Iterator<Descriptor> descriptors = this.parseDescriptors(
+              rawDescriptorBytes, this.tarball, fileName);
+          return null == this.cacheWriter ? descriptors
+              : this.cacheWriter.add(fileName, rawDescriptorBytes,
+              descriptors);
+        }
+        this.finishTarball(true);
+      } catch (IOException e) {
+        logger.warn("Unable to read tarball {}.", this.tarball, e);
+        this.finishTarball(false);
+      }
+      return null;
+    }
+
+    /* Provide descriptors of the next entry from the cached entries of the
+     * currently open tarball, or close the tarball and return null if
+     * there are no more entries. */
+    private Iterator<Descriptor> nextCachedEntry() throws IOException {
+      DescriptorCache.CachedEntry entry = this.cachedEntries.next();
+      if (null != entry) {
+        return this.parseCachedEntry(entry, this.tarball);
+      }
+      this.finishTarball(true);
+      return null;
+    }
+
+    /* Provide descriptors of the next entry from the cached entries of the
+     * descriptor file currently read from the cache, or close the cached
+     * entries and return null if there are no more entries. */
+    private Iterator<Descriptor> nextCachedFileEntry() {
+      File file = this.cachedFile;
+      try {
+        DescriptorCache.CachedEntry entry = this.cachedFileEntries.next();
+        if (null != entry) {
+          return this.parseCachedEntry(entry, file);
+        }
+        this.parsedFilesAfter.put(file.getAbsolutePath(),
+            file.lastModified());
+      } catch (IOException e) {
+        logger.warn("Unable to read cached descriptors of {}.", file, e);
+      }
+      this.closeCachedFile();
+      return null;
+    }
+
+    private void closeCachedFile() {
+      try {
+        this.cachedFileEntries.close();
+      } catch (IOException e) {
+        logger.warn("Unable to close cached entries of {}.",
+            this.cachedFile, e);
+      }
+      this.cachedFile = null;
+      this.cachedFileEntries = null;
+    }
+
+    /* Parse descriptors of the given cached entry of the given descriptor
+     * file or tarball again, starting at their cached offsets unless the
+     * entry needs to be parsed as a whole. */
+    private Iterator<Descriptor> parseCachedEntry(
+        DescriptorCache.CachedEntry entry, File file) {
+      return this.statistics.countDescriptors(
+          () -> this.descriptorParser.parseDescriptorsAt(entry.getBytes(),
+          file, entry.getName(), entry.getDescriptorClass(),
+          entry.getOffsetsAndLengths()));
+    }
+
+    /* Commit the given cache writer, and keep it until all descriptors
+     * added to it have been parsed, possibly by other threads, so that it
+     * can be aborted when closing the reader before. */
+    private void commitCacheWriter(DescriptorCache.CacheWriter cacheWriter) {
+      cacheWriter.commit();
+      DescriptorReaderRunnable reader = null == this.parent ? this
+          : this.parent;
+      reader.cacheWriters.removeIf(DescriptorCache.CacheWriter::isDone);
+      if (!cacheWriter.isDone()) {
+        reader.cacheWriters.add(cacheWriter);
+      }
+    }
+
+    private void finishTarball(boolean parsed) {
+      File tarball = this.tarball;
+      if (parsed && null != this.cacheWriter) {
+        this.commitCacheWriter(this.cacheWriter);
+        this.cacheWriter = null;
+      }
+      this.closeTarball();
+      if (parsed) {
+        this.parsedFilesAfter.put(tarball.getAbsolutePath(),
+            tarball.lastModified());
+      }
+      if (null != this.parent) {
+        this.parent.logTarballProgress(tarball.length());
+      } else {
+        this.logTarballProgress(tarball.length());
+      }
+    }
+
+    /* Add the given number of bytes to tarball bytes read so far, and log
+     * progress whenever another percent of tarball bytes has been read. */
+    private synchronized void logTarballProgress(long bytes) {
+      long previousPercentDone = 100L * this.tarballBytesRead
+          / this.tarballBytesTotal;
+      this.tarballBytesRead += bytes;
+      long percentDone = 100L * this.tarballBytesRead
+          / this.tarballBytesTotal;
+      if (percentDone > previousPercentDone) {
+        logger.info("Finished reading {}% of tarball bytes.",
+            percentDone);
+      }
+    }
+
+    private void closeTarball() {
+      if (null != this.tarballInputStream) {
         try {
-          this.readTarball(tarball);
-          this.parsedFilesAfter.put(tarball.getAbsolutePath(),
-              tarball.lastModified());
+          this.tarballInputStream.close();
         } catch (IOException e) {
-          logger.warn("Unable to read tarball {}.", tarball, e);
+          logger.warn("Unable to close tarball {}.", this.tarball, e);
         }
-        long previousPercentDone = 100L * progress / total;
-        progress += tarball.length();
-        long percentDone = 100L * progress / total;
-        if (percentDone > previousPercentDone) {
-          logger.info("Finished reading {}% of tarball bytes.",
-              percentDone);
+      }
+      if (null != this.cachedEntries) {
+        try {
+          this.cachedEntries.close();
+        } catch (IOException e) {
+          logger.warn("Unable to close cached entries of tarball {}.",
+              this.tarball, e);
         }
       }
+      if (null != this.cacheWriter) {
+        this.cacheWriter.abort();
+      }
+      this.tarball = null;
+      this.cachedEntries = null;
+      this.cacheWriter = null;
+      this.tarballInputStream = null;
     }
 
-    private void readTarball(File file) throws IOException {
-      try (FileInputStream in = new FileInputStream(file)) {
-        if (in.available() <= 0) {
-          return;
+    /* Read the given plain descriptor file, or start reading its cached
+     * entries, and return an iterator over its descriptors, or null if the
+     * file is empty, cannot be read, has been memory-mapped, or is read
+     * from the cache. */
+    private Iterator<Descriptor> readDescriptorFile(File file) {
+      DescriptorCache.CacheWriter cacheWriter = null;
+      try {
+        if (null != this.descriptorCache) {
+          DescriptorCache.CachedEntries cachedFileEntries =
+              this.descriptorCache.open(file);
+          if (null != cachedFileEntries) {
+            this.cachedFile = file;
+            this.cachedFileEntries = cachedFileEntries;
+            return null;
+          }
+          cacheWriter = this.descriptorCache.create(file);
         }
-        TarArchiveInputStream tais;
-        if (file.getName().endsWith(".tar.bz2")) {
-          tais = new TarArchiveInputStream(new BZip2CompressorInputStream(in));
-        } else if (file.getName().endsWith(".tar.xz")) {
-          tais = new TarArchiveInputStream(new XZCompressorInputStream(in));
-        } else if (file.getName().endsWith(".tar")) {
-          tais = new TarArchiveInputStream(in);
-        } else {
-          return;
+        if (this.memoryMapping && !file.getName().endsWith(".gz")
+            && !file.getName().endsWith(".zst")) {
+          this.statistics.addBytesRead(file.length());
+          return this.readMappedDescriptorFile(file, cacheWriter);
         }
-        try (BufferedInputStream bis = new BufferedInputStream(tais)) {
-          TarArchiveEntry tae;
-          while ((tae = tais.getNextTarEntry()) != null) {
-            if (tae.isDirectory()) {
-              continue;
-            }
-            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-              int len;
-              byte[] data = new byte[1024];
-              while ((len = bis.read(data, 0, 1024)) >= 0) {
-                baos.write(data, 0, len);
-              }
-              byte[] rawDescriptorBytes = baos.toByteArray();
-              if (rawDescriptorBytes.length < 1) {
-                continue;
-              }
-              String fileName = tae.getName().substring(
-                      tae.getName().lastIndexOf("/") + 1);
-              for (Descriptor descriptor :
-                      this.descriptorParser.parseDescriptors(
-                      rawDescriptorBytes, file, fileName)) {
-                this.descriptorQueue.add(descriptor);
-              }
-            }
+        byte[] rawDescriptorBytes;
+        try (InputStream fis = new CountingInputStream(
+            new FileInputStream(file), this.statistics::addBytesRead)) {
+          InputStream is = fis;
+          if (file.getName().endsWith(".gz")) {
+            is = new GzipCompressorInputStream(fis);
+          } else if (file.getName().endsWith(".zst")) {
+            is = new ZstdCompressorInputStream(fis);
           }
+          rawDescriptorBytes = this.readWantedBytes(is, file.getName(),
+              is == fis ? file.length() : -1L);
+        }
+        this.parsedFilesAfter.put(file.getAbsolutePath(),
+            file.lastModified());
+        Iterator<Descriptor> descriptors = null;
+        if (null != rawDescriptorBytes && rawDescriptorBytes.length > 0) {
+          descriptors = this.parseDescriptors(rawDescriptorBytes, file,
+              file.getName());
+        }
+        return this.commitDescriptorFile(file, rawDescriptorBytes,
+            descriptors, cacheWriter);
+      } catch (IOException e) {
+        logger.warn("Unable to read descriptor file {}.", file, e);
+        if (null != cacheWriter) {
+          cacheWriter.abort();
+        }
+      }
+      return null;
+    }
+
+    /* Add the given descriptors parsed from the given raw bytes of the
+     * given descriptor file to the given cache writer, if any, and commit
+     * it, returning an iterator over the same descriptors. */
+    private Iterator<Descriptor> commitDescriptorFile(File file,
+        byte[] rawDescriptorBytes, Iterator<Descriptor> descriptors,
+        DescriptorCache.CacheWriter cacheWriter) {
+      if (null == cacheWriter) {
+        return descriptors;
+      }
+      if (null != descriptors) {
+        descriptors = cacheWriter.add(file.getName(), rawDescriptorBytes,
+            descriptors);
+      }
+      this.commitCacheWriter(cacheWriter);
+      return descriptors;
+    }
+
+    /* Read the given number of bytes, or all bytes if the number is
+     * negative, from the given input stream directly into an array of that
+     * size, unless the first bytes show that it contains descriptors of
+     * unwanted types or outside the time window, in which case stop
+     * reading and return null. */
+    private byte[] readWantedBytes(InputStream is, String fileName,
+        long size) throws IOException {
+      if (size < 0L || size > MAX_ARRAY_SIZE) {
+        return this.readWantedBytes(is, fileName);
+      }
+      byte[] rawDescriptorBytes = new byte[(int) size];
+      int length = IOUtils.readFully(is, rawDescriptorBytes, 0,
+          Math.min(this.descriptorParser.bytesToInspect(),
+          rawDescriptorBytes.length));
+      if (length > 0 && !this.descriptorParser.isWanted(
+          length < rawDescriptorBytes.length
+          ? Arrays.copyOf(rawDescriptorBytes, length) : rawDescriptorBytes,
+          fileName)) {
+        return null;
+      }
+      length += IOUtils.readFully(is, rawDescriptorBytes, length,
+          rawDescriptorBytes.length - length);
+      return length < rawDescriptorBytes.length
+          ? Arrays.copyOf(rawDescriptorBytes, length) : rawDescriptorBytes;
+    }
+
+    /* Read all bytes from the given input stream, unless the first bytes
+     * show that it contains descriptors of unwanted types or outside the
+     * time window, in which case stop reading and return null. */
+    private byte[] readWantedBytes(InputStream is, String fileName)
+        throws IOException {
+      byte[] firstBytes = new byte[this.descriptorParser.bytesToInspect()];
+      int length = IOUtils.readFully(is, firstBytes);
+      if (length < firstBytes.length) {
+        firstBytes = Arrays.copyOf(firstBytes, length);
+      }
+      if (length > 0
+          && !this.descriptorParser.isWanted(firstBytes, fileName)) {
+        return null;
+      }
+      try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+        baos.write(firstBytes);
+        IOUtils.copy(is, baos);
+        return baos.toByteArray();
+      }
+    }
+
+    /* Memory-map the given uncompressed descriptor file in order to only
+     * copy single descriptors from the mapped file onto the heap, unless
+     * the file contains descriptors that cannot be split, and cache its
+     * descriptors using the given cache writer, if any. */
+    private Iterator<Descriptor> readMappedDescriptorFile(File file,
+        DescriptorCache.CacheWriter cacheWriter) throws IOException {
+      MappedByteBuffer buffer;
+      try (FileChannel channel = FileChannel.open(file.toPath(),
+          StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size <= 0L) {
+          this.parsedFilesAfter.put(file.getAbsolutePath(),
+              file.lastModified());
+          return this.commitDescriptorFile(file, null, null, cacheWriter);
+        } else if (size > Integer.MAX_VALUE) {
+          throw new IOException("File is too large to be read.");
         }
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      }
+      /* Inspect enough bytes to find a valid-after line, because the time
+       * window is not checked again when splitting descriptors. */
+      byte[] firstBytes = new byte[Math.min(
+          DescriptorParserImpl.VALID_AFTER_SEARCH_BYTES, buffer.limit())];
+      buffer.get(firstBytes);
+      DescriptorParserImpl.DescriptorType type;
+      try {
+        type = this.descriptorParser.detectType(firstBytes,
+            file.getName());
+      } catch (DescriptorParseException e) {
+        type = null;
       }
+      if (!this.descriptorParser.isWanted(firstBytes, file.getName())) {
+        this.parsedFilesAfter.put(file.getAbsolutePath(),
+            file.lastModified());
+        return this.commitDescriptorFile(file, null, null, cacheWriter);
+      }
+      if (null == type || null == type.key) {
+        byte[] rawDescriptorBytes = new byte[buffer.limit()];
+        buffer.position(0);
+        buffer.get(rawDescriptorBytes);
+        this.parsedFilesAfter.put(file.getAbsolutePath(),
+            file.lastModified());
+        return this.commitDescriptorFile(file, rawDescriptorBytes,
+            this.parseDescriptors(rawDescriptorBytes, file, file.getName()),
+            cacheWriter);
+      }
+      this.mappedFile = file;
+      this.mappedCacheWriter = cacheWriter;
+      this.mappedBuffer = buffer;
+      this.mappedConstructor = this.descriptorParser.getConstructor(
+          type.descriptorClass.asSubclass(DescriptorImpl.class));
+      this.mappedSplitter = new DescriptorSplitter(buffer, type.key);
+      return null;
     }
 
-    private void readDescriptorFile(File file) throws IOException {
-      try (FileInputStream fis = new FileInputStream(file)) {
-        InputStream is = fis;
-        if (file.getName().endsWith(".gz")) {
-          is = new GzipCompressorInputStream(fis);
+    /* Copy the next descriptor from the currently memory-mapped descriptor
+     * file, or unmap the file and return null if there are no more
+     * descriptors. */
+    private Iterator<Descriptor> nextMappedDescriptor() {
+      File file = this.mappedFile;
+      if (!this.mappedSplitter.hasNext()) {
+        this.parsedFilesAfter.put(file.getAbsolutePath(),
+            file.lastModified());
+        this.mappedFile = null;
+        this.mappedBuffer = null;
+        this.mappedSplitter = null;
+        if (null != this.mappedCacheWriter) {
+          this.commitCacheWriter(this.mappedCacheWriter);
+          this.mappedCacheWriter = null;
+        }
+        return null;
+      }
+      int[] offsetAndLength = this.mappedSplitter.next();
+      byte[] rawDescriptorBytes = new byte[offsetAndLength[1]];
+      this.mappedBuffer.position(offsetAndLength[0]);
+      this.mappedBuffer.get(rawDescriptorBytes);
+      Constructor<? extends DescriptorImpl> constructor =
+          this.mappedConstructor;
+      this.statistics.addBytesDecompressed(rawDescriptorBytes.length);
+      Iterator<Descriptor> task = new Iterator<Descriptor>() {
+
+        private boolean hasNext = true;
+
+        @Override
+        public boolean hasNext() {
+          return this.hasNext;
         }
-        byte[] rawDescriptorBytes = IOUtils.toByteArray(is);
-        if (rawDescriptorBytes.length > 0) {
-          for (Descriptor descriptor : this.descriptorParser.parseDescriptors(
-              rawDescriptorBytes, file, file.getName())) {
-            this.descriptorQueue.add(descriptor);
+
+        @Override
+        public Descriptor next() {
+          if (!this.hasNext) {
+            throw new NoSuchElementException();
           }
+          this.hasNext = false;
+          return descriptorParser.parseDescriptor(rawDescriptorBytes,
+              new int[] { 0, rawDescriptorBytes.length }, file, constructor);
         }
-      }
+      };
+      Iterator<Descriptor> descriptors =
+          this.statistics.countDescriptors(() -> task);
+      return null == this.mappedCacheWriter ? descriptors
+          : this.mappedCacheWriter.add(file.getName(), rawDescriptorBytes,
+          descriptors);
     }
   }
 }
-
@@ -0,0 +1,130 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import org.torproject.descriptor.Descriptor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/* Spliterator over descriptors in descriptor files and tarballs that
+ * splits on descriptor file and tarball boundaries first, and that splits
+ * off batches of tarball entries or memory-mapped descriptors when it
+ * only covers a single file or is in the middle of reading one.
+ * Descriptors are read and parsed by the thread traversing the
+ * spliterator. */
+class DescriptorSpliterator implements Spliterator<Descriptor> {
+
+  private static final int MAX_BATCH_SIZE = 16;
+
+  private final DescriptorReaderImpl.DescriptorReaderRunnable reader;
+
+  private final List<File> files;
+
+  private int index;
+
+  private final int fence;
+
+  /* Reader of the descriptor file or tarball currently being read, or
+   * null. */
+  private DescriptorReaderImpl.DescriptorReaderRunnable fileReader;
+
+  private Iterator<Descriptor> descriptors = Collections.emptyIterator();
+
+  private int batchSize = 1;
+
+  DescriptorSpliterator(DescriptorReaderImpl.DescriptorReaderRunnable reader,
+      List<File> files, int index, int fence) {
+    this.reader = reader;
+    this.files = files;
+    this.index = index;
+    this.fence = fence;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Descriptor> action) {
+    while (!this.descriptors.hasNext()) {
+      Iterator<Descriptor> task = this.nextParseTask();
+      if (null == task) {
+        return false;
+      }
+      this.descriptors = task;
+    }
+    action.accept(this.descriptors.next());
+    return true;
+  }
+
+  /* Return the next parse task from the descriptor file or tarball
+   * currently being read, moving on to the next descriptor file or
+   * tarball as needed, or null if there is nothing left to read. */
+  private Iterator<Descriptor> nextParseTask() {
+    while (true) {
+      if (this.reader.isCancelled) {
+        if (null != this.fileReader) {
+          this.fileReader.close();
+          this.reader.fileReaders.remove(this.fileReader);
+          this.fileReader = null;
+        }
+        return null;
+      }
+      if (null == this.fileReader) {
+        if (this.index >= this.fence) {
+          return null;
+        }
+        this.fileReader = this.reader.createFileReader(
+            this.files.get(this.index++));
+      }
+      Iterator<Descriptor> task = this.fileReader.nextParseTask();
+      if (null != task) {
+        return task;
+      }
+      this.reader.finishFileReader(this.fileReader);
+      this.fileReader = null;
+    }
+  }
+
+  @Override
+  public Spliterator<Descriptor> trySplit() {
+    if (null == this.fileReader && !this.descriptors.hasNext()
+        && this.fence - this.index > 1) {
+      int middle = (this.index + this.fence) >>> 1;
+      Spliterator<Descriptor> prefix = new DescriptorSpliterator(
+          this.reader, this.files, this.index, middle);
+      this.index = middle;
+      return prefix;
+    }
+    List<Iterator<Descriptor>> batch = new ArrayList<>();
+    if (this.descriptors.hasNext()) {
+      batch.add(this.descriptors);
+      this.descriptors = Collections.emptyIterator();
+    }
+    while (batch.size() < this.batchSize) {
+      Iterator<Descriptor> task = this.nextParseTask();
+      if (null == task) {
+        break;
+      }
+      batch.add(task);
+    }
+    if (batch.isEmpty()) {
+      return null;
+    }
+    this.batchSize = Math.min(2 * this.batchSize, MAX_BATCH_SIZE);
+    return new ParseTaskSpliterator(batch, 0, batch.size());
+  }
+
+  @Override
+  public long estimateSize() {
+    return this.fence - this.index + (null == this.fileReader ? 0 : 1);
+  }
+
+  @Override
+  public int characteristics() {
+    return Spliterator.ORDERED | Spliterator.NONNULL;
+  }
+}
@@ -0,0 +1,155 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import static org.torproject.descriptor.impl.DescriptorImpl.NL;
+import static org.torproject.descriptor.impl.DescriptorImpl.SP;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over offsets and lengths of descriptors starting with a given
+ * key, including any annotations preceding them, in a buffer containing
+ * one or more descriptors of the same type.
+ *
+ * <p>The buffer may be backed by a byte array or by a memory-mapped file.
+ * Only the buffer's contents are searched for descriptor boundaries, and
+ * nothing is copied.</p>
+ */
+public class DescriptorSplitter implements Iterator<int[]> {
+
+  private static final byte[] NL_AT = ascii(NL + "@");
+
+  private final ByteBuffer buffer;
+
+  private final int end;
+
+  private final byte[] keySp;
+
+  private final byte[] keyNl;
+
+  private final byte[] nlKeySp;
+
+  private final byte[] nlKeyNl;
+
+  private final boolean containsAnnotations;
+
+  /* Index of the first occurrence of the key followed by a newline, or
+   * -2 if that hasn't been searched for yet. */
+  private int firstKeyNl = -2;
+
+  private int startAnnotations = 0;
+
+  private int[] next;
+
+  /**
+   * Creates a new splitter for descriptors starting with the given key in
+   * the given buffer, from position 0 up to its limit.
+   *
+   * @param buffer Buffer containing one or more descriptors.
+   * @param key Key that starts each descriptor.
+   */
+  public DescriptorSplitter(ByteBuffer buffer, Key key) {
+    this.buffer = buffer;
+    this.end = buffer.limit();
+    this.keySp = ascii(key.keyword + SP);
+    this.keyNl = ascii(key.keyword + NL);
+    this.nlKeySp = ascii(NL + key.keyword + SP);
+    this.nlKeyNl = ascii(NL + key.keyword + NL);
+    this.containsAnnotations = (this.end > 0 && '@' == buffer.get(0))
+        || this.indexOf(NL_AT, 0) >= 0;
+  }
+
+  private static byte[] ascii(String string) {
+    return string.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (null == this.next && this.startAnnotations < this.end) {
+      this.next = this.findNext();
+    }
+    return null != this.next;
+  }
+
+  @Override
+  public int[] next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int[] offsetAndLength = this.next;
+    this.next = null;
+    this.startAnnotations = offsetAndLength[0] + offsetAndLength[1];
+    return offsetAndLength;
+  }
+
+  private int[] findNext() {
+    int startDescriptor;
+    if (this.startsWith(this.keySp, this.startAnnotations)
+        || this.startAnnotations == this.firstKeyNl()) {
+      startDescriptor = this.startAnnotations;
+    } else {
+      startDescriptor = this.indexOf(this.nlKeySp,
+          this.startAnnotations - 1);
+      if (startDescriptor < 0) {
+        startDescriptor = this.indexOf(this.nlKeyNl,
+            this.startAnnotations - 1);
+      }
+      if (startDescriptor < 0) {
+        return null;
+      }
+      startDescriptor += 1;
+    }
+    int endDescriptor = -1;
+    if (this.containsAnnotations) {
+      endDescriptor = this.indexOf(NL_AT, startDescriptor);
+    }
+    if (endDescriptor < 0) {
+      endDescriptor = this.indexOf(this.nlKeySp, startDescriptor);
+    }
+    if (endDescriptor < 0) {
+      endDescriptor = this.indexOf(this.nlKeyNl, startDescriptor);
+    }
+    if (endDescriptor < 0) {
+      endDescriptor = this.end - 1;
+    }
+    endDescriptor += 1;
+    return new int[] { this.startAnnotations,
+        endDescriptor - this.startAnnotations };
+  }
+
+  /* Only search for the first occurrence of the key followed by a newline
+   * once, rather than once per descriptor. */
+  private int firstKeyNl() {
+    if (-2 == this.firstKeyNl) {
+      this.firstKeyNl = this.indexOf(this.keyNl, 0);
+    }
+    return this.firstKeyNl;
+  }
+
+  private boolean startsWith(byte[] pattern, int from) {
+    if (from < 0 || from + pattern.length > this.end) {
+      return false;
+    }
+    for (int i = 0; i < pattern.length; i++) {
+      if (this.buffer.get(from + i) != pattern[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(byte[] pattern, int from) {
+    byte first = pattern[0];
+    for (int i = Math.max(from, 0); i <= this.end - pattern.length; i++) {
+      if (this.buffer.get(i) == first && this.startsWith(pattern, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -3,7 +3,6 @@
 
 package org.torproject.descriptor.impl;
 
-import static org.torproject.descriptor.impl.DescriptorImpl.NL;
 import static org.torproject.descriptor.impl.DescriptorImpl.SP;
 
 import org.torproject.descriptor.DescriptorParseException;
@@ -12,7 +11,6 @@ import org.torproject.descriptor.DirSourceEntry;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 
 public class DirSourceEntryImpl implements DirSourceEntry {
@@ -89,11 +87,10 @@ public class DirSourceEntryImpl implements DirSourceEntry {
     /* We need to pass this.offset and this.length, because the overloaded
      * method without arguments would use this.parent.offset and
      * this.parent.length as bounds, which is not what we want! */
-    Scanner scanner = this.parent.newScanner(this.offset, this.length)
-        .useDelimiter(NL);
+    LineCursor cursor = this.parent.newLineCursor(this.offset, this.length);
     boolean skipCrypto = false;
-    while (scanner.hasNext()) {
-      String line = scanner.next();
+    while (cursor.nextLine()) {
+      String line = cursor.line();
       String[] parts = line.split(SP);
       Key key = Key.get(parts[0]);
       switch (key) {
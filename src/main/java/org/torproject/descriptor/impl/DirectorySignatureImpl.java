@@ -11,7 +11,6 @@ import org.torproject.descriptor.DirectorySignature;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
 
 public class DirectorySignatureImpl implements DirectorySignature {
 
@@ -41,11 +40,10 @@ public class DirectorySignatureImpl implements DirectorySignature {
 
   private void parseDirectorySignatureBytes()
       throws DescriptorParseException {
-    Scanner scanner = this.parent.newScanner(this.offset, this.length)
-        .useDelimiter(NL);
+    LineCursor cursor = this.parent.newLineCursor(this.offset, this.length);
     StringBuilder crypto = null;
-    while (scanner.hasNext()) {
-      String line = scanner.next();
+    while (cursor.nextLine()) {
+      String line = cursor.line();
       String[] parts = line.split(SP, -1);
       Key key = Key.get(parts[0]);
       switch (key) {
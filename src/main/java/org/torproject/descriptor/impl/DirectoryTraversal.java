@@ -0,0 +1,223 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+/**
+ * Traversal of descriptor files and directories that lists directories on
+ * several threads and provides found files as soon as they are discovered,
+ * in no particular order.
+ *
+ * <p>Directories are listed using {@link DirectoryStream}, and each
+ * directory entry's attributes are read only once using
+ * {@link BasicFileAttributes}, rather than asking separately whether it
+ * is a directory and when it was last modified.  Subdirectories are
+ * traversed concurrently by submitting them as separate tasks.</p>
+ */
+public class DirectoryTraversal {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+      DirectoryTraversal.class);
+
+  /* Marker for the end of the traversal in the queue of found files. */
+  private static final FoundFile END = new FoundFile(null, 0L, false);
+
+  private final BiPredicate<String, Long> isExcluded;
+
+  private final ExecutorService traversalThreads;
+
+  private final BlockingQueue<FoundFile> foundFiles =
+      new LinkedBlockingQueue<>();
+
+  /* Number of files and directories submitted for traversal that have
+   * not been traversed yet. */
+  private final AtomicInteger pendingTasks = new AtomicInteger();
+
+  private boolean hasEnded = false;
+
+  /**
+   * Starts traversing the given files and directories.
+   *
+   * @param files Descriptor files, tarballs, and directories to traverse,
+   *     which are skipped if they do not exist.
+   * @param threads Number of traversal threads.
+   * @param isExcluded Thread-safe predicate telling whether a file or
+   *     directory with the given absolute path and last-modified time is
+   *     excluded, in which case a directory is not traversed.
+   */
+  public DirectoryTraversal(File[] files, int threads,
+      BiPredicate<String, Long> isExcluded) {
+    this.isExcluded = isExcluded;
+    this.traversalThreads = Executors.newFixedThreadPool(threads,
+        (runnable) -> {
+          Thread traversalThread = new Thread(runnable);
+          traversalThread.setDaemon(true);
+          return traversalThread;
+        });
+    this.pendingTasks.set(files.length + 1);
+    for (File file : files) {
+      this.submit(() -> {
+        Path path = file.toPath();
+        if (Files.exists(path)) {
+          this.visit(path, Files.readAttributes(path,
+              BasicFileAttributes.class));
+        }
+      });
+    }
+    this.finishTask();
+  }
+
+  /* Task that visits a file or directory and may throw an I/O error. */
+  private interface TraversalTask {
+    void run() throws IOException;
+  }
+
+  private void submit(TraversalTask task) {
+    try {
+      this.traversalThreads.execute(() -> {
+        try {
+          task.run();
+        } catch (IOException e) {
+          logger.warn("Unable to traverse descriptor files.", e);
+        } finally {
+          this.finishTask();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      /* The traversal has been closed. */
+      this.finishTask();
+    }
+  }
+
+  private void finishTask() {
+    if (0 == this.pendingTasks.decrementAndGet()) {
+      this.foundFiles.add(END);
+    }
+  }
+
+  /* Provide the given file or excluded directory, or list the given
+   * directory and traverse its entries, submitting subdirectories as
+   * separate tasks. */
+  private void visit(Path path, BasicFileAttributes attributes)
+      throws IOException {
+    File file = path.toFile();
+    long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+    if (this.isExcluded.test(file.getAbsolutePath(), lastModifiedMillis)) {
+      this.foundFiles.add(new FoundFile(file, lastModifiedMillis, true));
+    } else if (!attributes.isDirectory()) {
+      this.foundFiles.add(new FoundFile(file, lastModifiedMillis, false));
+    } else {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+        for (Path entry : entries) {
+          BasicFileAttributes entryAttributes = Files.readAttributes(entry,
+              BasicFileAttributes.class);
+          if (entryAttributes.isDirectory()) {
+            this.pendingTasks.incrementAndGet();
+            this.submit(() -> this.visit(entry, entryAttributes));
+          } else {
+            this.visit(entry, entryAttributes);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the next found file, waiting for traversal threads if
+   * necessary, or null if all files have been found.
+   *
+   * @return Next found file, or null.
+   *
+   * @throws IllegalStateException Thrown if interrupted while waiting for
+   *     traversal threads.
+   */
+  public FoundFile next() {
+    if (this.hasEnded) {
+      return null;
+    }
+    try {
+      FoundFile foundFile = this.foundFiles.take();
+      if (END == foundFile) {
+        this.hasEnded = true;
+        this.traversalThreads.shutdown();
+        return null;
+      }
+      return foundFile;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for "
+          + "traversal threads.", e);
+    }
+  }
+
+  /**
+   * Stops traversing files and directories.
+   */
+  public void close() {
+    this.hasEnded = true;
+    this.traversalThreads.shutdownNow();
+  }
+
+  /**
+   * File or excluded directory found during traversal.
+   */
+  public static class FoundFile {
+
+    private final File file;
+
+    private final long lastModifiedMillis;
+
+    private final boolean isExcluded;
+
+    private FoundFile(File file, long lastModifiedMillis,
+        boolean isExcluded) {
+      this.file = file;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.isExcluded = isExcluded;
+    }
+
+    /**
+     * Returns the found file.
+     *
+     * @return Found file.
+     */
+    public File getFile() {
+      return this.file;
+    }
+
+    /**
+     * Returns the last-modified time of the found file.
+     *
+     * @return Last-modified time in milliseconds since the epoch.
+     */
+    public long getLastModifiedMillis() {
+      return this.lastModifiedMillis;
+    }
+
+    /**
+     * Returns whether the found file or directory is excluded.
+     *
+     * @return Whether the found file or directory is excluded.
+     */
+    public boolean isExcluded() {
+      return this.isExcluded;
+    }
+  }
+}
@@ -15,7 +15,6 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -75,14 +74,13 @@ public abstract class ExtraInfoDescriptorImpl extends DescriptorImpl
   }
 
   private void parseDescriptorBytes() throws DescriptorParseException {
-    Scanner scanner = this.newScanner().useDelimiter(NL);
+    LineCursor cursor = this.newLineCursor();
     Key nextCrypto = Key.EMPTY;
     List<String> cryptoLines = null;
-    while (scanner.hasNext()) {
-      String line = scanner.next();
-      String lineNoOpt = line.startsWith(Key.OPT.keyword + SP)
-          ? line.substring(Key.OPT.keyword.length() + 1) : line;
-      String[] partsNoOpt = lineNoOpt.split("[ \t]+");
+    while (cursor.nextLine()) {
+      String line = cursor.line();
+      String lineNoOpt = cursor.lineNoOpt();
+      String[] partsNoOpt = cursor.partsNoOpt();
       Key key = Key.get(partsNoOpt[0]);
       switch (key) {
         case EXTRA_INFO:
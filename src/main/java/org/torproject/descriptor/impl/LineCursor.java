@@ -0,0 +1,228 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import static org.torproject.descriptor.impl.DescriptorImpl.SP;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Cursor over the lines of raw descriptor bytes that splits lines into
+ * space- or tab-separated parts without going through a {@link
+ * java.util.Scanner} or a regular expression.
+ *
+ * <p>The cursor only keeps track of the offset and length of the current
+ * line within the raw descriptor bytes and creates strings only when they
+ * are requested.  Lines are separated by a single newline character, with
+ * the same treatment of leading and trailing newlines as a {@code Scanner}
+ * using {@code "\n"} as delimiter: a single leading newline is skipped, and
+ * a trailing newline does not start a new, empty line.  Parts are the same
+ * as the result of {@code line.split("[ \t]+")}.</p>
+ *
+ * <p>A cursor is not thread-safe.</p>
+ */
+public class LineCursor {
+
+  private static final byte[] OPT_PREFIX =
+      (Key.OPT.keyword + SP).getBytes(StandardCharsets.US_ASCII);
+
+  private static final String[] NO_PARTS = new String[0];
+
+  private final byte[] bytes;
+
+  private final int end;
+
+  /* Offset of the next line to be returned. */
+  private int position;
+
+  private int lineOffset = -1;
+
+  private int lineLength = 0;
+
+  /* Current line and its parts, or null if not requested yet. */
+  private String line;
+
+  private String[] parts;
+
+  private String[] partsNoOpt;
+
+  /**
+   * Creates a new cursor over the given range of raw descriptor bytes.
+   *
+   * @param bytes Raw descriptor bytes.
+   * @param offset The index of the first byte to parse.
+   * @param length The number of bytes to parse.
+   */
+  public LineCursor(byte[] bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.end = offset + length;
+    this.position = offset;
+    if (this.position < this.end && '\n' == bytes[this.position]) {
+      this.position++;
+    }
+  }
+
+  /**
+   * Moves the cursor to the next line and returns whether there was one.
+   *
+   * @return Whether there was another line.
+   */
+  public boolean nextLine() {
+    if (this.position >= this.end) {
+      return false;
+    }
+    int lineEnd = this.position;
+    while (lineEnd < this.end && '\n' != this.bytes[lineEnd]) {
+      lineEnd++;
+    }
+    this.lineOffset = this.position;
+    this.lineLength = lineEnd - this.position;
+    this.position = lineEnd + 1;
+    this.line = null;
+    this.parts = null;
+    this.partsNoOpt = null;
+    return true;
+  }
+
+  /** Returns the index of the first byte of the current line. */
+  public int lineOffset() {
+    return this.lineOffset;
+  }
+
+  /** Returns the number of bytes in the current line, excluding the
+   * newline. */
+  public int lineLength() {
+    return this.lineLength;
+  }
+
+  /**
+   * Returns whether the current line starts with the given ASCII prefix,
+   * without creating a string from the line.
+   *
+   * @param prefix ASCII prefix to compare the current line to.
+   * @return Whether the current line starts with the prefix.
+   */
+  public boolean lineStartsWith(String prefix) {
+    if (prefix.length() > this.lineLength) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (this.bytes[this.lineOffset + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the current line using UTF-8 as charset. */
+  public String line() {
+    if (null == this.line) {
+      this.line = new String(this.bytes, this.lineOffset, this.lineLength,
+          StandardCharsets.UTF_8);
+    }
+    return this.line;
+  }
+
+  /** Returns the current line without a leading {@code "opt "} prefix, if
+   * it is contained. */
+  public String lineNoOpt() {
+    return this.hasOptPrefix()
+        ? this.line().substring(OPT_PREFIX.length) : this.line();
+  }
+
+  /** Returns the space- or tab-separated parts of the current line. */
+  public String[] parts() {
+    if (null == this.parts) {
+      this.parts = this.split(this.lineOffset, this.lineLength);
+    }
+    return this.parts;
+  }
+
+  /** Returns the space- or tab-separated parts of the current line without
+   * a leading {@code "opt "} prefix, if it is contained. */
+  public String[] partsNoOpt() {
+    if (!this.hasOptPrefix()) {
+      return this.parts();
+    }
+    if (null == this.partsNoOpt) {
+      this.partsNoOpt = this.split(this.lineOffset + OPT_PREFIX.length,
+          this.lineLength - OPT_PREFIX.length);
+    }
+    return this.partsNoOpt;
+  }
+
+  /** Returns the first space- or tab-separated part of the current line
+   * without a leading {@code "opt "} prefix, if it is contained, without
+   * splitting the remaining line. */
+  public String keywordNoOpt() {
+    int keywordStart = this.lineOffset;
+    if (this.hasOptPrefix()) {
+      keywordStart += OPT_PREFIX.length;
+    }
+    int keywordEnd = keywordStart;
+    int lineEnd = this.lineOffset + this.lineLength;
+    while (keywordEnd < lineEnd && ' ' != this.bytes[keywordEnd]
+        && '\t' != this.bytes[keywordEnd]) {
+      keywordEnd++;
+    }
+    return new String(this.bytes, keywordStart, keywordEnd - keywordStart,
+        StandardCharsets.UTF_8);
+  }
+
+  private boolean hasOptPrefix() {
+    if (this.lineLength < OPT_PREFIX.length) {
+      return false;
+    }
+    for (int i = 0; i < OPT_PREFIX.length; i++) {
+      if (this.bytes[this.lineOffset + i] != OPT_PREFIX[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Split the given range at runs of spaces and tabs, including a leading
+   * empty part if the range starts with a space or tab, but excluding any
+   * trailing empty parts, just like String#split would do. */
+  private String[] split(int offset, int length) {
+    String[] result = new String[4];
+    int count = 0;
+    int partStart = offset;
+    int rangeEnd = offset + length;
+    boolean separatorFound = false;
+    int i = offset;
+    while (i < rangeEnd) {
+      byte current = this.bytes[i];
+      if (' ' == current || '\t' == current) {
+        separatorFound = true;
+        if (count == result.length) {
+          result = Arrays.copyOf(result, 2 * result.length);
+        }
+        result[count++] = new String(this.bytes, partStart, i - partStart,
+            StandardCharsets.UTF_8);
+        do {
+          i++;
+        } while (i < rangeEnd
+            && (' ' == this.bytes[i] || '\t' == this.bytes[i]));
+        partStart = i;
+      } else {
+        i++;
+      }
+    }
+    if (!separatorFound) {
+      return new String[] { new String(this.bytes, offset, length,
+          StandardCharsets.UTF_8) };
+    }
+    if (count == result.length) {
+      result = Arrays.copyOf(result, count + 1);
+    }
+    result[count++] = new String(this.bytes, partStart, rangeEnd - partStart,
+        StandardCharsets.UTF_8);
+    while (count > 0 && result[count - 1].isEmpty()) {
+      count--;
+    }
+    return 0 == count ? NO_PARTS : Arrays.copyOf(result, count);
+  }
+}
@@ -11,7 +11,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 
 /* Contains a microdescriptor. */
@@ -35,15 +34,15 @@ public class MicrodescriptorImpl extends DescriptorImpl
   }
 
   private void parseDescriptorBytes() throws DescriptorParseException {
-    Scanner scanner = this.newScanner().useDelimiter(NL);
+    LineCursor cursor = this.newLineCursor();
     Key nextCrypto = Key.EMPTY;
     StringBuilder crypto = null;
-    while (scanner.hasNext()) {
-      String line = scanner.next();
-      if (line.startsWith("@")) {
+    while (cursor.nextLine()) {
+      if (cursor.lineStartsWith("@")) {
         continue;
       }
-      String[] parts = line.split("[ \t]+");
+      String line = cursor.line();
+      String[] parts = cursor.parts();
       Key key = Key.get(parts[0]);
       switch (key) {
         case ONION_KEY:
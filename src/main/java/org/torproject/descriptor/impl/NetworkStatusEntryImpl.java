@@ -3,19 +3,18 @@
 
 package org.torproject.descriptor.impl;
 
-import static org.torproject.descriptor.impl.DescriptorImpl.NL;
 import static org.torproject.descriptor.impl.DescriptorImpl.SP;
 
 import org.torproject.descriptor.DescriptorParseException;
 import org.torproject.descriptor.NetworkStatusEntry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -53,16 +52,38 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   private Map<Integer, String> flagStrings;
 
+  /* Keys, offsets, and lengths of lines that have not been parsed yet,
+   * stored as consecutive triples of key ordinal, offset, and length, or
+   * null if all lines have been parsed. */
+  private int[] lazyLines;
+
+  private int lazyLinesLength;
+
   protected NetworkStatusEntryImpl(DescriptorImpl parent, int offset,
       int length, boolean microdescConsensus, Map<String, Integer> flagIndexes,
       Map<Integer, String> flagStrings) throws DescriptorParseException {
+    this(parent, offset, length, microdescConsensus, flagIndexes, flagStrings,
+        false);
+  }
+
+  /* Create a status entry and either parse all lines right away or, if
+   * lazy is true, only parse the r line and remember where other lines
+   * are located, so that they can be parsed when first accessing them. */
+  protected NetworkStatusEntryImpl(DescriptorImpl parent, int offset,
+      int length, boolean microdescConsensus, Map<String, Integer> flagIndexes,
+      Map<Integer, String> flagStrings, boolean lazy)
+      throws DescriptorParseException {
     this.parent = parent;
     this.offset = offset;
     this.length = length;
     this.microdescConsensus = microdescConsensus;
     this.flagIndexes = flagIndexes;
     this.flagStrings = flagStrings;
-    this.parseStatusEntryBytes();
+    if (lazy) {
+      this.locateStatusEntryLines();
+    } else {
+      this.parseStatusEntryBytes();
+    }
     this.clearAtMostOnceKeys();
   }
 
@@ -71,6 +92,10 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   private void parsedAtMostOnceKey(Key key)
       throws DescriptorParseException {
+    if (null == this.atMostOnceKeys) {
+      /* Lines are parsed lazily and have been checked before. */
+      return;
+    }
     if (!this.atMostOnceKeys.contains(key)) {
       throw new DescriptorParseException("Duplicate '" + key.keyword
           + "' line in status entry.");
@@ -82,51 +107,146 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
     /* We need to pass this.offset and this.length, because the overloaded
      * method without arguments would use this.parent.offset and
      * this.parent.length as bounds, which is not what we want! */
-    Scanner scanner = this.parent.newScanner(this.offset, this.length)
-        .useDelimiter(NL);
-    String line;
-    if (!scanner.hasNext() || !(line = scanner.next()).startsWith("r ")) {
+    LineCursor cursor = this.parent.newLineCursor(this.offset, this.length);
+    if (!cursor.nextLine() || !cursor.lineStartsWith("r ")) {
       throw new DescriptorParseException("Status entry must start with "
           + "an r line.");
     }
-    String[] rlineParts = line.split("[ \t]+");
-    this.parseRLine(line, rlineParts);
-    while (scanner.hasNext()) {
-      line = scanner.next();
-      String[] parts = !line.startsWith(Key.OPT.keyword + SP)
-          ? line.split("[ \t]+")
-          : line.substring(Key.OPT.keyword.length() + 1).split("[ \t]+");
+    this.parseRLine(cursor.line(), cursor.parts());
+    while (cursor.nextLine()) {
+      String line = cursor.line();
+      String[] parts = cursor.partsNoOpt();
       Key key = Key.get(parts[0]);
+      if (!this.parseLine(key, line, parts)) {
+        if (this.unrecognizedLines == null) {
+          this.unrecognizedLines = new ArrayList<>();
+        }
+        this.unrecognizedLines.add(line);
+      }
+    }
+  }
+
+  /* Parse a single line other than the r line and return whether the key
+   * was recognized. */
+  private boolean parseLine(Key key, String line, String[] parts)
+      throws DescriptorParseException {
+    switch (key) {
+      case A:
+        this.parseALine(line, parts);
+        break;
+      case S:
+        this.parseSLine(parts);
+        break;
+      case V:
+        this.parseVLine(line);
+        break;
+      case PR:
+        this.parsePrLine(line, parts);
+        break;
+      case W:
+        this.parseWLine(line, parts);
+        break;
+      case P:
+        this.parsePLine(line, parts);
+        break;
+      case M:
+        this.parseMLine(line, parts);
+        break;
+      case ID:
+        this.parseIdLine(line, parts);
+        break;
+      default:
+        return false;
+    }
+    return true;
+  }
+
+  /* Parse the r line and only locate all other lines without parsing
+   * them.  Unrecognized lines and duplicate lines are still detected
+   * right away, because the containing network status needs to know about
+   * them. */
+  private void locateStatusEntryLines() throws DescriptorParseException {
+    LineCursor cursor = this.parent.newLineCursor(this.offset, this.length);
+    if (!cursor.nextLine() || !cursor.lineStartsWith("r ")) {
+      throw new DescriptorParseException("Status entry must start with "
+          + "an r line.");
+    }
+    this.parseRLine(cursor.line(), cursor.parts());
+    this.lazyLines = new int[3 * 8];
+    while (cursor.nextLine()) {
+      Key key = Key.get(cursor.keywordNoOpt());
       switch (key) {
-        case A:
-          this.parseALine(line, parts);
-          break;
         case S:
-          this.parseSLine(parts);
-          break;
         case V:
-          this.parseVLine(line);
-          break;
         case PR:
-          this.parsePrLine(line, parts);
-          break;
         case W:
-          this.parseWLine(line, parts);
-          break;
         case P:
-          this.parsePLine(line, parts);
+          this.parsedAtMostOnceKey(key);
+          this.addLazyLine(key, cursor.lineOffset(), cursor.lineLength());
           break;
+        case A:
         case M:
-          this.parseMLine(line, parts);
-          break;
         case ID:
-          this.parseIdLine(line, parts);
+          this.addLazyLine(key, cursor.lineOffset(), cursor.lineLength());
           break;
         default:
           if (this.unrecognizedLines == null) {
             this.unrecognizedLines = new ArrayList<>();
           }
-          this.unrecognizedLines.add(line);
+          this.unrecognizedLines.add(cursor.line());
+      }
+    }
+  }
+
+  private void addLazyLine(Key key, int start, int length) {
+    if (this.lazyLinesLength + 3 > this.lazyLines.length) {
+      this.lazyLines = Arrays.copyOf(this.lazyLines,
+          2 * this.lazyLines.length);
+    }
+    this.lazyLines[this.lazyLinesLength++] = key.ordinal();
+    this.lazyLines[this.lazyLinesLength++] = start;
+    this.lazyLines[this.lazyLinesLength++] = length;
+  }
+
+  /* Parse all lines with the given key that have not been parsed yet.
+   * There is no way to report a malformed line from a getter other than
+   * throwing an unchecked exception. */
+  private synchronized void parseLazily(Key key) {
+    if (null == this.lazyLines) {
+      return;
+    }
+    int remaining = 0;
+    int i = 0;
+    try {
+      for (; i < this.lazyLinesLength; i += 3) {
+        if (this.lazyLines[i] != key.ordinal()) {
+          this.lazyLines[remaining++] = this.lazyLines[i];
+          this.lazyLines[remaining++] = this.lazyLines[i + 1];
+          this.lazyLines[remaining++] = this.lazyLines[i + 2];
+          continue;
+        }
+        LineCursor cursor = this.parent.newLineCursor(this.lazyLines[i + 1],
+            this.lazyLines[i + 2]);
+        cursor.nextLine();
+        String line = cursor.line();
+        String[] parts = cursor.partsNoOpt();
+        try {
+          this.parseLine(key, line, parts);
+        } catch (DescriptorParseException e) {
+          throw new IllegalStateException("Unable to parse line '" + line
+              + "' in status entry.", e);
+        }
+      }
+    } finally {
+      /* Keep lines that have not been parsed yet, including a line that
+       * failed to parse, so that the compacted lines remain consistent
+       * and the next access fails again. */
+      while (i < this.lazyLinesLength) {
+        this.lazyLines[remaining++] = this.lazyLines[i++];
+      }
+      this.lazyLinesLength = remaining;
+      if (0 == remaining) {
+        this.lazyLines = null;
       }
     }
   }
@@ -171,13 +291,17 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
       throws DescriptorParseException {
     this.parsedAtMostOnceKey(Key.S);
     BitSet flags = new BitSet(this.flagIndexes.size());
-    for (int i = 1; i < parts.length; i++) {
-      String flag = parts[i];
-      if (!this.flagIndexes.containsKey(flag)) {
-        this.flagStrings.put(this.flagIndexes.size(), flag);
-        this.flagIndexes.put(flag, this.flagIndexes.size());
+    /* Flag indexes are shared by all entries of the same network status,
+     * which may be parsed lazily by different threads. */
+    synchronized (this.flagIndexes) {
+      for (int i = 1; i < parts.length; i++) {
+        String flag = parts[i];
+        if (!this.flagIndexes.containsKey(flag)) {
+          this.flagStrings.put(this.flagIndexes.size(), flag);
+          this.flagIndexes.put(flag, this.flagIndexes.size());
+        }
+        flags.set(this.flagIndexes.get(flag));
       }
-      flags.set(this.flagIndexes.get(flag));
     }
     this.flags = flags;
   }
@@ -337,6 +461,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public Set<String> getMicrodescriptorDigestsSha256Base64() {
+    this.parseLazily(Key.M);
     return this.microdescriptorDigests == null ? null
         : new HashSet<>(this.microdescriptorDigests);
   }
@@ -345,6 +470,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public List<String> getOrAddresses() {
+    this.parseLazily(Key.A);
     return new ArrayList<>(this.orAddresses);
   }
 
@@ -352,11 +478,14 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public SortedSet<String> getFlags() {
+    this.parseLazily(Key.S);
     SortedSet<String> result = new TreeSet<>();
     if (this.flags != null) {
-      for (int i = this.flags.nextSetBit(0); i >= 0;
-          i = this.flags.nextSetBit(i + 1)) {
-        result.add(this.flagStrings.get(i));
+      synchronized (this.flagIndexes) {
+        for (int i = this.flags.nextSetBit(0); i >= 0;
+            i = this.flags.nextSetBit(i + 1)) {
+          result.add(this.flagStrings.get(i));
+        }
       }
     }
     return result;
@@ -366,6 +495,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public String getVersion() {
+    this.parseLazily(Key.V);
     return this.version;
   }
 
@@ -373,6 +503,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public SortedMap<String, SortedSet<Long>> getProtocols() {
+    this.parseLazily(Key.PR);
     return this.protocols;
   }
 
@@ -380,6 +511,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public long getBandwidth() {
+    this.parseLazily(Key.W);
     return this.bandwidth;
   }
 
@@ -387,6 +519,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public long getMeasured() {
+    this.parseLazily(Key.W);
     return this.measured;
   }
 
@@ -394,6 +527,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public boolean getUnmeasured() {
+    this.parseLazily(Key.W);
     return this.unmeasured;
   }
 
@@ -401,6 +535,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public String getDefaultPolicy() {
+    this.parseLazily(Key.P);
     return this.defaultPolicy;
   }
 
@@ -408,6 +543,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public String getPortList() {
+    this.parseLazily(Key.P);
     return this.portList;
   }
 
@@ -415,6 +551,7 @@ public class NetworkStatusEntryImpl implements NetworkStatusEntry {
 
   @Override
   public String getMasterKeyEd25519() {
+    this.parseLazily(Key.ID);
     return this.masterKeyEd25519;
   }
 }
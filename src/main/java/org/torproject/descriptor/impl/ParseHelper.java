@@ -8,20 +8,15 @@ import org.torproject.descriptor.DescriptorParseException;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Hex;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.SortedSet;
-import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
@@ -181,34 +176,13 @@ public class ParseHelper {
     return exitPattern;
   }
 
-  private static ThreadLocal<Map<String, DateFormat>> dateFormats =
-      ThreadLocal.withInitial(HashMap::new);
-
-  static DateFormat getDateFormat(String format) {
-    Map<String, DateFormat> threadDateFormats = dateFormats.get();
-    if (!threadDateFormats.containsKey(format)) {
-      DateFormat dateFormat = new SimpleDateFormat(format, Locale.US);
-      dateFormat.setLenient(false);
-      dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-      threadDateFormats.put(format, dateFormat);
-    }
-    return threadDateFormats.get(format);
-  }
-
   protected static long parseTimestampAtIndex(String line, String[] parts,
       int dateIndex, int timeIndex) throws DescriptorParseException {
     if (dateIndex >= parts.length || timeIndex >= parts.length) {
       throw new DescriptorParseException("Line '" + line + "' does not "
           + "contain a timestamp at the expected position.");
     }
-    long result = -1L;
-    try {
-      DateFormat dateTimeFormat = getDateFormat("yyyy-MM-dd HH:mm:ss");
-      result = dateTimeFormat.parse(
-          parts[dateIndex] + " " + parts[timeIndex]).getTime();
-    } catch (ParseException e) {
-      /* Leave result at -1L. */
-    }
+    long result = parseDateTime(parts[dateIndex], parts[timeIndex]);
     if (result < 0L || result / 1000L > (long) Integer.MAX_VALUE) {
       throw new DescriptorParseException("Illegal timestamp format in "
           + "line '" + line + "'.");
@@ -216,6 +190,112 @@ public class ParseHelper {
     return result;
   }
 
+  /* Parse the given date and time strings in the formats "yyyy-MM-dd" and
+   * "HH:mm:ss" and return milliseconds since the epoch in UTC, or -1 if
+   * they are invalid.  This accepts the same strings as a non-lenient
+   * SimpleDateFormat with pattern "yyyy-MM-dd HH:mm:ss" did before, which
+   * includes fields with more or fewer digits than in the pattern and any
+   * characters following the seconds, but it doesn't create any objects
+   * while doing so. */
+  static long parseDateTime(String date, String time) {
+    long year = parseDateTimeField(date, 0);
+    long month = parseDateTimeField(date, nextDateTimeField(year, date,
+        '-'));
+    long day = parseDateTimeField(date, nextDateTimeField(month, date,
+        '-'));
+    long hour = parseDateTimeField(time, 0);
+    long minute = parseDateTimeField(time, nextDateTimeField(hour, time,
+        ':'));
+    long second = parseDateTimeField(time, nextDateTimeField(minute, time,
+        ':'));
+    if (year < 0L || month < 0L || day < 0L || fieldEnd(day) != date.length()
+        || hour < 0L || minute < 0L || second < 0L) {
+      return -1L;
+    }
+    int y = fieldValue(year);
+    int m = fieldValue(month);
+    int d = fieldValue(day);
+    if (y < 1 || m < 1 || m > 12 || d < 1 || d > daysInMonth(y, m)
+        || fieldValue(hour) > 23 || fieldValue(minute) > 59
+        || fieldValue(second) > 59) {
+      return -1L;
+    }
+    return ((daysSinceEpoch(y, m, d) * 24L + fieldValue(hour)) * 60L
+        + fieldValue(minute)) * 60000L + fieldValue(second) * 1000L;
+  }
+
+  /* Parse one or more decimal digits starting at the given index, and
+   * return the parsed value in the upper and the index after the last
+   * digit in the lower 32 bits, or -1 if there are no digits or too many
+   * to be a valid value. */
+  private static long parseDateTimeField(String string, int from) {
+    if (from < 0) {
+      return -1L;
+    }
+    long value = 0L;
+    int index = from;
+    while (index < string.length()) {
+      int digit = Character.digit(string.charAt(index), 10);
+      if (digit < 0) {
+        break;
+      }
+      value = 10L * value + digit;
+      if (value > Integer.MAX_VALUE) {
+        return -1L;
+      }
+      index++;
+    }
+    return index == from ? -1L : value << 32 | index;
+  }
+
+  /* Return the index of the next field following the given parsed field
+   * and separator, or -1 if there is no such separator. */
+  private static int nextDateTimeField(long field, String string,
+      char separator) {
+    if (field < 0L) {
+      return -1;
+    }
+    int end = fieldEnd(field);
+    return end < string.length() && string.charAt(end) == separator
+        ? end + 1 : -1;
+  }
+
+  private static int fieldValue(long field) {
+    return (int) (field >>> 32);
+  }
+
+  private static int fieldEnd(long field) {
+    return (int) field;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))
+            ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /* Return the number of days between 1970-01-01 and the given date in the
+   * proleptic Gregorian calendar. */
+  private static long daysSinceEpoch(int year, int month, int day) {
+    long y = month <= 2 ? year - 1L : year;
+    long era = Math.floorDiv(y, 400L);
+    long yearOfEra = y - era * 400L;
+    long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2L) / 5L
+        + day - 1L;
+    long dayOfEra = yearOfEra * 365L + yearOfEra / 4L - yearOfEra / 100L
+        + dayOfYear;
+    return era * 146097L + dayOfEra - 719468L;
+  }
+
   static LocalDateTime parseLocalDateTime(String line, String[] parts,
       int dateIndex, int timeIndex) throws DescriptorParseException {
     return LocalDateTime.ofInstant(Instant.ofEpochMilli(
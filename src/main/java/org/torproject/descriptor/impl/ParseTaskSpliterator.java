@@ -0,0 +1,65 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import org.torproject.descriptor.Descriptor;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/* Spliterator over descriptors parsed by parse tasks that have been
+ * split off a descriptor spliterator, which splits between parse
+ * tasks. */
+class ParseTaskSpliterator implements Spliterator<Descriptor> {
+
+  private final List<Iterator<Descriptor>> tasks;
+
+  private int index;
+
+  private final int fence;
+
+  ParseTaskSpliterator(List<Iterator<Descriptor>> tasks, int index,
+      int fence) {
+    this.tasks = tasks;
+    this.index = index;
+    this.fence = fence;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Descriptor> action) {
+    while (this.index < this.fence) {
+      Iterator<Descriptor> task = this.tasks.get(this.index);
+      if (task.hasNext()) {
+        action.accept(task.next());
+        return true;
+      }
+      this.tasks.set(this.index++, null);
+    }
+    return false;
+  }
+
+  @Override
+  public Spliterator<Descriptor> trySplit() {
+    if (this.fence - this.index < 2) {
+      return null;
+    }
+    int middle = (this.index + this.fence) >>> 1;
+    Spliterator<Descriptor> prefix = new ParseTaskSpliterator(this.tasks,
+        this.index, middle);
+    this.index = middle;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return this.fence - this.index;
+  }
+
+  @Override
+  public int characteristics() {
+    return Spliterator.ORDERED | Spliterator.NONNULL;
+  }
+}
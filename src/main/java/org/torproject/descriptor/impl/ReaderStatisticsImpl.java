@@ -0,0 +1,189 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import org.torproject.descriptor.Descriptor;
+import org.torproject.descriptor.ReaderStatistics;
+import org.torproject.descriptor.UnparseableDescriptor;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Statistics on reading and parsing descriptors that are updated using
+ * {@link LongAdder} counters, which keeps contention low when several
+ * threads parse descriptors concurrently.
+ */
+public class ReaderStatisticsImpl implements ReaderStatistics {
+
+  /* Simple name of the descriptor interface implemented by a descriptor
+   * class. */
+  private static final ClassValue<String> TYPE_NAMES =
+      new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> descriptorClass) {
+          for (Class<?> clazz = descriptorClass; null != clazz;
+              clazz = clazz.getSuperclass()) {
+            for (Class<?> descriptorInterface : clazz.getInterfaces()) {
+              if (Descriptor.class.isAssignableFrom(descriptorInterface)) {
+                return descriptorInterface.getSimpleName();
+              }
+            }
+          }
+          return descriptorClass.getSimpleName();
+        }
+      };
+
+  private final LongAdder bytesRead = new LongAdder();
+
+  private final LongAdder cacheBytesRead = new LongAdder();
+
+  private final LongAdder bytesDecompressed = new LongAdder();
+
+  private final LongAdder unparseableDescriptors = new LongAdder();
+
+  /* Counters of parsed descriptors and parse times by descriptor class. */
+  private final Map<Class<?>, TypeCounters> typeCounters =
+      new ConcurrentHashMap<>();
+
+  private volatile BlockingIteratorImpl<?> descriptorQueue;
+
+  private static class TypeCounters {
+
+    private final LongAdder descriptors = new LongAdder();
+
+    private final LongAdder parseNanos = new LongAdder();
+  }
+
+  void addBytesRead(long bytes) {
+    this.bytesRead.add(bytes);
+  }
+
+  void addCacheBytesRead(long bytes) {
+    this.cacheBytesRead.add(bytes);
+  }
+
+  void addBytesDecompressed(long bytes) {
+    this.bytesDecompressed.add(bytes);
+  }
+
+  void setDescriptorQueue(BlockingIteratorImpl<?> descriptorQueue) {
+    this.descriptorQueue = descriptorQueue;
+  }
+
+  /* Run the given parse task and return an iterator over its parsed
+   * descriptors that counts them by type and adds the time spent in the
+   * parse task and in the iterator to the type of the next descriptor. */
+  Iterator<Descriptor> countDescriptors(
+      Supplier<Iterator<Descriptor>> parseTask) {
+    long started = System.nanoTime();
+    Iterator<Descriptor> descriptors = parseTask.get();
+    long parseTaskNanos = System.nanoTime() - started;
+    return new Iterator<Descriptor>() {
+
+      private long pendingNanos = parseTaskNanos;
+
+      @Override
+      public boolean hasNext() {
+        long started = System.nanoTime();
+        boolean hasNext = descriptors.hasNext();
+        this.pendingNanos += System.nanoTime() - started;
+        return hasNext;
+      }
+
+      @Override
+      public Descriptor next() {
+        long started = System.nanoTime();
+        Descriptor descriptor = descriptors.next();
+        this.pendingNanos += System.nanoTime() - started;
+        countDescriptor(descriptor, this.pendingNanos);
+        this.pendingNanos = 0L;
+        return descriptor;
+      }
+    };
+  }
+
+  private void countDescriptor(Descriptor descriptor, long parseNanos) {
+    TypeCounters counters = this.typeCounters.computeIfAbsent(
+        descriptor.getClass(), (descriptorClass) -> new TypeCounters());
+    counters.descriptors.increment();
+    counters.parseNanos.add(parseNanos);
+    if (descriptor instanceof UnparseableDescriptor) {
+      this.unparseableDescriptors.increment();
+    }
+  }
+
+  @Override
+  public long getBytesRead() {
+    return this.bytesRead.sum();
+  }
+
+  @Override
+  public long getCacheBytesRead() {
+    return this.cacheBytesRead.sum();
+  }
+
+  @Override
+  public long getBytesDecompressed() {
+    return this.bytesDecompressed.sum();
+  }
+
+  @Override
+  public Map<String, Long> getDescriptorsParsed() {
+    SortedMap<String, Long> descriptorsParsed = new TreeMap<>();
+    for (Map.Entry<Class<?>, TypeCounters> e
+        : this.typeCounters.entrySet()) {
+      descriptorsParsed.merge(TYPE_NAMES.get(e.getKey()),
+          e.getValue().descriptors.sum(), Long::sum);
+    }
+    return descriptorsParsed;
+  }
+
+  @Override
+  public Map<String, Long> getParseNanos() {
+    SortedMap<String, Long> parseNanos = new TreeMap<>();
+    for (Map.Entry<Class<?>, TypeCounters> e
+        : this.typeCounters.entrySet()) {
+      parseNanos.merge(TYPE_NAMES.get(e.getKey()),
+          e.getValue().parseNanos.sum(), Long::sum);
+    }
+    return parseNanos;
+  }
+
+  @Override
+  public long getUnparseableDescriptors() {
+    return this.unparseableDescriptors.sum();
+  }
+
+  @Override
+  public int getQueueSize() {
+    BlockingIteratorImpl<?> descriptorQueue = this.descriptorQueue;
+    return null == descriptorQueue ? 0 : descriptorQueue.size();
+  }
+
+  @Override
+  public long getQueueBytes() {
+    BlockingIteratorImpl<?> descriptorQueue = this.descriptorQueue;
+    return null == descriptorQueue ? 0L : descriptorQueue.weight();
+  }
+
+  @Override
+  public long getProducerWaitNanos() {
+    BlockingIteratorImpl<?> descriptorQueue = this.descriptorQueue;
+    return null == descriptorQueue ? 0L
+        : descriptorQueue.getProducerWaitNanos();
+  }
+
+  @Override
+  public long getConsumerWaitNanos() {
+    BlockingIteratorImpl<?> descriptorQueue = this.descriptorQueue;
+    return null == descriptorQueue ? 0L
+        : descriptorQueue.getConsumerWaitNanos();
+  }
+}
@@ -11,7 +11,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -27,7 +26,17 @@ public class RelayNetworkStatusConsensusImpl extends NetworkStatusImpl
   protected RelayNetworkStatusConsensusImpl(byte[] consensusBytes,
       int[] offsetAndLimit, File descriptorFile)
       throws DescriptorParseException {
+    this(consensusBytes, offsetAndLimit, descriptorFile, false);
+  }
+
+  /* Parse a consensus and, if lazyStatusEntries is true, only parse r
+   * lines of status entries right away and all other status entry lines
+   * when first accessing them. */
+  protected RelayNetworkStatusConsensusImpl(byte[] consensusBytes,
+      int[] offsetAndLimit, File descriptorFile, boolean lazyStatusEntries)
+      throws DescriptorParseException {
     super(consensusBytes, offsetAndLimit, descriptorFile, false);
+    this.lazyStatusEntries = lazyStatusEntries;
     this.splitAndParseParts(true);
     Set<Key> exactlyOnceKeys = EnumSet.of(
         Key.VOTE_STATUS, Key.CONSENSUS_METHOD, Key.VALID_AFTER, Key.FRESH_UNTIL,
@@ -48,10 +57,10 @@ public class RelayNetworkStatusConsensusImpl extends NetworkStatusImpl
 
   protected void parseHeader(int offset, int length)
       throws DescriptorParseException {
-    Scanner scanner = this.newScanner(offset, length).useDelimiter(NL);
-    while (scanner.hasNext()) {
-      String line = scanner.next();
-      String[] parts = line.split("[ \t]+");
+    LineCursor cursor = this.newLineCursor(offset, length);
+    while (cursor.nextLine()) {
+      String line = cursor.line();
+      String[] parts = cursor.parts();
       Key key = Key.get(parts[0]);
       switch (key) {
         case NETWORK_STATUS_VERSION:
@@ -119,11 +128,13 @@ public class RelayNetworkStatusConsensusImpl extends NetworkStatusImpl
 
   private boolean microdescConsensus = false;
 
+  private boolean lazyStatusEntries;
+
   protected void parseStatusEntry(int offset, int length)
       throws DescriptorParseException {
     NetworkStatusEntryImpl statusEntry = new NetworkStatusEntryImpl(this,
         offset, length, this.microdescConsensus, this.flagIndexes,
-        this.flagStrings);
+        this.flagStrings, this.lazyStatusEntries);
     this.statusEntries.put(statusEntry.getFingerprint(), statusEntry);
     List<String> unrecognizedStatusEntryLines = statusEntry
         .getAndClearUnrecognizedLines();
@@ -137,10 +148,10 @@ public class RelayNetworkStatusConsensusImpl extends NetworkStatusImpl
 
   protected void parseFooter(int offset, int length)
       throws DescriptorParseException {
-    Scanner scanner = this.newScanner(offset, length).useDelimiter(NL);
-    while (scanner.hasNext()) {
-      String line = scanner.next();
-      String[] parts = line.split("[ \t]+");
+    LineCursor cursor = this.newLineCursor(offset, length);
+    while (cursor.nextLine()) {
+      String line = cursor.line();
+      String[] parts = cursor.parts();
       Key key = Key.get(parts[0]);
       switch (key) {
         case DIRECTORY_FOOTER:
@@ -12,7 +12,6 @@ import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -56,12 +55,12 @@ public class RelayNetworkStatusVoteImpl extends NetworkStatusImpl
 
   protected void parseHeader(int offset, int length)
       throws DescriptorParseException {
-    Scanner scanner = this.newScanner(offset, length).useDelimiter(NL);
+    LineCursor cursor = this.newLineCursor(offset, length);
     Key nextCrypto = Key.EMPTY;
     StringBuilder crypto = null;
-    while (scanner.hasNext()) {
-      String line = scanner.next();
-      String[] parts = line.split("[ \t]+");
+    while (cursor.nextLine()) {
+      String line = cursor.line();
+      String[] parts = cursor.parts();
       Key key = Key.get(parts[0]);
       switch (key) {
         case NETWORK_STATUS_VERSION:
@@ -586,9 +585,9 @@ public class RelayNetworkStatusVoteImpl extends NetworkStatusImpl
   }
 
   protected void parseFooter(int offset, int length) {
-    Scanner scanner = this.newScanner(offset, length).useDelimiter(NL);
-    while (scanner.hasNext()) {
-      String line = scanner.next();
+    LineCursor cursor = this.newLineCursor(offset, length);
+    while (cursor.nextLine()) {
+      String line = cursor.line();
       if (!line.equals(Key.DIRECTORY_FOOTER.keyword)) {
         if (this.unrecognizedLines == null) {
           this.unrecognizedLines = new ArrayList<>();
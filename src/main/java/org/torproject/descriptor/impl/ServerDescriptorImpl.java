@@ -13,7 +13,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -54,17 +53,16 @@ public abstract class ServerDescriptorImpl extends DescriptorImpl
   }
 
   private void parseDescriptorBytes() throws DescriptorParseException {
-    Scanner scanner = this.newScanner().useDelimiter(NL);
+    LineCursor cursor = this.newLineCursor();
     Key nextCrypto = Key.EMPTY;
     List<String> cryptoLines = null;
-    while (scanner.hasNext()) {
-      String line = scanner.next();
-      if (line.startsWith("@")) {
+    while (cursor.nextLine()) {
+      if (cursor.lineStartsWith("@")) {
         continue;
       }
-      String lineNoOpt = line.startsWith(Key.OPT.keyword + SP)
-          ? line.substring(Key.OPT.keyword.length() + 1) : line;
-      String[] partsNoOpt = lineNoOpt.split("[ \t]+");
+      String line = cursor.line();
+      String lineNoOpt = cursor.lineNoOpt();
+      String[] partsNoOpt = cursor.partsNoOpt();
       Key key = Key.get(partsNoOpt[0]);
       switch (key) {
         case ROUTER:
@@ -9,18 +9,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Download files from a CollecTor instance based on the remote
@@ -33,6 +45,47 @@ public class DescriptorIndexCollector implements DescriptorCollector {
   private static final Logger logger = LoggerFactory
       .getLogger(DescriptorIndexCollector.class);
 
+  private int maxConnections = 1;
+
+  private int maxRetries = 2;
+
+  /* Delay before the first retry, which is doubled for each further
+   * retry. */
+  private final long retryDelayMillis;
+
+  /**
+   * Creates a new descriptor collector.
+   *
+   * @since 1.4.0
+   */
+  public DescriptorIndexCollector() {
+    this(1000L);
+  }
+
+  /* Create a new descriptor collector with the given delay before the
+   * first retry, which lets tests retry without waiting. */
+  DescriptorIndexCollector(long retryDelayMillis) {
+    this.retryDelayMillis = retryDelayMillis;
+  }
+
+  @Override
+  public void setMaxConnections(int maxConnections) {
+    if (maxConnections < 1) {
+      throw new IllegalArgumentException("At least one connection is "
+          + "required for fetching remote files.");
+    }
+    this.maxConnections = maxConnections;
+  }
+
+  @Override
+  public void setMaxRetries(int maxRetries) {
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException("A negative number of retries is "
+          + "not permitted.");
+    }
+    this.maxRetries = maxRetries;
+  }
+
   /**
    * If {@code collecTorIndexUrlString} contains just the
    * base url, e.g. https://some.host.org, the path
@@ -97,50 +150,204 @@ public class DescriptorIndexCollector implements DescriptorCollector {
 
   boolean fetchRemoteFiles(String baseUrl, SortedMap<String, FileNode> remotes,
       long minLastModified, File localDir, SortedMap<String, Long> locals) {
-    for (Map.Entry<String, FileNode> entry : remotes.entrySet()) {
-      String filepathname = entry.getKey();
-      String filename = entry.getValue().path;
-      File filepath = new File(localDir,
-          filepathname.replace(filename, ""));
-      long lastModifiedMillis = entry.getValue().lastModifiedMillis();
-      if (lastModifiedMillis < minLastModified
-          || (locals.containsKey(filepathname)
-              && locals.get(filepathname) >= lastModifiedMillis)) {
-        continue;
+    ExecutorService executor =
+        Executors.newFixedThreadPool(this.maxConnections);
+    List<Future<?>> fetches = new ArrayList<>();
+    try {
+      for (Map.Entry<String, FileNode> entry : remotes.entrySet()) {
+        String filepathname = entry.getKey();
+        String filename = entry.getValue().path;
+        File filepath = new File(localDir,
+            filepathname.replace(filename, ""));
+        long lastModifiedMillis = entry.getValue().lastModifiedMillis();
+        if (lastModifiedMillis < minLastModified
+            || (locals.containsKey(filepathname)
+                && locals.get(filepathname) >= lastModifiedMillis)) {
+          continue;
+        }
+        if (!filepath.exists() && !filepath.mkdirs()) {
+          logger.warn("Cannot create local directory {} to store remote file "
+              + "{}. Aborting descriptor collection.", filepath, filename);
+          return false;
+        }
+        fetches.add(executor.submit(() -> this.fetchRemoteFile(baseUrl,
+            filepathname, entry.getValue(), filepath)));
       }
-      if (!filepath.exists() && !filepath.mkdirs()) {
-        logger.warn("Cannot create local directory {} to store remote file {}. "
-            + "Aborting descriptor collection.", filepath, filename);
-        return false;
+    } finally {
+      executor.shutdown();
+      this.awaitFetches(executor, fetches);
+    }
+    return true;
+  }
+
+  private void awaitFetches(ExecutorService executor,
+      List<Future<?>> fetches) {
+    for (Future<?> fetch : fetches) {
+      try {
+        fetch.get();
+      } catch (InterruptedException e) {
+        logger.warn("Interrupted while waiting for remote files to be "
+            + "fetched.  Cancelling remaining fetches.", e);
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        logger.warn("Unexpected error while fetching remote file.",
+            e.getCause());
       }
-      File destinationFile = new File(filepath, filename);
-      File tempDestinationFile = new File(filepath, "." + filename);
-      logger.debug("Fetching remote file {} with expected size of {} bytes "
-          + "from {}, storing locally to temporary file {}, then renaming to "
-          + "{}.",
-          filepathname, entry.getValue().size, baseUrl,
-          tempDestinationFile.getAbsolutePath(),
-          destinationFile.getAbsolutePath());
-      try (InputStream is = new URL(baseUrl + "/" + filepathname)
-          .openStream()) {
-        Files.copy(is, tempDestinationFile.toPath(),
-            StandardCopyOption.REPLACE_EXISTING);
-        if (tempDestinationFile.length() == entry.getValue().size) {
-          tempDestinationFile.renameTo(destinationFile);
-          destinationFile.setLastModified(lastModifiedMillis);
-        } else {
-          logger.warn("Fetched remote file {} from {} has a size of {} bytes "
-              + "which is different from the expected {} bytes.  Not storing "
-              + "this file.",
-              filename, baseUrl, tempDestinationFile.length(),
-              entry.getValue().size);
+    }
+  }
+
+  private void fetchRemoteFile(String baseUrl, String filepathname,
+      FileNode fileNode, File filepath) {
+    String filename = fileNode.path;
+    long lastModifiedMillis = fileNode.lastModifiedMillis();
+    File destinationFile = new File(filepath, filename);
+    File tempDestinationFile = new File(filepath, "." + filename);
+    logger.debug("Fetching remote file {} with expected size of {} bytes "
+        + "from {}, storing locally to temporary file {}, then renaming to "
+        + "{}.",
+        filepathname, fileNode.size, baseUrl,
+        tempDestinationFile.getAbsolutePath(),
+        destinationFile.getAbsolutePath());
+    for (int attempt = 0; attempt <= this.maxRetries; attempt++) {
+      if (attempt > 0) {
+        long delayMillis = this.retryDelayMillis << (attempt - 1);
+        logger.debug("Retrying to fetch remote file {} from {} in {} "
+            + "milliseconds.", filename, baseUrl, delayMillis);
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
         }
+      }
+      try {
+        this.copyRemoteFile(new URL(baseUrl + "/" + filepathname),
+            tempDestinationFile, fileNode.size, lastModifiedMillis);
       } catch (IOException e) {
+        if (attempt < this.maxRetries && isTransient(e)) {
+          logger.debug("Cannot fetch remote file {} from {}.", filename,
+              baseUrl, e);
+          continue;
+        }
         logger.warn("Cannot fetch remote file {} from {}.  Skipping that file.",
             filename, baseUrl, e);
+        return;
       }
+      if (tempDestinationFile.length() == fileNode.size) {
+        tempDestinationFile.renameTo(destinationFile);
+        destinationFile.setLastModified(lastModifiedMillis);
+      } else {
+        logger.warn("Fetched remote file {} from {} has a size of {} bytes "
+            + "which is different from the expected {} bytes.  Not storing "
+            + "this file.",
+            filename, baseUrl, tempDestinationFile.length(),
+            fileNode.size);
+        tempDestinationFile.delete();
+      }
+      return;
     }
-    return true;
+  }
+
+  /* Return whether the given failure to fetch a remote file may go away
+   * by trying again, which is not the case for a missing or inaccessible
+   * remote file, an unknown host, or a malformed URL. */
+  private static boolean isTransient(IOException e) {
+    if (e instanceof HttpResponseException) {
+      return ((HttpResponseException) e).responseCode
+          >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+    return !(e instanceof FileNotFoundException
+        || e instanceof UnknownHostException
+        || e instanceof MalformedURLException);
+  }
+
+  /* Failure to fetch a remote file via HTTP(S) because of an error
+   * response code. */
+  private static class HttpResponseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+
+    private HttpResponseException(URL url, int responseCode) {
+      super("Server returned HTTP response code " + responseCode
+          + " for URL " + url + ".");
+      this.responseCode = responseCode;
+    }
+  }
+
+  /* Copy the remote file to the temporary file, possibly continuing where
+   * a previous attempt stopped.  The temporary file's last-modified time is
+   * set to the remote file's last-modified time, even after a failed
+   * attempt, so that a partially fetched file is only continued as long as
+   * the remote file has not changed since. */
+  private void copyRemoteFile(URL url, File tempDestinationFile,
+      long expectedSize, long lastModifiedMillis) throws IOException {
+    long offset = 0L;
+    if (tempDestinationFile.exists()
+        && tempDestinationFile.lastModified() == lastModifiedMillis
+        && tempDestinationFile.length() < expectedSize) {
+      offset = tempDestinationFile.length();
+    }
+    URLConnection connection = url.openConnection();
+    boolean append = false;
+    if (connection instanceof HttpURLConnection) {
+      if (offset > 0L) {
+        connection.setRequestProperty("Range", "bytes=" + offset + "-");
+      }
+      int responseCode = ((HttpURLConnection) connection).getResponseCode();
+      if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+        release((HttpURLConnection) connection);
+        throw new HttpResponseException(url, responseCode);
+      }
+      if (offset > 0L && HttpURLConnection.HTTP_PARTIAL == responseCode) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (null == contentRange
+            || !contentRange.startsWith("bytes " + offset + "-")) {
+          release((HttpURLConnection) connection);
+          tempDestinationFile.delete();
+          throw new IOException("Unexpected content range " + contentRange
+              + " when requesting bytes starting at " + offset + ".");
+        }
+        logger.debug("Continuing to fetch remote file {} at byte {}.", url,
+            offset);
+        append = true;
+      }
+    }
+    try (InputStream is = connection.getInputStream();
+        OutputStream os = new FileOutputStream(tempDestinationFile, append)) {
+      byte[] buffer = new byte[8192];
+      long received = 0L;
+      int len;
+      while ((len = is.read(buffer)) >= 0) {
+        os.write(buffer, 0, len);
+        received += len;
+      }
+      long contentLength = connection.getContentLengthLong();
+      if (contentLength >= 0L && received != contentLength) {
+        throw new IOException("Connection closed after receiving "
+            + received + " of " + contentLength + " bytes.");
+      }
+    } finally {
+      tempDestinationFile.setLastModified(lastModifiedMillis);
+    }
+  }
+
+  /* Release the given connection without reading the response body,
+   * closing the error stream if there is one and disconnecting, so that
+   * an unusable response doesn't keep a connection open. */
+  private static void release(HttpURLConnection connection) {
+    InputStream errorStream = connection.getErrorStream();
+    if (null != errorStream) {
+      try {
+        errorStream.close();
+      } catch (IOException e) {
+        /* Disconnecting below is all that's left to do. */
+      }
+    }
+    connection.disconnect();
   }
 
   static void deleteExtraneousLocalFiles(String[] remoteDirectories,
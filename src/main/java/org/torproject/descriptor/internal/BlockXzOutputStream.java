@@ -0,0 +1,105 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that compresses bytes to an xz stream consisting of
+ * several blocks of limited size, which can later be decompressed in
+ * parallel by {@link ParallelXzInputStream}.
+ *
+ * <p>Compression uses the default preset, like
+ * {@link org.apache.commons.compress.compressors.xz.XZCompressorOutputStream},
+ * and starts a new block after every 24 MiB of uncompressed bytes, which
+ * is the block size that {@code xz --threads} uses for the default
+ * preset.  Every block is compressed without referring to previous blocks,
+ * which makes the result slightly larger than a single-block stream.</p>
+ *
+ * @since 2.15.0
+ */
+public class BlockXzOutputStream extends OutputStream {
+
+  static final long DEFAULT_BLOCK_SIZE = 24L << 20;
+
+  private final XZOutputStream xzOutputStream;
+
+  private final long blockSize;
+
+  private long blockBytesWritten = 0L;
+
+  /**
+   * Creates a new output stream using the default block size.
+   *
+   * @param outputStream Output stream for the compressed bytes.
+   *
+   * @throws IOException Thrown if writing the stream header fails.
+   *
+   * @since 2.15.0
+   */
+  public BlockXzOutputStream(OutputStream outputStream) throws IOException {
+    this(outputStream, DEFAULT_BLOCK_SIZE);
+  }
+
+  BlockXzOutputStream(OutputStream outputStream, long blockSize)
+      throws IOException {
+    this.xzOutputStream = new XZOutputStream(outputStream,
+        new LZMA2Options());
+    this.blockSize = blockSize;
+  }
+
+  @Override
+  public void write(int singleByte) throws IOException {
+    this.endBlockIfFull();
+    this.xzOutputStream.write(singleByte);
+    this.blockBytesWritten++;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length)
+      throws IOException {
+    while (length > 0) {
+      this.endBlockIfFull();
+      int written = (int) Math.min(length,
+          this.blockSize - this.blockBytesWritten);
+      this.xzOutputStream.write(bytes, offset, written);
+      this.blockBytesWritten += written;
+      offset += written;
+      length -= written;
+    }
+  }
+
+  private void endBlockIfFull() throws IOException {
+    if (this.blockBytesWritten >= this.blockSize) {
+      this.xzOutputStream.endBlock();
+      this.blockBytesWritten = 0L;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    this.xzOutputStream.flush();
+  }
+
+  /**
+   * Finishes compression without closing the underlying output stream.
+   *
+   * @throws IOException Thrown if writing the last block or the stream
+   *     footer fails.
+   *
+   * @since 2.15.0
+   */
+  public void finish() throws IOException {
+    this.xzOutputStream.finish();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.xzOutputStream.close();
+  }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Input stream that reports the number of bytes read from another input
+ * stream as they are read.
+ *
+ * <p>Bytes are reported once per read call, so that this stream should be
+ * placed below a buffer or a decompressor reading larger chunks rather
+ * than below a reader of single bytes.  Bytes skipped using
+ * {@link #skip(long)} are not reported, because they may not have been
+ * read at all.</p>
+ *
+ * @since 2.15.0
+ */
+public class CountingInputStream extends FilterInputStream {
+
+  private final LongConsumer bytesRead;
+
+  /**
+   * Creates a new input stream that reports bytes read from the given
+   * input stream to the given consumer.
+   *
+   * @param in Input stream to read from.
+   * @param bytesRead Consumer of the number of bytes read by each read
+   *     call.
+   *
+   * @since 2.15.0
+   */
+  public CountingInputStream(InputStream in, LongConsumer bytesRead) {
+    super(in);
+    this.bytesRead = bytesRead;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int read = this.in.read();
+    if (read >= 0) {
+      this.bytesRead.accept(1L);
+    }
+    return read;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    int read = this.in.read(bytes, offset, length);
+    if (read > 0) {
+      this.bytesRead.accept(read);
+    }
+    return read;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+}
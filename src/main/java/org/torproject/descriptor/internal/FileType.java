@@ -8,7 +8,8 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
-import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -32,7 +33,8 @@ public enum FileType {
   GZ(GzipCompressorInputStream.class, GzipCompressorOutputStream.class),
   JSON(BufferedInputStream.class, BufferedOutputStream.class),
   PLAIN(BufferedInputStream.class, BufferedOutputStream.class),
-  XZ(XZCompressorInputStream.class, XZCompressorOutputStream.class);
+  XZ(XZCompressorInputStream.class, BlockXzOutputStream.class),
+  ZST(ZstdCompressorInputStream.class, ZstdCompressorOutputStream.class);
 
   private final Class<? extends InputStream> inClass;
   private final Class<? extends OutputStream> outClass;
@@ -0,0 +1,556 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input stream that decompresses the blocks of a bzip2 stream using
+ * several threads and provides decompressed bytes in their original
+ * order.
+ *
+ * <p>Blocks of a bzip2 stream are compressed independently of each other,
+ * but they are not aligned to byte boundaries, and their positions are
+ * not stored anywhere.  This stream locates blocks by searching for the
+ * 48-bit magic numbers that start blocks and end streams, copies each
+ * block into a separate bzip2 stream of its own, and decompresses those
+ * streams concurrently.  A magic number may also occur by chance within
+ * compressed data, which results in a block that fails its checksum and
+ * that is then decompressed together with the following block.
+ * Concatenated bzip2 streams are decompressed as a single stream.
+ * Reading fails if the underlying input stream does not start with a
+ * bzip2 stream header, or if it ends without end-of-stream magic number,
+ * which happens after providing the bytes of all complete blocks.</p>
+ *
+ * <p>Decompressing a single block is not faster than with
+ * {@link BZip2CompressorInputStream}, but the default block size of
+ * 900 kB uncompressed bytes makes larger files consist of many
+ * blocks.</p>
+ *
+ * @since 2.15.0
+ */
+public class ParallelBzip2InputStream extends InputStream {
+
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+
+  private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+
+  private static final long MAGIC_MASK = 0xffffffffffffL;
+
+  /* Stream header of a stream using the largest block size, which is
+   * "BZh9" in ASCII. */
+  private static final long STREAM_HEADER = 0x425a6839L;
+
+  /* Maximum number of consecutive candidate blocks that are decompressed
+   * together before giving up. */
+  private static final int MAX_MERGED_CANDIDATES = 3;
+
+  private final InputStream in;
+
+  private final int threads;
+
+  /* Pool of decompression threads, created when needed, or null if
+   * blocks are decompressed by the reading thread. */
+  private ThreadPoolExecutor decompressionThreads;
+
+  private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+
+  private boolean hasMoreCandidates = true;
+
+  /* Whether the underlying input stream ended without end-of-stream magic
+   * number after the last block. */
+  private boolean isTruncated = false;
+
+  private byte[] block = new byte[0];
+
+  private int position = 0;
+
+  private boolean isClosed = false;
+
+  private final byte[] readBuffer = new byte[64 * 1024];
+
+  private int readBufferLength = 0;
+
+  private int readBufferPosition = 0;
+
+  /* Last 64 bits read from the underlying input stream. */
+  private long window = 0L;
+
+  private long bitsRead = 0L;
+
+  /* Bytes read since the byte containing the start of the current
+   * candidate block, or the last few bytes if there is no current
+   * candidate. */
+  private byte[] candidateBytes = new byte[1 << 20];
+
+  private int candidateBytesLength = 0;
+
+  /* Position of the first bit in candidate bytes in the underlying input
+   * stream, which is always at a byte boundary. */
+  private long candidateBytesStartBit = 0L;
+
+  /* Position of the start of the current candidate block, or -1 if there
+   * is no current candidate. */
+  private long candidateStartBit = -1L;
+
+  /* Position of the last end-of-stream magic number after the start of
+   * the current candidate block, or -1 if there is none. */
+  private long candidateEndOfStreamBit = -1L;
+
+  /* Whether an end-of-stream magic number was found after the start of
+   * the last candidate block, or anywhere if there is none. */
+  private boolean hasEndOfStream = false;
+
+  /**
+   * Creates a new input stream using as many decompression threads as
+   * there are available processors.
+   *
+   * @param in Input stream providing bzip2-compressed bytes.
+   *
+   * @since 2.15.0
+   */
+  public ParallelBzip2InputStream(InputStream in) {
+    this(in, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a new input stream using the given number of decompression
+   * threads, or decompressing blocks in the reading thread if that number
+   * is 1.
+   *
+   * @param in Input stream providing bzip2-compressed bytes.
+   * @param threads Number of decompression threads.
+   *
+   * @since 2.15.0
+   */
+  public ParallelBzip2InputStream(InputStream in, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at "
+          + "least 1, but is " + threads + ".");
+    }
+    this.in = in;
+    this.threads = threads;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!this.fillBlock()) {
+      return -1;
+    }
+    return this.block[this.position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (0 == length) {
+      return 0;
+    }
+    if (!this.fillBlock()) {
+      return -1;
+    }
+    int read = Math.min(length, this.block.length - this.position);
+    System.arraycopy(this.block, this.position, bytes, offset, read);
+    this.position += read;
+    return read;
+  }
+
+  @Override
+  public int available() {
+    return this.block.length - this.position;
+  }
+
+  /* Make sure that there are decompressed bytes left to provide, and
+   * return whether there are any. */
+  private boolean fillBlock() throws IOException {
+    if (this.isClosed) {
+      throw new IOException("Stream is closed.");
+    }
+    while (this.position >= this.block.length) {
+      this.fillPendingBlocks();
+      if (this.pendingBlocks.isEmpty()) {
+        this.shutDownDecompressionThreads();
+        if (this.isTruncated) {
+          throw new IOException("Stream ends without end-of-stream magic "
+              + "number.");
+        }
+        return false;
+      }
+      this.block = this.takeNextBlock();
+      this.position = 0;
+    }
+    return true;
+  }
+
+  /* Locate candidate blocks and hand them over to decompression threads,
+   * without reading too far ahead of those threads. */
+  private void fillPendingBlocks() throws IOException {
+    while (this.hasMoreCandidates
+        && this.pendingBlocks.size() < 2 * this.threads) {
+      Candidate candidate = this.nextCandidate();
+      if (null == candidate) {
+        this.hasMoreCandidates = false;
+        break;
+      }
+      Future<byte[]> result = null;
+      if (this.threads > 1) {
+        if (null == this.decompressionThreads) {
+          this.decompressionThreads = new ThreadPoolExecutor(this.threads,
+              this.threads, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+              (runnable) -> {
+                Thread decompressionThread = new Thread(runnable);
+                decompressionThread.setDaemon(true);
+                return decompressionThread;
+              });
+          this.decompressionThreads.allowCoreThreadTimeOut(true);
+        }
+        result = this.decompressionThreads.submit(() -> decompress(
+            Collections.singletonList(candidate)));
+      }
+      this.pendingBlocks.add(new PendingBlock(candidate, result));
+    }
+  }
+
+  /* Return the decompressed bytes of the next candidate block, or, if it
+   * cannot be decompressed on its own, of that block and one or more of
+   * the following candidate blocks. */
+  private byte[] takeNextBlock() throws IOException {
+    PendingBlock first = this.pendingBlocks.remove();
+    try {
+      return first.get();
+    } catch (IOException e) {
+      List<Candidate> candidates = new ArrayList<>();
+      candidates.add(first.candidate);
+      while (candidates.size() < MAX_MERGED_CANDIDATES) {
+        this.fillPendingBlocks();
+        if (this.pendingBlocks.isEmpty()) {
+          break;
+        }
+        PendingBlock next = this.pendingBlocks.remove();
+        next.cancel();
+        candidates.add(next.candidate);
+        try {
+          return decompress(candidates);
+        } catch (IOException mergedException) {
+          /* Try again with the next candidate block. */
+        }
+      }
+      throw e;
+    }
+  }
+
+  private int nextByte() throws IOException {
+    if (this.readBufferPosition >= this.readBufferLength) {
+      this.readBufferLength = this.in.read(this.readBuffer);
+      this.readBufferPosition = 0;
+      if (this.readBufferLength <= 0) {
+        this.readBufferLength = 0;
+        return -1;
+      }
+    }
+    return this.readBuffer[this.readBufferPosition++] & 0xff;
+  }
+
+  /* Read from the underlying input stream until the end of the current
+   * candidate block is known, and return that candidate, or null if
+   * there are no more candidates. */
+  private Candidate nextCandidate() throws IOException {
+    while (true) {
+      int nextByte = this.nextByte();
+      if (nextByte < 0) {
+        if (this.bitsRead < 32L) {
+          this.checkStreamHeader();
+        }
+        if (!this.hasEndOfStream) {
+          /* Skip the incomplete last block, if any, and fail after
+           * providing the bytes of all complete blocks. */
+          this.isTruncated = true;
+          this.candidateStartBit = -1L;
+        }
+        if (this.candidateStartBit < 0L) {
+          return null;
+        }
+        Candidate candidate = this.closeCandidate(
+            this.candidateEndOfStreamBit, this.bitsRead);
+        this.candidateStartBit = -1L;
+        return candidate;
+      }
+      this.appendCandidateByte(nextByte);
+      this.window = (this.window << 8) | nextByte;
+      this.bitsRead += 8L;
+      if (32L == this.bitsRead) {
+        this.checkStreamHeader();
+      }
+      for (int shift = 7; shift >= 0; shift--) {
+        long magicStartBit = this.bitsRead - shift - 48L;
+        if (magicStartBit < 0L) {
+          continue;
+        }
+        long value = (this.window >>> shift) & MAGIC_MASK;
+        if (BLOCK_MAGIC == value) {
+          Candidate candidate = null;
+          if (this.candidateStartBit >= 0L) {
+            long endBit = this.candidateEndOfStreamBit >= 0L
+                ? this.candidateEndOfStreamBit : magicStartBit;
+            candidate = this.closeCandidate(endBit, magicStartBit);
+          }
+          this.openCandidate(magicStartBit);
+          if (null != candidate) {
+            return candidate;
+          }
+        } else if (END_OF_STREAM_MAGIC == value) {
+          this.hasEndOfStream = true;
+          if (this.candidateStartBit >= 0L) {
+            this.candidateEndOfStreamBit = magicStartBit;
+          }
+        }
+      }
+    }
+  }
+
+  /* Make sure that the underlying input stream starts with "BZh" and a
+   * block size from 1 to 9.  Headers of any further concatenated streams
+   * are not checked. */
+  private void checkStreamHeader() throws IOException {
+    long blockSize = this.window & 0xffL;
+    if (this.bitsRead < 32L
+        || (this.window & 0xffffff00L) != (STREAM_HEADER & 0xffffff00L)
+        || blockSize < '1' || blockSize > '9') {
+      throw new IOException("Stream is not in the BZip2 format");
+    }
+  }
+
+  private void appendCandidateByte(int nextByte) {
+    if (this.candidateStartBit < 0L && this.candidateBytesLength >= 16) {
+      /* Only keep the last 8 bytes that may contain the start of the next
+       * magic number. */
+      System.arraycopy(this.candidateBytes, this.candidateBytesLength - 8,
+          this.candidateBytes, 0, 8);
+      this.candidateBytesStartBit += 8L * (this.candidateBytesLength - 8);
+      this.candidateBytesLength = 8;
+    }
+    if (this.candidateBytesLength >= this.candidateBytes.length) {
+      this.candidateBytes = Arrays.copyOf(this.candidateBytes,
+          2 * this.candidateBytes.length);
+    }
+    this.candidateBytes[this.candidateBytesLength++] = (byte) nextByte;
+  }
+
+  private void openCandidate(long startBit) {
+    int startByte = (int) ((startBit - this.candidateBytesStartBit) >>> 3);
+    System.arraycopy(this.candidateBytes, startByte, this.candidateBytes, 0,
+        this.candidateBytesLength - startByte);
+    this.candidateBytesLength -= startByte;
+    this.candidateBytesStartBit += 8L * startByte;
+    this.candidateStartBit = startBit;
+    this.candidateEndOfStreamBit = -1L;
+    this.hasEndOfStream = false;
+  }
+
+  private Candidate closeCandidate(long endBit, long nextStartBit) {
+    long offset = this.candidateBytesStartBit;
+    byte[] bytes = Arrays.copyOf(this.candidateBytes,
+        (int) ((nextStartBit - offset + 7L) >>> 3));
+    return new Candidate(bytes, this.candidateStartBit - offset,
+        endBit - offset, nextStartBit - offset,
+        this.candidateEndOfStreamBit >= 0L);
+  }
+
+  /* Decompress the given consecutive candidate blocks by copying them into
+   * a bzip2 stream of their own. */
+  private static byte[] decompress(List<Candidate> candidates)
+      throws IOException {
+    BitWriter writer = new BitWriter();
+    writer.writeBits(STREAM_HEADER, 32);
+    int combinedCrc = 0;
+    for (int i = 0; i < candidates.size(); i++) {
+      Candidate candidate = candidates.get(i);
+      if (candidate.endBit - candidate.startBit < 80L) {
+        throw new IOException("Block is too short.");
+      }
+      writer.writeBits(candidate.bytes, candidate.startBit,
+          i == candidates.size() - 1 ? candidate.endBit
+          : candidate.nextStartBit);
+      /* A candidate block following a candidate block that ends with an
+       * end-of-stream magic number is a block of its own, whereas a
+       * candidate block without end-of-stream magic number is either part
+       * of the following candidate block or was mistaken as ending with a
+       * block magic number. */
+      if (0 == i || candidates.get(i - 1).endsWithEndOfStream) {
+        combinedCrc = ((combinedCrc << 1) | (combinedCrc >>> 31))
+            ^ candidate.crc();
+      }
+    }
+    writer.writeBits(END_OF_STREAM_MAGIC, 48);
+    writer.writeBits(combinedCrc & 0xffffffffL, 32);
+    try (InputStream is = new BZip2CompressorInputStream(
+        new ByteArrayInputStream(writer.toByteArray()))) {
+      return IOUtils.toByteArray(is);
+    }
+  }
+
+  private void shutDownDecompressionThreads() {
+    if (null != this.decompressionThreads) {
+      this.decompressionThreads.shutdownNow();
+      this.decompressionThreads = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.isClosed) {
+      return;
+    }
+    this.isClosed = true;
+    for (PendingBlock pendingBlock : this.pendingBlocks) {
+      pendingBlock.cancel();
+    }
+    this.pendingBlocks.clear();
+    this.shutDownDecompressionThreads();
+    this.block = new byte[0];
+    this.position = 0;
+    this.candidateBytes = new byte[0];
+    this.in.close();
+  }
+
+  /* Compressed bits from the start of a candidate block to the start of
+   * the next candidate block, with positions relative to the first bit of
+   * the given bytes. */
+  private static class Candidate {
+
+    private final byte[] bytes;
+
+    private final long startBit;
+
+    /* Position of the end-of-stream or block magic number ending this
+     * candidate block. */
+    private final long endBit;
+
+    private final long nextStartBit;
+
+    private final boolean endsWithEndOfStream;
+
+    private Candidate(byte[] bytes, long startBit, long endBit,
+        long nextStartBit, boolean endsWithEndOfStream) {
+      this.bytes = bytes;
+      this.startBit = startBit;
+      this.endBit = endBit;
+      this.nextStartBit = nextStartBit;
+      this.endsWithEndOfStream = endsWithEndOfStream;
+    }
+
+    /* Return the block CRC following the block magic number. */
+    private int crc() {
+      int crc = 0;
+      for (long bit = this.startBit + 48L; bit < this.startBit + 80L;
+          bit++) {
+        crc = (crc << 1)
+            | ((this.bytes[(int) (bit >>> 3)] >>> (7 - (bit & 7L))) & 1);
+      }
+      return crc;
+    }
+  }
+
+  private static class PendingBlock {
+
+    private final Candidate candidate;
+
+    /* Result of decompressing the candidate block in a decompression
+     * thread, or null if it is decompressed when needed. */
+    private final Future<byte[]> result;
+
+    private PendingBlock(Candidate candidate, Future<byte[]> result) {
+      this.candidate = candidate;
+      this.result = result;
+    }
+
+    private byte[] get() throws IOException {
+      if (null == this.result) {
+        return decompress(Collections.singletonList(this.candidate));
+      }
+      try {
+        return this.result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for "
+            + "decompression threads.");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Unable to decompress block.", e.getCause());
+      }
+    }
+
+    private void cancel() {
+      if (null != this.result) {
+        this.result.cancel(true);
+      }
+    }
+  }
+
+  /* Writer of single bits and bit ranges into a byte array, most
+   * significant bit first. */
+  private static class BitWriter {
+
+    private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    private long buffer = 0L;
+
+    private int bufferedBits = 0;
+
+    private void writeBits(long value, int count) {
+      this.buffer = (this.buffer << count) | (value & ((1L << count) - 1L));
+      this.bufferedBits += count;
+      while (this.bufferedBits >= 8) {
+        this.bufferedBits -= 8;
+        this.baos.write((int) (this.buffer >>> this.bufferedBits));
+      }
+      this.buffer &= (1L << this.bufferedBits) - 1L;
+    }
+
+    private void writeBits(byte[] bytes, long fromBit, long toBit) {
+      long bit = fromBit;
+      while (toBit - bit >= 8L) {
+        int index = (int) (bit >>> 3);
+        int shift = (int) (bit & 7L);
+        int value = (bytes[index] & 0xff) << shift;
+        if (shift > 0) {
+          value |= (bytes[index + 1] & 0xff) >>> (8 - shift);
+        }
+        this.writeBits(value, 8);
+        bit += 8L;
+      }
+      while (bit < toBit) {
+        this.writeBits(
+            (bytes[(int) (bit >>> 3)] >>> (7 - (bit & 7L))) & 1, 1);
+        bit++;
+      }
+    }
+
+    private byte[] toByteArray() {
+      if (this.bufferedBits > 0) {
+        this.writeBits(0L, 8 - this.bufferedBits);
+      }
+      return this.baos.toByteArray();
+    }
+  }
+}
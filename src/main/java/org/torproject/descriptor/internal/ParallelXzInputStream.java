@@ -0,0 +1,331 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * Input stream that decompresses the blocks of an xz file using several
+ * threads and provides decompressed bytes in their original order.
+ *
+ * <p>Blocks of an xz file can be decompressed independently of each
+ * other, which is only useful for files containing more than one block,
+ * like those written by {@link BlockXzOutputStream} or by {@code xz
+ * --threads} or {@code xz --block-size}.  Block positions are looked up
+ * in the index at the end of the file.  Files written by single-threaded
+ * {@code xz} contain a single block and can only be decompressed by a
+ * single thread.</p>
+ *
+ * <p>Each decompression thread holds a whole decompressed block in
+ * memory.  Files containing blocks larger than 64 MiB are therefore
+ * decompressed by a single thread, which keeps memory use at most 64 MiB
+ * per thread plus the block being read.</p>
+ *
+ * @since 2.15.0
+ */
+public class ParallelXzInputStream extends InputStream {
+
+  /* Largest decompressed block size for decompressing blocks in
+   * parallel. */
+  private static final long MAX_BLOCK_SIZE = 64L << 20;
+
+  private final File file;
+
+  private final LongConsumer bytesRead;
+
+  private final int blockCount;
+
+  private final int maxPendingBlocks;
+
+  private final ExecutorService decompressionThreads;
+
+  /* Decompressing stream used by the current decompression thread. */
+  private final ThreadLocal<SeekableXZInputStream> blockStream =
+      new ThreadLocal<>();
+
+  /* Decompressing streams used by all decompression threads, to be closed
+   * when closing this stream. */
+  private final Queue<SeekableXZInputStream> blockStreams =
+      new ConcurrentLinkedQueue<>();
+
+  /* Blocks being decompressed, in their original order. */
+  private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+  private int nextBlockNumber = 0;
+
+  private byte[] block = new byte[0];
+
+  private int position = 0;
+
+  private boolean isClosed = false;
+
+  /**
+   * Opens the given xz file for decompression using up to the given number
+   * of threads, or using a single thread if the file contains only a
+   * single block, if it contains blocks larger than 64 MiB, or if the
+   * number of threads is 1.
+   *
+   * <p>If the index at the end of the file cannot be read, for example
+   * because the file is truncated, the file is decompressed using a single
+   * thread, which still provides all bytes before the damaged part.</p>
+   *
+   * @param file Xz file to decompress.
+   * @param threads Maximum number of decompression threads.
+   *
+   * @return Input stream providing decompressed bytes.
+   *
+   * @throws IOException Thrown if the file cannot be opened or is not a
+   *     valid xz file.
+   *
+   * @since 2.15.0
+   */
+  public static InputStream open(File file, int threads) throws IOException {
+    return open(file, threads, (bytes) -> { });
+  }
+
+  /**
+   * Opens the given xz file for decompression like
+   * {@link #open(File, int)} and reports the number of compressed bytes
+   * read from the file to the given consumer as they are read.
+   *
+   * @param file Xz file to decompress.
+   * @param threads Maximum number of decompression threads.
+   * @param bytesRead Consumer of the number of compressed bytes read.
+   *
+   * @return Input stream providing decompressed bytes.
+   *
+   * @throws IOException Thrown if the file cannot be opened or is not a
+   *     valid xz file.
+   *
+   * @since 2.15.0
+   */
+  public static InputStream open(File file, int threads,
+      LongConsumer bytesRead) throws IOException {
+    return open(file, threads, bytesRead, MAX_BLOCK_SIZE);
+  }
+
+  /* Open the given xz file for decompression using up to the given number
+   * of threads, unless it contains blocks larger than the given size. */
+  static InputStream open(File file, int threads, LongConsumer bytesRead,
+      long maxBlockSize) throws IOException {
+    if (threads > 1) {
+      int blockCount = 0;
+      boolean hasSmallBlocks = true;
+      try (SeekableXZInputStream xz = new SeekableXZInputStream(
+          new CountingSeekableInputStream(file, bytesRead))) {
+        blockCount = xz.getBlockCount();
+        for (int i = 0; i < blockCount; i++) {
+          if (xz.getBlockSize(i) > maxBlockSize) {
+            hasSmallBlocks = false;
+            break;
+          }
+        }
+      } catch (IOException e) {
+        /* Fall back to decompressing sequentially, which fails only when
+         * reaching the damaged part. */
+        blockCount = 0;
+      }
+      if (blockCount > 1 && hasSmallBlocks) {
+        return new ParallelXzInputStream(file, bytesRead, blockCount,
+            Math.min(threads, blockCount));
+      }
+    }
+    return new XZCompressorInputStream(new CountingInputStream(
+        new FileInputStream(file), bytesRead));
+  }
+
+  private ParallelXzInputStream(File file, LongConsumer bytesRead,
+      int blockCount, int threads) {
+    this.file = file;
+    this.bytesRead = bytesRead;
+    this.blockCount = blockCount;
+    this.maxPendingBlocks = threads;
+    this.decompressionThreads = Executors.newFixedThreadPool(threads,
+        (runnable) -> {
+          Thread decompressionThread = new Thread(runnable);
+          decompressionThread.setDaemon(true);
+          return decompressionThread;
+        });
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!this.fillBlock()) {
+      return -1;
+    }
+    return this.block[this.position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (0 == length) {
+      return 0;
+    }
+    if (!this.fillBlock()) {
+      return -1;
+    }
+    int read = Math.min(length, this.block.length - this.position);
+    System.arraycopy(this.block, this.position, bytes, offset, read);
+    this.position += read;
+    return read;
+  }
+
+  @Override
+  public int available() {
+    return this.block.length - this.position;
+  }
+
+  /* Make sure that there are decompressed bytes left to provide, while
+   * keeping up to one block per thread in decompression, and return
+   * whether there are any bytes left. */
+  private boolean fillBlock() throws IOException {
+    if (this.isClosed) {
+      throw new IOException("Stream is closed.");
+    }
+    while (this.position >= this.block.length) {
+      while (this.nextBlockNumber < this.blockCount
+          && this.pendingBlocks.size() < this.maxPendingBlocks) {
+        int blockNumber = this.nextBlockNumber++;
+        this.pendingBlocks.add(this.decompressionThreads.submit(
+            () -> this.decompressBlock(blockNumber)));
+      }
+      if (this.pendingBlocks.isEmpty()) {
+        return false;
+      }
+      try {
+        this.block = this.pendingBlocks.remove().get();
+        this.position = 0;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for "
+            + "decompression threads.");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Unable to decompress block.", e.getCause());
+      }
+    }
+    return true;
+  }
+
+  private byte[] decompressBlock(int blockNumber) throws IOException {
+    SeekableXZInputStream xz = this.blockStream.get();
+    if (null == xz) {
+      xz = new SeekableXZInputStream(new CountingSeekableInputStream(
+          this.file, this.bytesRead));
+      this.blockStream.set(xz);
+      this.blockStreams.add(xz);
+    }
+    xz.seekToBlock(blockNumber);
+    byte[] bytes = new byte[(int) xz.getBlockSize(blockNumber)];
+    if (IOUtils.readFully(xz, bytes) < bytes.length) {
+      throw new EOFException("Unexpected end of block " + blockNumber
+          + " in " + this.file + ".");
+    }
+    return bytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.isClosed) {
+      return;
+    }
+    this.isClosed = true;
+    for (Future<byte[]> pendingBlock : this.pendingBlocks) {
+      pendingBlock.cancel(true);
+    }
+    this.pendingBlocks.clear();
+    this.decompressionThreads.shutdownNow();
+    this.block = new byte[0];
+    this.position = 0;
+    IOException closeException = null;
+    for (SeekableXZInputStream xz : this.blockStreams) {
+      try {
+        xz.close();
+      } catch (IOException e) {
+        closeException = e;
+      }
+    }
+    if (null != closeException) {
+      throw closeException;
+    }
+  }
+
+  /* Seekable input stream that reports the number of bytes read from a
+   * file, which cannot be done by wrapping the file in a
+   * CountingInputStream, because decompression threads need to seek. */
+  private static class CountingSeekableInputStream
+      extends SeekableInputStream {
+
+    private final SeekableFileInputStream in;
+
+    private final LongConsumer bytesRead;
+
+    private CountingSeekableInputStream(File file, LongConsumer bytesRead)
+        throws IOException {
+      this.in = new SeekableFileInputStream(file);
+      this.bytesRead = bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = this.in.read();
+      if (read >= 0) {
+        this.bytesRead.accept(1L);
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length)
+        throws IOException {
+      int read = this.in.read(bytes, offset, length);
+      if (read > 0) {
+        this.bytesRead.accept(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long length() throws IOException {
+      return this.in.length();
+    }
+
+    @Override
+    public long position() throws IOException {
+      return this.in.position();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+      this.in.seek(position);
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.in.close();
+    }
+  }
+}
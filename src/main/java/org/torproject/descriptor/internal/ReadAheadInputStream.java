@@ -0,0 +1,185 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream that reads ahead from another input stream on a separate
+ * thread into a bounded buffer, so that reading and decompressing bytes
+ * overlaps with processing them.
+ *
+ * <p>The read-ahead thread starts reading as soon as this stream is
+ * created, and it stops reading whenever the buffer is full until the
+ * reading thread has taken bytes out of it.  Exceptions thrown by the
+ * underlying input stream are rethrown to the reading thread after it
+ * has read the bytes that were put into the buffer before the failure.
+ * The underlying input stream is closed by the read-ahead thread after
+ * reading all bytes, after a failure, or after closing this stream.</p>
+ *
+ * @since 2.15.0
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  /* Maximum number of bytes read from the underlying input stream at
+   * once. */
+  private static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+  /* Marker for the end of the underlying input stream in the buffer. */
+  private static final byte[] END = new byte[0];
+
+  private final InputStream in;
+
+  private final int chunkSize;
+
+  /* Chunks read from the underlying input stream that have not been taken
+   * by the reading thread yet. */
+  private final BlockingQueue<byte[]> chunks;
+
+  private final Thread readAheadThread;
+
+  /* Exception thrown by the underlying input stream, or null. */
+  private volatile IOException exception;
+
+  private volatile boolean isClosed = false;
+
+  private byte[] chunk = new byte[0];
+
+  private int position = 0;
+
+  private boolean hasEnded = false;
+
+  /**
+   * Creates a new input stream and starts reading ahead from the given
+   * input stream.
+   *
+   * @param in Input stream to read ahead from.
+   * @param bufferBytes Maximum number of bytes to read ahead.
+   *
+   * @since 2.15.0
+   */
+  public ReadAheadInputStream(InputStream in, int bufferBytes) {
+    if (bufferBytes < 1) {
+      throw new IllegalArgumentException("Buffer size must be at least 1, "
+          + "but is " + bufferBytes + ".");
+    }
+    this.in = in;
+    this.chunkSize = Math.min(bufferBytes, MAX_CHUNK_SIZE);
+    this.chunks = new ArrayBlockingQueue<>(
+        Math.max(1, bufferBytes / this.chunkSize));
+    this.readAheadThread = new Thread(this::readAhead);
+    this.readAheadThread.setDaemon(true);
+    this.readAheadThread.start();
+  }
+
+  /* Read chunks from the underlying input stream until reaching its end,
+   * failing, or being closed. */
+  private void readAhead() {
+    try {
+      int length;
+      do {
+        byte[] chunk = new byte[this.chunkSize];
+        length = IOUtils.readFully(this.in, chunk);
+        if (length > 0) {
+          this.chunks.put(length < chunk.length
+              ? Arrays.copyOf(chunk, length) : chunk);
+        }
+      } while (length == this.chunkSize && !this.isClosed);
+      this.chunks.put(END);
+    } catch (IOException e) {
+      if (!this.isClosed) {
+        this.exception = e;
+        try {
+          this.chunks.put(END);
+        } catch (InterruptedException ie) {
+          /* Closed while waiting for room in the buffer. */
+        }
+      }
+    } catch (InterruptedException e) {
+      /* Closed while waiting for room in the buffer. */
+    } finally {
+      try {
+        this.in.close();
+      } catch (IOException e) {
+        /* Nothing left to read anyway. */
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!this.fillChunk()) {
+      return -1;
+    }
+    return this.chunk[this.position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (0 == length) {
+      return 0;
+    }
+    if (!this.fillChunk()) {
+      return -1;
+    }
+    int read = Math.min(length, this.chunk.length - this.position);
+    System.arraycopy(this.chunk, this.position, bytes, offset, read);
+    this.position += read;
+    return read;
+  }
+
+  @Override
+  public int available() {
+    return this.chunk.length - this.position;
+  }
+
+  /* Make sure that there are bytes left to provide, waiting for the
+   * read-ahead thread if necessary, and return whether there are any. */
+  private boolean fillChunk() throws IOException {
+    if (this.isClosed) {
+      throw new IOException("Stream is closed.");
+    }
+    while (this.position >= this.chunk.length) {
+      if (this.hasEnded) {
+        return false;
+      }
+      byte[] nextChunk;
+      try {
+        nextChunk = this.chunks.take();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while waiting for "
+            + "read-ahead thread.");
+      }
+      if (END == nextChunk) {
+        this.hasEnded = true;
+        if (null != this.exception) {
+          throw new IOException("Unable to read ahead.", this.exception);
+        }
+        return false;
+      }
+      this.chunk = nextChunk;
+      this.position = 0;
+    }
+    return true;
+  }
+
+  @Override
+  public void close() {
+    if (this.isClosed) {
+      return;
+    }
+    this.isClosed = true;
+    this.readAheadThread.interrupt();
+    this.chunks.clear();
+    this.chunk = new byte[0];
+    this.position = 0;
+  }
+}
@@ -5,6 +5,7 @@ import org.torproject.descriptor.*;
 
 import java.io.File;
 import java.util.*;
+import java.util.stream.*;
 
 public class ConsensusWeightByVersion {
   public static void main(String[] args) {
@@ -13,35 +14,20 @@ public class ConsensusWeightByVersion {
     DescriptorCollector descriptorCollector = DescriptorSourceFactory.createDescriptorCollector();
     descriptorCollector.collectDescriptors("https://collector.torproject.org", new String[] { "/recent/relay-descriptors/consensuses/" }, 0L, new File("descriptors"), false);
 
-    // Keep local counters for extracted descriptor data.
-    long totalBandwidth = 0L;
+    // Read descriptors from disk, and parse and process them in parallel.
     SortedMap<String, Long> bandwidthByVersion = new TreeMap<>();
-
-    // Read descriptors from disk.
     DescriptorReader descriptorReader = DescriptorSourceFactory.createDescriptorReader();
-    for (Descriptor descriptor : descriptorReader.readDescriptors(new File("descriptors/recent/relay-descriptors/consensuses"))) {
-      if (!(descriptor instanceof RelayNetworkStatusConsensus)) {
-        // We're only interested in consensuses.
-        continue;
-      }
-      RelayNetworkStatusConsensus consensus = (RelayNetworkStatusConsensus) descriptor;
-      for (NetworkStatusEntry entry : consensus.getStatusEntries().values()) {
-        String version = entry.getVersion();
-        if (!version.startsWith("Tor ") || version.length() < 9) {
+    try (Stream<Descriptor> descriptors = descriptorReader.readDescriptorsAsStream(new File("descriptors/recent/relay-descriptors/consensuses"))) {
+      bandwidthByVersion.putAll(descriptors.parallel()
+          // We're only interested in consensuses.
+          .filter(descriptor -> descriptor instanceof RelayNetworkStatusConsensus)
+          .flatMap(descriptor -> ((RelayNetworkStatusConsensus) descriptor).getStatusEntries().values().stream())
           // We're only interested in a.b.c type versions for this example.
-          continue;
-        }
-        // Remove the 'Tor ' prefix and anything starting at the patch level.
-        version = version.substring(4, 9);
-        long bandwidth = entry.getBandwidth();
-        totalBandwidth += bandwidth;
-        if (bandwidthByVersion.containsKey(version)) {
-          bandwidthByVersion.put(version, bandwidth + bandwidthByVersion.get(version));
-        } else {
-          bandwidthByVersion.put(version, bandwidth);
-        }
-      }
+          .filter(entry -> entry.getVersion().startsWith("Tor ") && entry.getVersion().length() >= 9)
+          // Remove the 'Tor ' prefix and anything starting at the patch level.
+          .collect(Collectors.groupingByConcurrent(entry -> entry.getVersion().substring(4, 9), Collectors.summingLong(NetworkStatusEntry::getBandwidth))));
     }
+    long totalBandwidth = bandwidthByVersion.values().stream().mapToLong(Long::longValue).sum();
 
     // Print out fractions of consensus weight by Tor version.
     if (totalBandwidth > 0L) {
@@ -0,0 +1,251 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BlockingIteratorImplTest {
+
+  @Test
+  public void testEmpty() {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(10);
+    queue.setOutOfDescriptors();
+    assertFalse(queue.hasNext());
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testNextAfterEnd() {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(10);
+    queue.add(1);
+    queue.setOutOfDescriptors();
+    assertEquals(Integer.valueOf(1), queue.next());
+    queue.next();
+  }
+
+  @Test
+  public void testHasNextDoesNotConsume() {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(10);
+    queue.add(1);
+    queue.add(2);
+    queue.setOutOfDescriptors();
+    assertTrue(queue.hasNext());
+    assertTrue(queue.hasNext());
+    assertEquals(Integer.valueOf(1), queue.next());
+    assertEquals(Integer.valueOf(2), queue.next());
+    assertFalse(queue.hasNext());
+  }
+
+  @Test
+  public void testSize() {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(10);
+    assertEquals(0, queue.size());
+    queue.add(1);
+    queue.add(2);
+    assertEquals(2, queue.size());
+    assertTrue(queue.hasNext());
+    assertEquals(1, queue.size());
+  }
+
+  @Test(timeout = 60000)
+  public void testConsumerWaitNanos() throws InterruptedException {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(10);
+    Thread producer = new Thread(() -> {
+      try {
+        Thread.sleep(50L);
+      } catch (InterruptedException e) {
+        /* Add anyway. */
+      }
+      queue.add(1);
+      queue.setOutOfDescriptors();
+    });
+    producer.start();
+    assertTrue(queue.hasNext());
+    producer.join();
+    assertTrue(queue.getConsumerWaitNanos() > 0L);
+    assertEquals(0L, queue.getProducerWaitNanos());
+  }
+
+  @Test(timeout = 60000)
+  public void testCloseUnblocksProducer() throws InterruptedException {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(1);
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < 100; i++) {
+        queue.add(i);
+      }
+      queue.setOutOfDescriptors();
+    });
+    producer.start();
+    assertEquals(Integer.valueOf(0), queue.next());
+    queue.close();
+    producer.join();
+    assertFalse(queue.hasNext());
+    assertEquals(0, queue.size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAddAfterEnd() {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(10);
+    queue.setOutOfDescriptors();
+    queue.add(1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEndTwice() {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(10);
+    queue.setOutOfDescriptors();
+    queue.setOutOfDescriptors();
+  }
+
+  @Test(timeout = 60000)
+  public void testProducerConsumerOrder() {
+    final int elements = 100000;
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(3);
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < elements; i++) {
+        queue.add(i);
+      }
+      queue.setOutOfDescriptors();
+    });
+    producer.start();
+    int expected = 0;
+    for (Integer element : queue) {
+      assertEquals(expected++, (int) element);
+    }
+    assertEquals(elements, expected);
+  }
+
+  @Test(timeout = 60000)
+  public void testMaxQueueSizeOne() {
+    final int elements = 10000;
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(1);
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < elements; i++) {
+        queue.add(i);
+      }
+      queue.setOutOfDescriptors();
+    });
+    producer.start();
+    int expected = 0;
+    for (Integer element : queue) {
+      assertEquals(expected++, (int) element);
+    }
+    assertEquals(elements, expected);
+  }
+
+  @Test(timeout = 60000)
+  public void testHugeMaxQueueSize() {
+    final int elements = 200000;
+    BlockingIteratorImpl<Integer> queue =
+        new BlockingIteratorImpl<>(Integer.MAX_VALUE);
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < elements; i++) {
+        queue.add(i);
+      }
+      queue.setOutOfDescriptors();
+    });
+    producer.start();
+    int expected = 0;
+    for (Integer element : queue) {
+      assertEquals(expected++, (int) element);
+    }
+    assertEquals(elements, expected);
+  }
+
+  @Test
+  public void testHugeMaxQueueSizeAndWeight() {
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(
+        Integer.MAX_VALUE, Long.MAX_VALUE, (element) -> element);
+    queue.add(1);
+    queue.add(2);
+    queue.setOutOfDescriptors();
+    assertEquals(2, queue.size());
+    assertEquals(3L, queue.weight());
+    assertEquals(Integer.valueOf(1), queue.next());
+    assertEquals(Integer.valueOf(2), queue.next());
+    assertFalse(queue.hasNext());
+  }
+
+  @Test
+  public void testWeightBudget() {
+    BlockingIteratorImpl<Integer> queue =
+        new BlockingIteratorImpl<>(10, 10L, (element) -> element);
+    Thread producer = new Thread(() -> {
+      queue.add(4);
+      queue.add(5);
+      queue.add(2);
+    });
+    producer.start();
+    while (queue.weight() < 9L) {
+      Thread.yield();
+    }
+    assertEquals(2, queue.size());
+    assertEquals(Integer.valueOf(4), queue.next());
+    assertEquals(Integer.valueOf(5), queue.next());
+    assertEquals(Integer.valueOf(2), queue.next());
+    assertEquals(0L, queue.weight());
+  }
+
+  @Test
+  public void testWeightExceedingBudget() {
+    BlockingIteratorImpl<Integer> queue =
+        new BlockingIteratorImpl<>(10, 10L, (element) -> element);
+    queue.add(20);
+    queue.setOutOfDescriptors();
+    assertEquals(20L, queue.weight());
+    assertEquals(Integer.valueOf(20), queue.next());
+    assertFalse(queue.hasNext());
+  }
+
+  @Test(timeout = 60000)
+  public void testSeveralProducersAndConsumers()
+      throws InterruptedException {
+    final int producers = 4;
+    final int consumers = 4;
+    final int elements = 20000;
+    BlockingIteratorImpl<Integer> queue = new BlockingIteratorImpl<>(1);
+    List<Thread> producerThreads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      Thread producer = new Thread(() -> {
+        for (int i = 0; i < elements; i++) {
+          queue.add(1);
+        }
+      });
+      producer.start();
+      producerThreads.add(producer);
+    }
+    AtomicLong sum = new AtomicLong();
+    List<Thread> consumerThreads = new ArrayList<>();
+    for (int c = 0; c < consumers; c++) {
+      Thread consumer = new Thread(() -> {
+        try {
+          while (true) {
+            sum.addAndGet(queue.next());
+          }
+        } catch (NoSuchElementException e) {
+          /* No more elements. */
+        }
+      });
+      consumer.start();
+      consumerThreads.add(consumer);
+    }
+    for (Thread producer : producerThreads) {
+      producer.join();
+    }
+    queue.setOutOfDescriptors();
+    for (Thread consumer : consumerThreads) {
+      consumer.join();
+    }
+    assertEquals("Every element should have been consumed exactly once.",
+        (long) producers * elements, sum.get());
+  }
+}
@@ -4,12 +4,15 @@
 package org.torproject.descriptor.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.torproject.descriptor.Descriptor;
 import org.torproject.descriptor.DescriptorParseException;
 import org.torproject.descriptor.DescriptorReader;
 import org.torproject.descriptor.DescriptorSourceFactory;
+import org.torproject.descriptor.Microdescriptor;
+import org.torproject.descriptor.UnparseableDescriptor;
 import org.torproject.descriptor.WebServerAccessLog;
 
 import org.junit.Rule;
@@ -18,6 +21,8 @@ import org.junit.rules.ExpectedException;
 
 import java.io.File;
 import java.lang.reflect.Constructor;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class DescriptorParserImplTest {
 
@@ -51,6 +56,83 @@ public class DescriptorParserImplTest {
     assertEquals(1, parsedDescriptors);
   }
 
+  @Test
+  public void testFileNameTimestamp() {
+    assertEquals(1588334400000L, DescriptorParserImpl.fileNameTimestamp(
+        "2020-05-01-12-00-00-consensus"));
+    assertEquals(1588334400000L, DescriptorParserImpl.fileNameTimestamp(
+        "2020-05-01-12-00-00-consensus-microdesc"));
+    assertEquals(1588334400000L, DescriptorParserImpl.fileNameTimestamp(
+        "2020-05-01-12-00-00-vote-0232AF901C31A04EE9848595AF9BB7620D4C5B2E-"
+        + "6C5D2C2B6D0E1A2F9D4C8E7A3B1F0E9D8C7B6A59"));
+    assertEquals(1588334520000L, DescriptorParserImpl.fileNameTimestamp(
+        "2020-05-01-12-02-00"));
+    assertEquals(1588334445000L, DescriptorParserImpl.fileNameTimestamp(
+        "20200501-120045-1D8F3A91C37C5D1C4C19B1AD1D0CFBE8BF72D8E1"));
+    assertEquals(-1L, DescriptorParserImpl.fileNameTimestamp(
+        "2020-05-01-12-05-00-server-descriptors"));
+    assertEquals(-1L, DescriptorParserImpl.fileNameTimestamp(
+        "fafaa9366f010db805de13a4b7348aba2acb6f17"));
+    assertEquals(-1L, DescriptorParserImpl.fileNameTimestamp(
+        "2020-13-01-12-00-00-consensus"));
+  }
+
+  @Test
+  public void testValidAfterTimestamp() {
+    String header = "@type network-status-consensus-3 1.0\n"
+        + "network-status-version 3\n"
+        + "vote-status consensus\n"
+        + "consensus-method 28\n"
+        + "valid-after 2020-05-01 12:00:00\n"
+        + "fresh-until 2020-05-01 13:00:00\n";
+    assertEquals(1588334400000L,
+        DescriptorParserImpl.validAfterTimestamp(header.getBytes()));
+    assertEquals(-1L, DescriptorParserImpl.validAfterTimestamp(
+        header.substring(0, header.indexOf("12:00")).getBytes()));
+    assertEquals(-1L,
+        DescriptorParserImpl.validAfterTimestamp(MICRO.getBytes()));
+  }
+
+  @Test
+  public void testTimeWindow() {
+    DescriptorParserImpl dpi = new DescriptorParserImpl();
+    dpi.setTimeWindow(1588334400000L, 1588338000000L);
+    assertTrue(dpi.isInTimeWindow(MICRO.getBytes(),
+        "2020-05-01-12-00-00-consensus"));
+    assertFalse(dpi.isInTimeWindow(MICRO.getBytes(),
+        "2020-05-01-13-00-00-consensus"));
+    assertTrue(dpi.isInTimeWindow(MICRO.getBytes(), "dummy.file"));
+    assertFalse(dpi.parseDescriptorsIncrementally(MICRO.getBytes(), null,
+        "2020-05-01-11-00-00-consensus").hasNext());
+  }
+
+  @Test
+  public void testParseDescriptorsIncrementally() {
+    byte[] rawDescriptorBytes = (MICRO + MICRO).getBytes();
+    DescriptorParserImpl dpi = new DescriptorParserImpl();
+    Iterator<Descriptor> descriptors = dpi.parseDescriptorsIncrementally(
+        rawDescriptorBytes, null, "dummy.file");
+    assertTrue(descriptors.hasNext());
+    assertTrue(descriptors.next() instanceof Microdescriptor);
+    assertTrue(descriptors.hasNext());
+    Descriptor second = descriptors.next();
+    assertTrue(second instanceof Microdescriptor);
+    assertEquals(MICRO.length(), second.getRawDescriptorLength()
+        + "@type microdescriptor 1.0\n".length());
+    assertFalse(descriptors.hasNext());
+    this.thrown.expect(NoSuchElementException.class);
+    descriptors.next();
+  }
+
+  @Test
+  public void testParseDescriptorsIncrementallyUnknownType() {
+    DescriptorParserImpl dpi = new DescriptorParserImpl();
+    Iterator<Descriptor> descriptors = dpi.parseDescriptorsIncrementally(
+        "unknown descriptor\n".getBytes(), null, "dummy.file");
+    assertTrue(descriptors.next() instanceof UnparseableDescriptor);
+    assertFalse(descriptors.hasNext());
+  }
+
   @Test
   public void testParseDescriptorTar() throws Exception {
     DescriptorReader dr = DescriptorSourceFactory.createDescriptorReader();
@@ -3,23 +3,57 @@
 
 package org.torproject.descriptor.impl;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.torproject.descriptor.Descriptor;
+import org.torproject.descriptor.DescriptorPublisher;
 import org.torproject.descriptor.DescriptorReader;
+import org.torproject.descriptor.DescriptorSubscriber;
+import org.torproject.descriptor.DescriptorSubscription;
+import org.torproject.descriptor.ReaderStatistics;
+import org.torproject.descriptor.RelayNetworkStatusConsensus;
+import org.torproject.descriptor.ServerDescriptor;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
 
 /** Tests the descriptor reader by preparing a temporary folder with two input
  * descriptor files and a parse history file, running the reader with different
@@ -147,5 +181,1067 @@ public class DescriptorReaderImplTest {
     this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 2);
   }
 
-}
+  @Test
+  public void testSetHistoryFileCompactFormat() throws IOException {
+    File compactHistoryFile = new File(this.temporaryFolder.getRoot(),
+        "compactHistory");
+    this.descriptorReader.setHistoryFile(this.historyFile, true);
+    assertEquals(1, this.readAllDescriptors(this.inputDirectory));
+    this.descriptorReader.saveHistoryFile(compactHistoryFile);
+    assertEquals("History file should contain header and two records.",
+        12L + 2L * 16L, compactHistoryFile.length());
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setHistoryFile(compactHistoryFile, true);
+    assertEquals("Both files should have been excluded.", 0,
+        this.readAllDescriptors(this.inputDirectory));
+    assertEquals(2, this.descriptorReader.getExcludedFiles().size());
+    assertEquals(0, this.descriptorReader.getParsedFiles().size());
+  }
+
+  @Test
+  public void testSetHistoryFileCompactFormatAppendAndCompact()
+      throws IOException {
+    File compactHistoryFile = new File(this.temporaryFolder.getRoot(),
+        "compactHistory");
+    this.descriptorReader.setHistoryFile(this.historyFile, true);
+    this.readAllDescriptors(this.inputDirectory);
+    this.descriptorReader.saveHistoryFile(compactHistoryFile);
+    File fafaFile = new File(this.inputDirectory, "fafa");
+    long[] expectedLengths = new long[] { 12L + 3L * 16L, 12L + 4L * 16L,
+        12L + 2L * 16L };
+    for (long expectedLength : expectedLengths) {
+      assertTrue(fafaFile.setLastModified(fafaFile.lastModified() + 1000L));
+      this.descriptorReader = new DescriptorReaderImpl();
+      this.descriptorReader.setHistoryFile(compactHistoryFile, true);
+      assertEquals("Only the modified file should have been parsed.", 1,
+          this.readAllDescriptors(this.inputDirectory));
+      this.descriptorReader.saveHistoryFile(compactHistoryFile);
+      assertEquals(expectedLength, compactHistoryFile.length());
+    }
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setHistoryFile(compactHistoryFile);
+    assertEquals("Both files should have been excluded.", 0,
+        this.readAllDescriptors(this.inputDirectory));
+  }
+
+  @Test
+  public void testSetHistoryFileResetsCompactFormat() throws IOException {
+    this.descriptorReader.setHistoryFile(this.historyFile, true);
+    this.descriptorReader.setHistoryFile(this.historyFile);
+    this.readAllDescriptors(this.inputDirectory);
+    this.descriptorReader.saveHistoryFile(this.historyFile);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(1, 1, 2);
+  }
+
+  @Test
+  public void testParallelismPreserveOrder() throws IOException {
+    this.descriptorReader.setParallelism(4);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("Two files should have been parsed.", 2, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test
+  public void testTraversalParallelism() throws IOException {
+    byte[] bytes = Files.readAllBytes(
+        new File(this.inputDirectory, "fafa").toPath());
+    for (int i = 0; i < 5; i++) {
+      File subdirectory = new File(this.inputDirectory, "sub" + i + "/sub");
+      assertTrue(subdirectory.mkdirs());
+      for (int j = 0; j < 4; j++) {
+        Files.write(new File(subdirectory, "fafa" + j).toPath(), bytes);
+      }
+    }
+    this.writeTarball(Files.newOutputStream(
+        new File(this.inputDirectory, "sub0/descriptors.tar").toPath()), 1);
+    this.descriptorReader.setTraversalParallelism(4);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("All files in all subdirectories should have been parsed.",
+        24, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 23, 1);
+  }
+
+  @Test
+  public void testTraversalParallelismHistoryFile() throws IOException {
+    this.descriptorReader.setHistoryFile(this.historyFile);
+    this.descriptorReader.setTraversalParallelism(4);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("One file should have been parsed.", 1, count);
+    this.descriptorReader.saveHistoryFile(this.historyFile);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(1, 1, 2);
+  }
+
+  @Test
+  public void testTraversalParallelismStream() throws IOException {
+    this.descriptorReader.setTraversalParallelism(4);
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(this.inputDirectory,
+        new File(this.inputDirectory, "missing"))) {
+      assertEquals(2L, descriptors.parallel().count());
+    }
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTraversalParallelismZero() {
+    this.descriptorReader.setTraversalParallelism(0);
+  }
+
+  @Test
+  public void testStatistics() throws IOException {
+    ReaderStatistics statistics = this.descriptorReader.getStatistics();
+    assertEquals(0L, statistics.getBytesRead());
+    this.descriptorReader.setParallelism(2);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    long bytes = new File(this.inputDirectory, "fafa").length()
+        + new File(this.inputDirectory, "ffe0").length();
+    assertEquals(bytes, statistics.getBytesRead());
+    assertEquals(bytes, statistics.getBytesDecompressed());
+    assertEquals(Collections.singletonMap("RelayServerDescriptor",
+        (long) count), statistics.getDescriptorsParsed());
+    assertTrue(statistics.getParseNanos().get("RelayServerDescriptor")
+        > 0L);
+    assertEquals(0L, statistics.getUnparseableDescriptors());
+    assertEquals(0, statistics.getQueueSize());
+  }
+
+  @Test
+  public void testStatisticsTarballStream() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 5);
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(tarball)) {
+      assertEquals(10L, descriptors.parallel().count());
+    }
+    ReaderStatistics statistics = this.descriptorReader.getStatistics();
+    assertEquals(tarball.length(), statistics.getBytesRead());
+    assertEquals(5L * (new File(this.inputDirectory, "fafa").length()
+        + new File(this.inputDirectory, "ffe0").length()),
+        statistics.getBytesDecompressed());
+    assertEquals(Long.valueOf(10L),
+        statistics.getDescriptorsParsed().get("RelayServerDescriptor"));
+  }
+
+  @Test
+  public void testStatisticsCacheDirectory() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 2);
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals(4, this.readAllDescriptors(tarball));
+    ReaderStatistics statistics = this.descriptorReader.getStatistics();
+    assertEquals(tarball.length(), statistics.getBytesRead());
+    assertEquals(0L, statistics.getCacheBytesRead());
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals(4, this.readAllDescriptors(tarball));
+    statistics = this.descriptorReader.getStatistics();
+    assertEquals("Cache hits should not count as tarball bytes read.", 0L,
+        statistics.getBytesRead());
+    assertEquals(cacheDirectory.listFiles()[0].length(),
+        statistics.getCacheBytesRead());
+  }
+
+  @Test
+  public void testStatisticsMBean() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(
+        "org.torproject.descriptor:type=ReaderStatistics,name=test");
+    server.registerMBean(this.descriptorReader.getStatistics(), name);
+    try {
+      this.readAllDescriptors(this.inputDirectory);
+      assertEquals(this.descriptorReader.getStatistics().getBytesRead(),
+          server.getAttribute(name, "BytesRead"));
+      assertEquals(1, ((TabularData) server.getAttribute(name,
+          "DescriptorsParsed")).size());
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testMaxBytesInQueue() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar");
+    this.writeTarball(Files.newOutputStream(tarball.toPath()), 50);
+    this.descriptorReader.setMaxBytesInQueue(1L);
+    long maxDescriptorBytes = Math.max(
+        new File(this.inputDirectory, "fafa").length(),
+        new File(this.inputDirectory, "ffe0").length()) + 512L;
+    ReaderStatistics statistics = this.descriptorReader.getStatistics();
+    int count = 0;
+    for (Descriptor descriptor
+        : this.descriptorReader.readDescriptors(tarball)) {
+      assertTrue(statistics.getQueueSize() <= 1);
+      assertTrue(statistics.getQueueBytes() <= maxDescriptorBytes);
+      count++;
+    }
+    assertEquals(100, count);
+    assertEquals(0L, statistics.getQueueBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxBytesInQueueZero() {
+    this.descriptorReader.setMaxBytesInQueue(0L);
+  }
+
+  @Test
+  public void testReadDescriptorBatches() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar");
+    this.writeTarball(Files.newOutputStream(tarball.toPath()), 50);
+    this.descriptorReader.setParallelism(2);
+    List<Integer> batchSizes = new ArrayList<>();
+    for (List<Descriptor> batch
+        : this.descriptorReader.readDescriptorBatches(30, tarball)) {
+      batchSizes.add(batch.size());
+    }
+    assertEquals(Arrays.asList(30, 30, 30, 10), batchSizes);
+    assertEquals(1, this.descriptorReader.getParsedFiles().size());
+  }
+
+  @Test
+  public void testReadDescriptorBatchesEmpty() throws IOException {
+    assertFalse(this.descriptorReader.readDescriptorBatches(10,
+        this.temporaryFolder.newFolder("empty")).iterator().hasNext());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadDescriptorBatchesZero() {
+    this.descriptorReader.readDescriptorBatches(0, this.inputDirectory);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReadDescriptorBatchesTwice() {
+    this.descriptorReader.readDescriptors(this.inputDirectory);
+    this.descriptorReader.readDescriptorBatches(10, this.inputDirectory);
+  }
+
+  @Test(timeout = 60000)
+  public void testCloseEarly() throws Exception {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar");
+    this.writeTarball(Files.newOutputStream(tarball.toPath()), 1000);
+    this.descriptorReader.setMaxDescriptorsInQueue(1);
+    Iterator<Descriptor> descriptors = this.descriptorReader
+        .readDescriptors(tarball).iterator();
+    assertTrue(descriptors.hasNext());
+    descriptors.next();
+    this.descriptorReader.close();
+    assertFalse("No descriptors should be provided after closing.",
+        descriptors.hasNext());
+    ReaderStatistics statistics = this.descriptorReader.getStatistics();
+    long bytesDecompressed;
+    do {
+      bytesDecompressed = statistics.getBytesDecompressed();
+      Thread.sleep(100L);
+    } while (bytesDecompressed != statistics.getBytesDecompressed());
+    assertTrue("Reading should have stopped early.",
+        bytesDecompressed < 100L * (new File(this.inputDirectory, "fafa")
+        .length() + new File(this.inputDirectory, "ffe0").length()));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCloseEarlyGetParsedFiles() {
+    Iterator<Descriptor> descriptors = this.descriptorReader
+        .readDescriptors(this.inputDirectory).iterator();
+    this.descriptorReader.close();
+    while (descriptors.hasNext()) {
+      descriptors.next();
+    }
+    this.descriptorReader.getParsedFiles();
+  }
+
+  @Test
+  public void testCloseEarlyStream() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar");
+    this.writeTarball(Files.newOutputStream(tarball.toPath()), 10);
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(tarball)) {
+      Iterator<Descriptor> iterator = descriptors.iterator();
+      assertTrue(iterator.hasNext());
+      iterator.next();
+      this.descriptorReader.close();
+      int count = 0;
+      while (iterator.hasNext()) {
+        iterator.next();
+        count++;
+      }
+      assertTrue("Stream should have ended early.", count < 19);
+    }
+  }
+
+  @Test
+  public void testCloseAfterReading() throws IOException {
+    int count = 0;
+    try (DescriptorReader descriptorReader = this.descriptorReader) {
+      for (Descriptor descriptor
+          : descriptorReader.readDescriptors(this.inputDirectory)) {
+        count++;
+      }
+    }
+    assertEquals(2, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test(timeout = 60000)
+  public void testHugeMaxDescriptorsInQueue() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar");
+    this.writeTarball(Files.newOutputStream(tarball.toPath()), 50);
+    this.descriptorReader.setMaxDescriptorsInQueue(Integer.MAX_VALUE);
+    int count = 0;
+    for (Descriptor descriptor
+        : this.descriptorReader.readDescriptors(tarball)) {
+      count++;
+    }
+    assertEquals(100, count);
+  }
+
+  @Test
+  public void testParallelismRelaxOrder() throws IOException {
+    this.descriptorReader.setParallelism(4);
+    this.descriptorReader.setPreserveOrder(false);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("Two files should have been parsed.", 2, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParallelismZero() {
+    this.descriptorReader.setParallelism(0);
+  }
+
+  @Test
+  public void testMemoryMapping() throws IOException {
+    this.descriptorReader.setMemoryMapping(true);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("Two files should have been parsed.", 2, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test
+  public void testMemoryMappingSplitDescriptors() throws IOException {
+    File cachedDescriptorsFile = this.temporaryFolder.newFile(
+        "cached-descriptors");
+    byte[] fafaBytes = Files.readAllBytes(
+        new File(this.inputDirectory, "fafa").toPath());
+    byte[] ffe0Bytes = Files.readAllBytes(
+        new File(this.inputDirectory, "ffe0").toPath());
+    Files.write(cachedDescriptorsFile.toPath(), fafaBytes);
+    Files.write(cachedDescriptorsFile.toPath(), ffe0Bytes,
+        StandardOpenOption.APPEND);
+    String annotation = "@type server-descriptor 1.0";
+    this.descriptorReader.setMemoryMapping(true);
+    this.descriptorReader.setParallelism(2);
+    Iterator<Descriptor> descriptors = this.descriptorReader
+        .readDescriptors(cachedDescriptorsFile).iterator();
+    Descriptor first = descriptors.next();
+    assertTrue(first instanceof ServerDescriptor);
+    assertEquals("kouettng", ((ServerDescriptor) first).getNickname());
+    assertEquals(Arrays.asList(annotation), first.getAnnotations());
+    assertArrayEquals(Arrays.copyOfRange(fafaBytes, annotation.length() + 1,
+        fafaBytes.length), first.getRawDescriptorBytes());
+    Descriptor second = descriptors.next();
+    assertTrue(second instanceof ServerDescriptor);
+    assertEquals("furrygame", ((ServerDescriptor) second).getNickname());
+    assertEquals(Arrays.asList(annotation), second.getAnnotations());
+    assertArrayEquals(Arrays.copyOfRange(ffe0Bytes, annotation.length() + 1,
+        ffe0Bytes.length), second.getRawDescriptorBytes());
+    assertFalse(descriptors.hasNext());
+  }
+
+  /** Subscriber that records received descriptors and signals. */
+  private static class RecordingSubscriber implements DescriptorSubscriber {
+
+    private DescriptorSubscription subscription;
+
+    private List<Descriptor> descriptors = new ArrayList<>();
+
+    private Throwable error;
+
+    private boolean isComplete = false;
+
+    /** Number of descriptors to request after receiving each descriptor. */
+    private long requestOnNext = 0L;
+
+    @Override
+    public void onSubscribe(DescriptorSubscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(Descriptor descriptor) {
+      this.descriptors.add(descriptor);
+      if (this.requestOnNext > 0L) {
+        this.subscription.request(this.requestOnNext);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      this.error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      this.isComplete = true;
+    }
+  }
+
+  @Test
+  public void testPublishDescriptors() throws IOException {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    this.descriptorReader.publishDescriptors(Runnable::run,
+        this.inputDirectory).subscribe(subscriber);
+    assertTrue(subscriber.descriptors.isEmpty());
+    subscriber.subscription.request(1L);
+    assertEquals(1, subscriber.descriptors.size());
+    assertFalse(subscriber.isComplete);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertEquals(2, subscriber.descriptors.size());
+    assertTrue(subscriber.isComplete);
+    assertNull(subscriber.error);
+    this.descriptorReader.saveHistoryFile(this.historyFile);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 2);
+  }
+
+  @Test
+  public void testPublishDescriptorsRequestOnNext() throws IOException {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    subscriber.requestOnNext = 1L;
+    this.descriptorReader.setParallelism(2);
+    this.descriptorReader.publishDescriptors(Runnable::run,
+        this.inputDirectory).subscribe(subscriber);
+    subscriber.subscription.request(1L);
+    assertEquals(2, subscriber.descriptors.size());
+    assertTrue(subscriber.isComplete);
+  }
+
+  @Test
+  public void testPublishDescriptorsExecutor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch completed = new CountDownLatch(1);
+      List<Descriptor> descriptors =
+          Collections.synchronizedList(new ArrayList<>());
+      this.descriptorReader.publishDescriptors(executor,
+          this.inputDirectory).subscribe(new DescriptorSubscriber() {
+
+            @Override
+            public void onSubscribe(DescriptorSubscription subscription) {
+              subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Descriptor descriptor) {
+              descriptors.add(descriptor);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+              completed.countDown();
+            }
+          });
+      assertTrue(completed.await(10L, TimeUnit.SECONDS));
+      assertEquals(2, descriptors.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
 
+  @Test
+  public void testPublishDescriptorsCancel() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    this.descriptorReader.publishDescriptors(Runnable::run,
+        this.inputDirectory).subscribe(subscriber);
+    subscriber.subscription.request(1L);
+    subscriber.subscription.cancel();
+    subscriber.subscription.request(1L);
+    assertEquals(1, subscriber.descriptors.size());
+    assertFalse(subscriber.isComplete);
+    assertNull(subscriber.error);
+  }
+
+  @Test
+  public void testPublishDescriptorsRequestZero() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    this.descriptorReader.publishDescriptors(Runnable::run,
+        this.inputDirectory).subscribe(subscriber);
+    subscriber.subscription.request(0L);
+    assertTrue(subscriber.descriptors.isEmpty());
+    assertTrue(subscriber.error instanceof IllegalArgumentException);
+  }
+
+  @Test
+  public void testPublishDescriptorsSecondSubscriber() {
+    DescriptorPublisher publisher = this.descriptorReader
+        .publishDescriptors(Runnable::run, this.inputDirectory);
+    RecordingSubscriber first = new RecordingSubscriber();
+    RecordingSubscriber second = new RecordingSubscriber();
+    publisher.subscribe(first);
+    publisher.subscribe(second);
+    assertNull(first.error);
+    assertTrue(second.error instanceof IllegalStateException);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPublishDescriptorsAfterReading() {
+    this.readAllDescriptors(this.inputDirectory);
+    this.descriptorReader.publishDescriptors(Runnable::run,
+        this.inputDirectory);
+  }
+
+  @Test
+  public void testReadDescriptorsAsStream() throws IOException {
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(this.inputDirectory)) {
+      assertEquals(2L, descriptors.count());
+    }
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test
+  public void testReadDescriptorsAsStreamHistoryFile() throws IOException {
+    this.descriptorReader.setHistoryFile(this.historyFile);
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(this.inputDirectory)) {
+      assertEquals(1L, descriptors.parallel().count());
+    }
+    this.descriptorReader.saveHistoryFile(this.historyFile);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(1, 1, 2);
+  }
+
+  @Test
+  public void testReadDescriptorsAsStreamParallel() throws IOException {
+    byte[] fafaBytes = Files.readAllBytes(
+        new File(this.inputDirectory, "fafa").toPath());
+    byte[] ffe0Bytes = Files.readAllBytes(
+        new File(this.inputDirectory, "ffe0").toPath());
+    for (int tarballs = 0; tarballs < 3; tarballs++) {
+      File tarball = new File(this.inputDirectory, tarballs + ".tar");
+      try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+          Files.newOutputStream(tarball.toPath()))) {
+        for (int entries = 0; entries < 50; entries++) {
+          byte[] bytes = entries % 2 == 0 ? fafaBytes : ffe0Bytes;
+          TarArchiveEntry entry = new TarArchiveEntry("entry" + entries);
+          entry.setSize(bytes.length);
+          tar.putArchiveEntry(entry);
+          tar.write(bytes);
+          tar.closeArchiveEntry();
+        }
+      }
+    }
+    List<String> expectedNicknames = new ArrayList<>();
+    for (Descriptor descriptor : new DescriptorReaderImpl()
+        .readDescriptors(this.inputDirectory)) {
+      expectedNicknames.add(((ServerDescriptor) descriptor).getNickname());
+    }
+    assertEquals(152, expectedNicknames.size());
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(this.inputDirectory)) {
+      assertEquals(expectedNicknames, descriptors.parallel()
+          .map(descriptor -> ((ServerDescriptor) descriptor).getNickname())
+          .collect(Collectors.toList()));
+    }
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 5, 1);
+  }
+
+  @Test
+  public void testReadDescriptorsAsStreamMemoryMapping() throws IOException {
+    File cachedDescriptorsFile = this.temporaryFolder.newFile(
+        "cached-descriptors");
+    Files.write(cachedDescriptorsFile.toPath(), Files.readAllBytes(
+        new File(this.inputDirectory, "fafa").toPath()));
+    Files.write(cachedDescriptorsFile.toPath(), Files.readAllBytes(
+        new File(this.inputDirectory, "ffe0").toPath()),
+        StandardOpenOption.APPEND);
+    this.descriptorReader.setMemoryMapping(true);
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(cachedDescriptorsFile)) {
+      assertEquals(Arrays.asList("kouettng", "furrygame"),
+          descriptors.parallel()
+          .map(descriptor -> ((ServerDescriptor) descriptor).getNickname())
+          .collect(Collectors.toList()));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReadDescriptorsAsStreamFindFirst() {
+    try (Stream<Descriptor> descriptors = this.descriptorReader
+        .readDescriptorsAsStream(this.inputDirectory)) {
+      assertTrue(descriptors.findFirst().isPresent());
+    }
+    this.descriptorReader.getParsedFiles();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReadDescriptorsAsStreamAfterReading() {
+    this.readAllDescriptors(this.inputDirectory);
+    this.descriptorReader.readDescriptorsAsStream(this.inputDirectory);
+  }
+
+  @Test
+  public void testDescriptorTypes() throws IOException {
+    this.descriptorReader.setDescriptorTypes(ServerDescriptor.class);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("Two files should have been parsed.", 2, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test
+  public void testDescriptorTypesSkipFiles() throws IOException {
+    this.descriptorReader.setDescriptorTypes(
+        RelayNetworkStatusConsensus.class);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("No descriptors should have been provided.", 0, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test
+  public void testDescriptorTypesSkipTarballEntries() throws IOException {
+    File tarball = new File(this.inputDirectory, "mixed.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+        Files.newOutputStream(tarball.toPath()))) {
+      for (String fileName : new String[] { "unknown", "fafa", "ffe0" }) {
+        byte[] bytes = "unknown".equals(fileName)
+            ? "not a descriptor\n".getBytes(StandardCharsets.US_ASCII)
+            : Files.readAllBytes(new File(this.inputDirectory, fileName)
+            .toPath());
+        TarArchiveEntry entry = new TarArchiveEntry(fileName);
+        entry.setSize(bytes.length);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+      }
+    }
+    this.descriptorReader.setDescriptorTypes(ServerDescriptor.class);
+    this.descriptorReader.setMemoryMapping(true);
+    List<String> nicknames = new ArrayList<>();
+    for (Descriptor descriptor
+        : this.descriptorReader.readDescriptors(tarball)) {
+      nicknames.add(((ServerDescriptor) descriptor).getNickname());
+    }
+    assertEquals(Arrays.asList("kouettng", "furrygame"), nicknames);
+  }
+
+  @Test
+  public void testDescriptorTypesSkipLargeTarballEntry() throws IOException {
+    File tarball = new File(this.inputDirectory, "mixed.tar");
+    StringBuilder consensus = new StringBuilder(
+        "@type network-status-consensus-3 1.0\n"
+        + "network-status-version 3\n");
+    while (consensus.length() < 20000) {
+      consensus.append("known-flags Exit Fast Guard Running Stable Valid\n");
+    }
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+        Files.newOutputStream(tarball.toPath()))) {
+      for (String fileName : new String[] { "consensus", "fafa", "ffe0" }) {
+        byte[] bytes = "consensus".equals(fileName)
+            ? consensus.toString().getBytes(StandardCharsets.US_ASCII)
+            : Files.readAllBytes(new File(this.inputDirectory, fileName)
+            .toPath());
+        TarArchiveEntry entry = new TarArchiveEntry(fileName);
+        entry.setSize(bytes.length);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+      }
+    }
+    this.descriptorReader.setDescriptorTypes(ServerDescriptor.class);
+    List<String> nicknames = new ArrayList<>();
+    for (Descriptor descriptor
+        : this.descriptorReader.readDescriptors(tarball)) {
+      nicknames.add(((ServerDescriptor) descriptor).getNickname());
+    }
+    assertEquals(Arrays.asList("kouettng", "furrygame"), nicknames);
+  }
+
+  @Test
+  public void testDescriptorTypeAnnotations() throws IOException {
+    this.descriptorReader.setDescriptorTypeAnnotations("extra-info",
+        "server-descriptor");
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("Two files should have been parsed.", 2, count);
+  }
+
+  @Test
+  public void testDescriptorTypeAnnotationsSkipFiles() throws IOException {
+    this.descriptorReader.setDescriptorTypeAnnotations("server");
+    this.descriptorReader.setMemoryMapping(true);
+    int count = this.readAllDescriptors(this.inputDirectory);
+    assertEquals("No descriptors should have been provided.", 0, count);
+    this.assertExcludedFilesParsedFilesAndHistoryFileLines(0, 2, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDescriptorTypesNotDescriptor() {
+    this.descriptorReader.setDescriptorTypes(String.class);
+  }
+
+  /* Write a tarball containing the given number of copies of both input
+   * descriptor files to the given, possibly compressing, output stream. */
+  private void writeTarball(OutputStream outputStream, int copies)
+      throws IOException {
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+        outputStream)) {
+      for (int copy = 0; copy < copies; copy++) {
+        for (String fileName : new String[] { "fafa", "ffe0" }) {
+          byte[] bytes = Files.readAllBytes(
+              new File(this.inputDirectory, fileName).toPath());
+          TarArchiveEntry entry = new TarArchiveEntry(fileName + copy);
+          entry.setSize(bytes.length);
+          tar.putArchiveEntry(entry);
+          tar.write(bytes);
+          tar.closeArchiveEntry();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTarBz2Parallelism() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath()), 1), 100);
+    this.descriptorReader.setParallelism(4);
+    int count = this.readAllDescriptors(tarball);
+    assertEquals("All tarball entries should have been parsed.", 200,
+        count);
+  }
+
+  @Test
+  public void testReadAheadTarballs() throws IOException {
+    File tarballDirectory = this.temporaryFolder.newFolder("tarballs");
+    for (int i = 0; i < 3; i++) {
+      this.writeTarball(new BZip2CompressorOutputStream(Files.newOutputStream(
+          new File(tarballDirectory, i + ".tar.bz2").toPath()), 1), 20);
+      this.writeTarball(Files.newOutputStream(
+          new File(tarballDirectory, i + ".tar").toPath()), 20);
+    }
+    assertTrue(new File(tarballDirectory, "empty.tar").createNewFile());
+    this.descriptorReader.setReadAheadBytes(1024);
+    int count = this.readAllDescriptors(tarballDirectory);
+    assertEquals("All tarball entries should have been parsed.", 240,
+        count);
+    assertEquals(7, this.descriptorReader.getParsedFiles().size());
+  }
+
+  @Test(timeout = 60000)
+  public void testReadAheadCloseEarly() throws IOException {
+    File tarballDirectory = this.temporaryFolder.newFolder("tarballs");
+    for (int i = 0; i < 3; i++) {
+      this.writeTarball(Files.newOutputStream(
+          new File(tarballDirectory, i + ".tar").toPath()), 100);
+    }
+    this.descriptorReader.setReadAheadBytes(1024);
+    this.descriptorReader.setMaxDescriptorsInQueue(1);
+    Iterator<Descriptor> descriptors = this.descriptorReader
+        .readDescriptors(tarballDirectory).iterator();
+    assertTrue(descriptors.hasNext());
+    descriptors.next();
+    this.descriptorReader.close();
+    assertFalse(descriptors.hasNext());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadAheadNegative() {
+    this.descriptorReader.setReadAheadBytes(-1);
+  }
+
+  @Test
+  public void testTimeWindow() throws IOException {
+    File tarball = this.temporaryFolder.newFile("consensuses.tar");
+    String header = "network-status-version 3\nvote-status consensus\n";
+    StringBuilder largeConsensus = new StringBuilder(header);
+    while (largeConsensus.length() < 20000) {
+      largeConsensus.append("known-flags Exit Fast Guard Running Stable\n");
+    }
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+        Files.newOutputStream(tarball.toPath()))) {
+      this.writeTarballEntry(tar, "2020-05-01-09-00-00-consensus",
+          largeConsensus.toString().getBytes());
+      for (int hour = 10; hour < 15; hour++) {
+        this.writeTarballEntry(tar, "consensuses-2020-05/01/2020-05-01-"
+            + hour + "-00-00-consensus", header.getBytes());
+      }
+      this.writeTarballEntry(tar, "consensus", header.getBytes());
+      for (String validAfter
+          : new String[] { "2020-05-01 12:30:00", "2020-05-01 09:00:00" }) {
+        this.writeTarballEntry(tar, "consensus", (header + "valid-after "
+            + validAfter + "\n").getBytes());
+      }
+    }
+    this.descriptorReader.setTimeWindow(1588334400000L, 1588341600000L);
+    assertEquals(4, this.readAllDescriptors(tarball));
+  }
+
+  @Test
+  public void testTimeWindowSkipAnnotatedTarballEntry() throws IOException {
+    File tarball = this.temporaryFolder.newFile("consensuses.tar");
+    String header = "@type network-status-consensus-3 1.0\n"
+        + "network-status-version 3\nvote-status consensus\n"
+        + "consensus-method 28\n";
+    StringBuilder largeConsensus = new StringBuilder(header
+        + "valid-after 2020-05-01 09:00:00\n");
+    while (largeConsensus.length() < 20000) {
+      largeConsensus.append("known-flags Exit Fast Guard Running Stable\n");
+    }
+    byte[] consensusBytes = (header + "valid-after 2020-05-01 12:00:00\n")
+        .getBytes();
+    assertTrue("Valid-after line should start after the first 100 bytes.",
+        largeConsensus.indexOf("valid-after") > 100);
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+        Files.newOutputStream(tarball.toPath()))) {
+      this.writeTarballEntry(tar, "consensus",
+          largeConsensus.toString().getBytes());
+      this.writeTarballEntry(tar, "consensus", consensusBytes);
+    }
+    this.descriptorReader.setTimeWindow(1588334400000L, 1588341600000L);
+    assertEquals(1, this.readAllDescriptors(tarball));
+    assertEquals("Tarball entry outside the time window should not have "
+        + "been read.", consensusBytes.length,
+        this.descriptorReader.getStatistics().getBytesDecompressed());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTimeWindowEndBeforeStart() {
+    this.descriptorReader.setTimeWindow(1588341600000L, 1588334400000L);
+  }
+
+  private void writeTarballEntry(TarArchiveOutputStream tar, String name,
+      byte[] bytes) throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(bytes.length);
+    tar.putArchiveEntry(entry);
+    tar.write(bytes);
+    tar.closeArchiveEntry();
+  }
+
+  @Test
+  public void testTruncatedTarXzParallelism() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.xz");
+    ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+    this.writeTarball(tarBytes, 20);
+    byte[] bytes = tarBytes.toByteArray();
+    try (XZOutputStream xz = new XZOutputStream(
+        Files.newOutputStream(tarball.toPath()), new LZMA2Options())) {
+      for (int offset = 0; offset < bytes.length; offset += 10_000) {
+        xz.write(bytes, offset, Math.min(10_000, bytes.length - offset));
+        xz.endBlock();
+      }
+    }
+    byte[] compressedBytes = Files.readAllBytes(tarball.toPath());
+    Files.write(tarball.toPath(),
+        Arrays.copyOf(compressedBytes, compressedBytes.length / 2));
+    this.descriptorReader.setParallelism(2);
+    int count = this.readAllDescriptors(tarball);
+    assertTrue("Tarball entries before the truncation should have been "
+        + "parsed.", count > 0 && count < 40);
+  }
+
+  @Test
+  public void testTarZst() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.zst");
+    this.writeTarball(new ZstdCompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 1);
+    int count = this.readAllDescriptors(tarball);
+    assertEquals("Both tarball entries should have been parsed.", 2, count);
+  }
+
+  /* Overwrite the given file with zeros without changing its size or
+   * last-modified time, so that it can only be read from the cache. */
+  private void overwriteWithZeros(File file) throws IOException {
+    long lastModified = file.lastModified();
+    Files.write(file.toPath(), new byte[(int) file.length()]);
+    assertTrue(file.setLastModified(lastModified));
+  }
+
+  @Test
+  public void testCacheDirectoryTarBz2() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 2);
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals(4, this.readAllDescriptors(tarball));
+    assertEquals("Tarball should have been cached.", 1,
+        cacheDirectory.listFiles().length);
+    this.overwriteWithZeros(tarball);
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    List<String> nicknames = new ArrayList<>();
+    for (Descriptor descriptor
+        : this.descriptorReader.readDescriptors(tarball)) {
+      assertEquals(tarball, descriptor.getDescriptorFile());
+      nicknames.add(((ServerDescriptor) descriptor).getNickname());
+    }
+    assertEquals("Cached descriptors should have been provided.",
+        Arrays.asList("kouettng", "furrygame", "kouettng", "furrygame"),
+        nicknames);
+    assertEquals(1, this.descriptorReader.getParsedFiles().size());
+    assertEquals("Cached descriptors should not have been decompressed "
+        + "again.", 0L,
+        this.descriptorReader.getStatistics().getBytesDecompressed());
+  }
+
+  @Test
+  public void testCacheDirectoryParallelism() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 20);
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    this.descriptorReader.setParallelism(4);
+    assertEquals(40, this.readAllDescriptors(tarball));
+    this.overwriteWithZeros(tarball);
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    this.descriptorReader.setParallelism(4);
+    List<String> nicknames = new ArrayList<>();
+    for (Descriptor descriptor
+        : this.descriptorReader.readDescriptors(tarball)) {
+      nicknames.add(((ServerDescriptor) descriptor).getNickname());
+    }
+    assertEquals("Descriptors parsed by parser threads should have been "
+        + "cached in their original order.", 40, nicknames.size());
+    for (int i = 0; i < nicknames.size(); i += 2) {
+      assertEquals(Arrays.asList("kouettng", "furrygame"),
+          nicknames.subList(i, i + 2));
+    }
+  }
+
+  @Test
+  public void testCacheDirectoryModifiedTarball() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 2);
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals(4, this.readAllDescriptors(tarball));
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 1);
+    assertTrue(tarball.setLastModified(tarball.lastModified() + 1000L));
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals("Modified tarball should have been read again.", 2,
+        this.readAllDescriptors(tarball));
+  }
+
+  @Test
+  public void testCacheDirectoryGz() throws IOException {
+    File gzFile = this.temporaryFolder.newFile("fafa.gz");
+    try (OutputStream os = new GzipCompressorOutputStream(
+        Files.newOutputStream(gzFile.toPath()))) {
+      os.write(Files.readAllBytes(
+          new File(this.inputDirectory, "fafa").toPath()));
+    }
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals(1, this.readAllDescriptors(gzFile));
+    this.overwriteWithZeros(gzFile);
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals("Cached descriptor file should have been parsed.", 1,
+        this.readAllDescriptors(gzFile));
+  }
+
+  @Test
+  public void testCacheDirectoryMemoryMapping() throws IOException {
+    File cachedDescriptorsFile = this.temporaryFolder.newFile(
+        "cached-descriptors");
+    byte[] fafaBytes = Files.readAllBytes(
+        new File(this.inputDirectory, "fafa").toPath());
+    byte[] ffe0Bytes = Files.readAllBytes(
+        new File(this.inputDirectory, "ffe0").toPath());
+    Files.write(cachedDescriptorsFile.toPath(), fafaBytes);
+    Files.write(cachedDescriptorsFile.toPath(), ffe0Bytes,
+        StandardOpenOption.APPEND);
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    this.descriptorReader.setMemoryMapping(true);
+    List<Descriptor> descriptors = new ArrayList<>();
+    for (Descriptor descriptor
+        : this.descriptorReader.readDescriptors(cachedDescriptorsFile)) {
+      descriptors.add(descriptor);
+    }
+    assertEquals("Memory-mapped file should have been cached.", 1,
+        cacheDirectory.listFiles().length);
+    this.overwriteWithZeros(cachedDescriptorsFile);
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    this.descriptorReader.setMemoryMapping(true);
+    Iterator<Descriptor> cachedDescriptors = this.descriptorReader
+        .readDescriptors(cachedDescriptorsFile).iterator();
+    for (Descriptor descriptor : descriptors) {
+      Descriptor cachedDescriptor = cachedDescriptors.next();
+      assertTrue(cachedDescriptor instanceof ServerDescriptor);
+      assertEquals(descriptor.getAnnotations(),
+          cachedDescriptor.getAnnotations());
+      assertArrayEquals(descriptor.getRawDescriptorBytes(),
+          cachedDescriptor.getRawDescriptorBytes());
+    }
+    assertFalse(cachedDescriptors.hasNext());
+    assertEquals(1, this.descriptorReader.getParsedFiles().size());
+  }
+
+  @Test
+  public void testCacheDirectoryEviction() throws IOException {
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    File[] tarballs = new File[3];
+    for (int i = 0; i < tarballs.length; i++) {
+      tarballs[i] = this.temporaryFolder.newFile("descriptors" + i
+          + ".tar.bz2");
+      this.writeTarball(new BZip2CompressorOutputStream(
+          Files.newOutputStream(tarballs[i].toPath())), 1);
+    }
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals(2, this.readAllDescriptors(tarballs[0]));
+    long cacheFileSize = cacheDirectory.listFiles()[0].length();
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory,
+        2L * cacheFileSize);
+    assertEquals(6, this.readAllDescriptors(tarballs));
+    assertEquals("Least recently used cache file should have been evicted.",
+        2, cacheDirectory.listFiles().length);
+  }
+
+  @Test
+  public void testCacheDirectoryTooSmall() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 1);
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 100L);
+    assertEquals(2, this.readAllDescriptors(tarball));
+    assertEquals("Tarball should not have been cached.", 0,
+        cacheDirectory.listFiles().length);
+  }
+
+  @Test
+  public void testCacheDirectorySkippedEntries() throws IOException {
+    File tarball = this.temporaryFolder.newFile("descriptors.tar.bz2");
+    this.writeTarball(new BZip2CompressorOutputStream(
+        Files.newOutputStream(tarball.toPath())), 1);
+    File cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    this.descriptorReader.setDescriptorTypes(
+        RelayNetworkStatusConsensus.class);
+    assertEquals(0, this.readAllDescriptors(tarball));
+    assertEquals("Tarball with skipped entries should have been cached.",
+        1, cacheDirectory.listFiles().length);
+    this.descriptorReader = new DescriptorReaderImpl();
+    this.descriptorReader.setCacheDirectory(cacheDirectory, 1L << 20);
+    assertEquals("Descriptors cached with other descriptor types should "
+        + "not have been provided.", 2, this.readAllDescriptors(tarball));
+    assertEquals(2, cacheDirectory.listFiles().length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCacheDirectoryNegativeSize() {
+    this.descriptorReader.setCacheDirectory(this.temporaryFolder.getRoot(),
+        -1L);
+  }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LineCursorTest {
+
+  private static LineCursor newCursor(String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    return new LineCursor(bytes, 0, bytes.length);
+  }
+
+  private static List<String> lines(String string) {
+    LineCursor cursor = newCursor(string);
+    List<String> lines = new ArrayList<>();
+    while (cursor.nextLine()) {
+      lines.add(cursor.line());
+    }
+    return lines;
+  }
+
+  private static String[] parts(String line) {
+    LineCursor cursor = newCursor("x\n" + line + "\n");
+    assertTrue(cursor.nextLine());
+    assertTrue(cursor.nextLine());
+    return cursor.parts();
+  }
+
+  @Test
+  public void testLines() {
+    assertEquals(Arrays.asList("a", "b"), lines("a\nb"));
+    assertEquals(Arrays.asList("a", "b"), lines("a\nb\n"));
+  }
+
+  @Test
+  public void testEmptyLines() {
+    assertEquals(new ArrayList<String>(), lines(""));
+    assertEquals(new ArrayList<String>(), lines("\n"));
+    assertEquals(Arrays.asList("", "a"), lines("\n\na"));
+    assertEquals(Arrays.asList("a", ""), lines("a\n\n"));
+    assertEquals(Arrays.asList("a", "", "b"), lines("a\n\nb"));
+  }
+
+  @Test
+  public void testRange() {
+    byte[] bytes = "x\na b\nc\ny".getBytes(StandardCharsets.US_ASCII);
+    LineCursor cursor = new LineCursor(bytes, 1, 7);
+    assertTrue(cursor.nextLine());
+    assertEquals("a b", cursor.line());
+    assertEquals(2, cursor.lineOffset());
+    assertEquals(3, cursor.lineLength());
+    assertTrue(cursor.nextLine());
+    assertEquals("c", cursor.line());
+    assertFalse(cursor.nextLine());
+  }
+
+  @Test
+  public void testParts() {
+    assertArrayEquals(new String[] { "r", "a", "b" }, parts("r a \tb"));
+    assertArrayEquals(new String[] { "", "a" }, parts(" a"));
+    assertArrayEquals(new String[] { "a" }, parts("a \t "));
+    assertArrayEquals(new String[0], parts(" "));
+    assertArrayEquals(new String[] { "" }, parts(""));
+  }
+
+  @Test
+  public void testNonAsciiParts() {
+    assertArrayEquals(new String[] { "contact", "J\u00fcrgen" },
+        parts("contact J\u00fcrgen"));
+  }
+
+  @Test
+  public void testOptPrefix() {
+    LineCursor cursor = newCursor("opt fingerprint A B\n");
+    assertTrue(cursor.nextLine());
+    assertEquals("opt fingerprint A B", cursor.line());
+    assertEquals("fingerprint A B", cursor.lineNoOpt());
+    assertEquals("fingerprint", cursor.keywordNoOpt());
+    assertArrayEquals(new String[] { "opt", "fingerprint", "A", "B" },
+        cursor.parts());
+    assertArrayEquals(new String[] { "fingerprint", "A", "B" },
+        cursor.partsNoOpt());
+  }
+
+  @Test
+  public void testNoOptPrefix() {
+    LineCursor cursor = newCursor("option\n");
+    assertTrue(cursor.nextLine());
+    assertEquals("option", cursor.lineNoOpt());
+    assertEquals("option", cursor.keywordNoOpt());
+    assertArrayEquals(new String[] { "option" }, cursor.partsNoOpt());
+  }
+
+  @Test
+  public void testLineStartsWith() {
+    LineCursor cursor = newCursor("@type server-descriptor 1.0\n");
+    assertTrue(cursor.nextLine());
+    assertTrue(cursor.lineStartsWith("@"));
+    assertTrue(cursor.lineStartsWith("@type "));
+    assertFalse(cursor.lineStartsWith("router"));
+    assertFalse(cursor.lineStartsWith("@type server-descriptor 1.0 "));
+  }
+}
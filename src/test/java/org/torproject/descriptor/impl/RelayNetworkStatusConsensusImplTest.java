@@ -8,6 +8,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.torproject.descriptor.DescriptorParseException;
 import org.torproject.descriptor.DirectorySignature;
@@ -1635,5 +1636,89 @@ public class RelayNetworkStatusConsensusImplTest {
     unrecognizedLines.add(unrecognizedLine);
     assertEquals(unrecognizedLines, consensus.getUnrecognizedLines());
   }
+
+  private static RelayNetworkStatusConsensus createLazily(String statusEntry)
+      throws DescriptorParseException {
+    ConsensusBuilder cb = new ConsensusBuilder();
+    if (null != statusEntry) {
+      cb.statusEntries.add(statusEntry);
+    }
+    byte[] consensusBytes = cb.buildConsensusBytes();
+    return new RelayNetworkStatusConsensusImpl(consensusBytes,
+        new int[] { 0, consensusBytes.length }, null, true);
+  }
+
+  @Test
+  public void testLazyStatusEntries() throws DescriptorParseException {
+    RelayNetworkStatusConsensus eager = new ConsensusBuilder()
+        .buildConsensus();
+    RelayNetworkStatusConsensus lazy = createLazily(null);
+    assertEquals(eager.getStatusEntries().keySet(),
+        lazy.getStatusEntries().keySet());
+    for (NetworkStatusEntry eagerEntry : eager.getStatusEntries().values()) {
+      NetworkStatusEntry lazyEntry = lazy.getStatusEntry(
+          eagerEntry.getFingerprint());
+      assertEquals(eagerEntry.getNickname(), lazyEntry.getNickname());
+      assertEquals(eagerEntry.getAddress(), lazyEntry.getAddress());
+      assertEquals(eagerEntry.getFlags(), lazyEntry.getFlags());
+      assertEquals(eagerEntry.getVersion(), lazyEntry.getVersion());
+      assertEquals(eagerEntry.getProtocols(), lazyEntry.getProtocols());
+      assertEquals(eagerEntry.getBandwidth(), lazyEntry.getBandwidth());
+      assertEquals(eagerEntry.getDefaultPolicy(),
+          lazyEntry.getDefaultPolicy());
+      assertEquals(eagerEntry.getPortList(), lazyEntry.getPortList());
+    }
+    assertEquals(eager.getUnrecognizedLines(), lazy.getUnrecognizedLines());
+  }
+
+  @Test
+  public void testLazyStatusEntriesMalformedLine()
+      throws DescriptorParseException {
+    StatusEntryBuilder seb = new StatusEntryBuilder();
+    seb.wLine = "w";
+    NetworkStatusEntry entry = createLazily(seb.buildStatusEntry())
+        .getStatusEntry("00343A8024F70E214728F0C5AF7ACE0C1508F073");
+    assertEquals(new TreeSet<>(Arrays.asList("Exit", "Fast", "Named",
+        "Running", "Stable", "Valid")), entry.getFlags());
+    this.thrown.expect(IllegalStateException.class);
+    entry.getBandwidth();
+  }
+
+  @Test
+  public void testLazyStatusEntriesAfterMalformedLine()
+      throws DescriptorParseException {
+    StatusEntryBuilder seb = new StatusEntryBuilder();
+    seb.wLine = "w";
+    NetworkStatusEntry entry = createLazily(seb.buildStatusEntry())
+        .getStatusEntry("00343A8024F70E214728F0C5AF7ACE0C1508F073");
+    for (int i = 0; i < 2; i++) {
+      try {
+        entry.getBandwidth();
+        fail("Malformed w line should have been reported again.");
+      } catch (IllegalStateException e) {
+        /* Expected. */
+      }
+    }
+    assertEquals("accept", entry.getDefaultPolicy());
+    assertEquals("80,1194,1220,1293", entry.getPortList());
+  }
+
+  @Test
+  public void testLazyStatusEntriesDuplicateSLine()
+      throws DescriptorParseException {
+    this.thrown.expect(DescriptorParseException.class);
+    StatusEntryBuilder seb = new StatusEntryBuilder();
+    seb.sLine = "s Fast\ns Valid";
+    createLazily(seb.buildStatusEntry());
+  }
+
+  @Test
+  public void testLazyStatusEntriesUnrecognizedLine()
+      throws DescriptorParseException {
+    StatusEntryBuilder seb = new StatusEntryBuilder();
+    seb.pLine = "p accept 80\nunrecognized-line 1";
+    assertEquals(Arrays.asList("unrecognized-line 1"),
+        createLazily(seb.buildStatusEntry()).getUnrecognizedLines());
+  }
 }
 
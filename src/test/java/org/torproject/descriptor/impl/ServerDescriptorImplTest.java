@@ -3,6 +3,7 @@
 
 package org.torproject.descriptor.impl;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -795,6 +796,54 @@ public class ServerDescriptorImplTest {
     assertEquals(1325390599000L, descriptor.getPublishedMillis());
   }
 
+  @Test
+  public void testPublishedFeb29() throws DescriptorParseException {
+    ServerDescriptor descriptor = DescriptorBuilder
+        .createWithPublishedLine("published 2012-02-29 04:03:19");
+    assertEquals(1330488199000L, descriptor.getPublishedMillis());
+  }
+
+  @Test
+  public void testPublishedFeb29NoLeapYear() throws DescriptorParseException {
+    this.thrown.expect(DescriptorParseException.class);
+    this.thrown.expectMessage("Illegal timestamp format in line "
+        + "'published 2011-02-29 04:03:19'.");
+    DescriptorBuilder.createWithPublishedLine("published 2011-02-29 "
+        + "04:03:19");
+  }
+
+  @Test
+  public void testPublishedSingleDigits() throws DescriptorParseException {
+    ServerDescriptor descriptor = DescriptorBuilder
+        .createWithPublishedLine("published 2012-1-1 4:3:19");
+    assertEquals(1325390599000L, descriptor.getPublishedMillis());
+  }
+
+  @Test
+  public void testPublished2038() throws DescriptorParseException {
+    ServerDescriptor descriptor = DescriptorBuilder
+        .createWithPublishedLine("published 2038-01-19 03:14:07");
+    assertEquals(2147483647000L, descriptor.getPublishedMillis());
+  }
+
+  @Test
+  public void testPublishedSecond60() throws DescriptorParseException {
+    this.thrown.expect(DescriptorParseException.class);
+    this.thrown.expectMessage("Illegal timestamp format in line "
+        + "'published 2012-01-01 04:03:60'.");
+    DescriptorBuilder.createWithPublishedLine("published 2012-01-01 "
+        + "04:03:60");
+  }
+
+  @Test
+  public void testPublishedExponent() throws DescriptorParseException {
+    this.thrown.expect(DescriptorParseException.class);
+    this.thrown.expectMessage("Illegal timestamp format in line "
+        + "'published 20E2-01-01 04:03:19'.");
+    DescriptorBuilder.createWithPublishedLine("published 20E2-01-01 "
+        + "04:03:19");
+  }
+
   @Test
   public void testFingerprintNoOpt() throws DescriptorParseException {
     ServerDescriptor descriptor = DescriptorBuilder
@@ -1324,6 +1373,46 @@ public class ServerDescriptorImplTest {
     assertTrue(bandwidthValues.isEmpty());
   }
 
+  @Test
+  public void testWriteHistoryPrimitives() throws DescriptorParseException {
+    ServerDescriptor descriptor = DescriptorBuilder
+        .createWithWriteHistoryLine("write-history 2012-01-01 03:51:44 "
+        + "(900 s) 4345856,261120,7591936,1748992");
+    BandwidthHistory parsedWriteHistory = descriptor.getWriteHistory();
+    long[] bandwidthValues = parsedWriteHistory.getBandwidthValueArray();
+    assertArrayEquals(new long[] { 4345856L, 261120L, 7591936L, 1748992L },
+        bandwidthValues);
+    bandwidthValues[0] = 0L;
+    assertEquals(4345856L, parsedWriteHistory.getBandwidthValueArray()[0]);
+    List<Long> visited = new ArrayList<>();
+    parsedWriteHistory.forEachBandwidthValue((intervalEndMillis, value) -> {
+      visited.add(intervalEndMillis);
+      visited.add(value);
+    });
+    assertEquals(Arrays.asList(1325387204000L, 4345856L, 1325388104000L,
+        261120L, 1325389004000L, 7591936L, 1325389904000L, 1748992L),
+        visited);
+    assertEquals(13947904L, parsedWriteHistory.getTotalBandwidth());
+    assertEquals(7853056L, parsedWriteHistory.getTotalBandwidth(
+        1325388104000L, 1325389904000L));
+    assertEquals(0L, parsedWriteHistory.getTotalBandwidth(
+        1325389904001L, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testWriteHistoryPrimitivesNoValues()
+      throws DescriptorParseException {
+    ServerDescriptor descriptor = DescriptorBuilder
+        .createWithWriteHistoryLine("write-history 2012-01-01 03:51:44 "
+        + "(900 s)");
+    BandwidthHistory parsedWriteHistory = descriptor.getWriteHistory();
+    assertEquals(0, parsedWriteHistory.getBandwidthValueArray().length);
+    parsedWriteHistory.forEachBandwidthValue((intervalEndMillis, value) -> {
+      throw new AssertionError("There are no values to visit.");
+    });
+    assertEquals(0L, parsedWriteHistory.getTotalBandwidth());
+  }
+
   @Test
   public void testWriteHistoryOpt() throws DescriptorParseException {
     ServerDescriptor descriptor = DescriptorBuilder
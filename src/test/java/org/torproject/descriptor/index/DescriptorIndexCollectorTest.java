@@ -3,6 +3,7 @@
 
 package org.torproject.descriptor.index;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -10,6 +11,9 @@ import static org.junit.Assert.assertTrue;
 
 import org.torproject.descriptor.DescriptorCollector;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -17,12 +21,24 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DescriptorIndexCollectorTest {
 
@@ -290,5 +306,230 @@ public class DescriptorIndexCollectorTest {
     new DescriptorIndexCollector()
         .fetchRemoteFiles("", fm, 100L, dir, new TreeMap<>());
   }
+
+  /* Local stand-in for a CollecTor instance serving files via HTTP that
+   * supports requesting byte ranges and that can be told to fail. */
+  private static class RemoteFiles implements HttpHandler {
+
+    private final Map<String, byte[]> files = new HashMap<>();
+
+    private final List<String> requests =
+        Collections.synchronizedList(new ArrayList<>());
+
+    /* Number of requests that will only receive part of the file. */
+    private final AtomicInteger truncatedResponses = new AtomicInteger();
+
+    /* Number of requests that will receive an internal server error. */
+    private final AtomicInteger failedResponses = new AtomicInteger();
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
+    private final AtomicInteger maxActiveRequests = new AtomicInteger();
+
+    private final HttpServer server;
+
+    private RemoteFiles() throws IOException {
+      this.server = HttpServer.create(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      this.server.createContext("/", this);
+      this.server.setExecutor(Executors.newCachedThreadPool());
+      this.server.start();
+    }
+
+    private String baseUrl() {
+      return "http://" + InetAddress.getLoopbackAddress().getHostAddress()
+          + ":" + this.server.getAddress().getPort();
+    }
+
+    private void stop() {
+      this.server.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int active = this.activeRequests.incrementAndGet();
+      this.maxActiveRequests.accumulateAndGet(active, Math::max);
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      this.requests.add(exchange.getRequestURI().getPath()
+          + (null == range ? "" : " " + range));
+      try (OutputStream os = exchange.getResponseBody()) {
+        Thread.sleep(50L);
+        byte[] file = this.files.get(exchange.getRequestURI().getPath());
+        if (null == file) {
+          exchange.sendResponseHeaders(404, -1);
+          return;
+        }
+        if (this.failedResponses.getAndDecrement() > 0) {
+          exchange.sendResponseHeaders(500, -1);
+          return;
+        }
+        int offset = null == range ? 0
+            : Integer.parseInt(range.substring("bytes=".length(),
+            range.length() - 1));
+        if (offset > 0) {
+          exchange.getResponseHeaders().add("Content-Range", "bytes "
+              + offset + "-" + (file.length - 1) + "/" + file.length);
+          exchange.sendResponseHeaders(206, file.length - offset);
+        } else {
+          exchange.sendResponseHeaders(200, file.length);
+        }
+        if (this.truncatedResponses.getAndDecrement() > 0) {
+          os.write(file, offset, (file.length - offset) / 2);
+          os.flush();
+          throw new IOException("Truncating response.");
+        }
+        os.write(file, offset, file.length - offset);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        this.activeRequests.decrementAndGet();
+      }
+    }
+  }
+
+  private SortedMap<String, FileNode> addRemoteFiles(RemoteFiles remoteFiles,
+      int count, int size) {
+    SortedMap<String, FileNode> fm = new TreeMap<>();
+    for (int i = 0; i < count; i++) {
+      byte[] file = new byte[size];
+      new Random(i).nextBytes(file);
+      remoteFiles.files.put("/a/f" + i, file);
+      fm.put("a/f" + i, new FileNode("f" + i, size, "2100-01-01 01:01"));
+    }
+    return fm;
+  }
+
+  @Test
+  public void testFetchConcurrently() throws Exception {
+    RemoteFiles remoteFiles = new RemoteFiles();
+    try {
+      SortedMap<String, FileNode> fm = addRemoteFiles(remoteFiles, 8, 1000);
+      File localFolder = tmpf.newFolder();
+      DescriptorIndexCollector dc = new DescriptorIndexCollector();
+      dc.setMaxConnections(4);
+      assertTrue(dc.fetchRemoteFiles(remoteFiles.baseUrl(), fm, 0L,
+          localFolder, new TreeMap<>()));
+      for (int i = 0; i < 8; i++) {
+        assertArrayEquals(remoteFiles.files.get("/a/f" + i),
+            Files.readAllBytes(new File(localFolder, "a/f" + i).toPath()));
+      }
+      assertEquals(8, remoteFiles.requests.size());
+      assertTrue("at most " + remoteFiles.maxActiveRequests.get(),
+          remoteFiles.maxActiveRequests.get() > 1);
+      assertTrue(remoteFiles.maxActiveRequests.get() <= 4);
+    } finally {
+      remoteFiles.stop();
+    }
+  }
+
+  @Test
+  public void testResumeTruncatedFetch() throws Exception {
+    RemoteFiles remoteFiles = new RemoteFiles();
+    try {
+      SortedMap<String, FileNode> fm = addRemoteFiles(remoteFiles, 1, 1000);
+      remoteFiles.truncatedResponses.set(1);
+      File localFolder = tmpf.newFolder();
+      DescriptorIndexCollector dc = new DescriptorIndexCollector(1L);
+      assertTrue(dc.fetchRemoteFiles(remoteFiles.baseUrl(), fm, 0L,
+          localFolder, new TreeMap<>()));
+      assertArrayEquals(remoteFiles.files.get("/a/f0"),
+          Files.readAllBytes(new File(localFolder, "a/f0").toPath()));
+      assertEquals(Arrays.asList("/a/f0", "/a/f0 bytes=500-"),
+          remoteFiles.requests);
+      assertFalse(new File(localFolder, "a/.f0").exists());
+    } finally {
+      remoteFiles.stop();
+    }
+  }
+
+  @Test
+  public void testResumePreviousCollection() throws Exception {
+    RemoteFiles remoteFiles = new RemoteFiles();
+    try {
+      SortedMap<String, FileNode> fm = addRemoteFiles(remoteFiles, 1, 1000);
+      remoteFiles.truncatedResponses.set(1);
+      File localFolder = tmpf.newFolder();
+      DescriptorIndexCollector dc = new DescriptorIndexCollector();
+      dc.setMaxRetries(0);
+      assertTrue(dc.fetchRemoteFiles(remoteFiles.baseUrl(), fm, 0L,
+          localFolder, new TreeMap<>()));
+      assertFalse(new File(localFolder, "a/f0").exists());
+      assertEquals(500L, new File(localFolder, "a/.f0").length());
+      dc = new DescriptorIndexCollector();
+      assertTrue(dc.fetchRemoteFiles(remoteFiles.baseUrl(), fm, 0L,
+          localFolder, new TreeMap<>()));
+      assertArrayEquals(remoteFiles.files.get("/a/f0"),
+          Files.readAllBytes(new File(localFolder, "a/f0").toPath()));
+      assertEquals(Arrays.asList("/a/f0", "/a/f0 bytes=500-"),
+          remoteFiles.requests);
+    } finally {
+      remoteFiles.stop();
+    }
+  }
+
+  @Test
+  public void testRestartChangedRemoteFile() throws Exception {
+    RemoteFiles remoteFiles = new RemoteFiles();
+    try {
+      SortedMap<String, FileNode> fm = addRemoteFiles(remoteFiles, 1, 1000);
+      File localFolder = tmpf.newFolder();
+      File tempFile = new File(makeDirs(localFolder.toString(), "a"), ".f0");
+      Files.write(tempFile.toPath(), new byte[500]);
+      tempFile.setLastModified(fm.get("a/f0").lastModifiedMillis() - 1L);
+      DescriptorIndexCollector dc = new DescriptorIndexCollector();
+      assertTrue(dc.fetchRemoteFiles(remoteFiles.baseUrl(), fm, 0L,
+          localFolder, new TreeMap<>()));
+      assertArrayEquals(remoteFiles.files.get("/a/f0"),
+          Files.readAllBytes(new File(localFolder, "a/f0").toPath()));
+      assertEquals(Arrays.asList("/a/f0"), remoteFiles.requests);
+    } finally {
+      remoteFiles.stop();
+    }
+  }
+
+  @Test
+  public void testRetriesExhausted() throws Exception {
+    RemoteFiles remoteFiles = new RemoteFiles();
+    try {
+      SortedMap<String, FileNode> fm = addRemoteFiles(remoteFiles, 1, 1000);
+      remoteFiles.failedResponses.set(3);
+      File localFolder = tmpf.newFolder();
+      DescriptorIndexCollector dc = new DescriptorIndexCollector(1L);
+      dc.setMaxRetries(1);
+      assertTrue(dc.fetchRemoteFiles(remoteFiles.baseUrl(), fm, 0L,
+          localFolder, new TreeMap<>()));
+      assertFalse(new File(localFolder, "a/f0").exists());
+      assertEquals(2, remoteFiles.requests.size());
+    } finally {
+      remoteFiles.stop();
+    }
+  }
+
+  @Test
+  public void testNoRetryForMissingFile() throws Exception {
+    RemoteFiles remoteFiles = new RemoteFiles();
+    try {
+      SortedMap<String, FileNode> fm = addRemoteFiles(remoteFiles, 1, 1000);
+      remoteFiles.files.clear();
+      File localFolder = tmpf.newFolder();
+      DescriptorIndexCollector dc = new DescriptorIndexCollector();
+      assertTrue(dc.fetchRemoteFiles(remoteFiles.baseUrl(), fm, 0L,
+          localFolder, new TreeMap<>()));
+      assertFalse(new File(localFolder, "a/f0").exists());
+      assertEquals(Arrays.asList("/a/f0"), remoteFiles.requests);
+    } finally {
+      remoteFiles.stop();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalMaxConnections() {
+    new DescriptorIndexCollector().setMaxConnections(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalMaxRetries() {
+    new DescriptorIndexCollector().setMaxRetries(-1);
+  }
 }
 
@@ -0,0 +1,65 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Tests counting bytes read from input streams. */
+public class CountingInputStreamTest {
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(2020).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testReadAll() throws IOException {
+    byte[] bytes = this.randomBytes(100_000);
+    LongAdder bytesRead = new LongAdder();
+    try (InputStream is = new CountingInputStream(
+        new ByteArrayInputStream(bytes), bytesRead::add)) {
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+    assertEquals(bytes.length, bytesRead.sum());
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    byte[] bytes = this.randomBytes(1_000);
+    LongAdder bytesRead = new LongAdder();
+    try (InputStream is = new CountingInputStream(
+        new ByteArrayInputStream(bytes), bytesRead::add)) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(bytes[i] & 0xff, is.read());
+      }
+      assertEquals(10L, bytesRead.sum());
+      assertEquals(990, IOUtils.readFully(is, new byte[2_000]));
+      assertEquals(-1, is.read());
+    }
+    assertEquals(bytes.length, bytesRead.sum());
+  }
+
+  @Test
+  public void testSkipNotCounted() throws IOException {
+    byte[] bytes = this.randomBytes(1_000);
+    LongAdder bytesRead = new LongAdder();
+    try (InputStream is = new CountingInputStream(
+        new ByteArrayInputStream(bytes), bytesRead::add)) {
+      assertEquals(600L, is.skip(600L));
+      assertEquals(400, IOUtils.readFully(is, new byte[400]));
+    }
+    assertEquals(400L, bytesRead.sum());
+  }
+}
@@ -0,0 +1,159 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Tests locating blocks in bzip2 streams and decompressing them in
+ * parallel. */
+public class ParallelBzip2InputStreamTest {
+
+  private byte[] uncompressedBytes(int length) {
+    byte[] bytes = new byte[length];
+    Random random = new Random(2020);
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) ('a' + random.nextInt(20));
+    }
+    return bytes;
+  }
+
+  /* Compress the given bytes using the smallest block size of 100 kB, so
+   * that a few hundred kilobytes already result in several blocks. */
+  private byte[] compress(byte[] bytes) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream os = new BZip2CompressorOutputStream(baos, 1)) {
+      os.write(bytes);
+    }
+    return baos.toByteArray();
+  }
+
+  private byte[] decompress(byte[] compressedBytes, int threads)
+      throws IOException {
+    try (InputStream is = new ParallelBzip2InputStream(
+        new ByteArrayInputStream(compressedBytes), threads)) {
+      return IOUtils.toByteArray(is);
+    }
+  }
+
+  @Test
+  public void testMultipleBlocks() throws IOException {
+    byte[] bytes = this.uncompressedBytes(500_000);
+    assertArrayEquals(bytes, this.decompress(this.compress(bytes), 4));
+  }
+
+  @Test
+  public void testMultipleBlocksSingleThread() throws IOException {
+    byte[] bytes = this.uncompressedBytes(500_000);
+    assertArrayEquals(bytes, this.decompress(this.compress(bytes), 1));
+  }
+
+  @Test
+  public void testSingleBlock() throws IOException {
+    byte[] bytes = this.uncompressedBytes(1_000);
+    assertArrayEquals(bytes, this.decompress(this.compress(bytes), 4));
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    byte[] bytes = this.uncompressedBytes(250_000);
+    try (InputStream is = new ParallelBzip2InputStream(
+        new ByteArrayInputStream(this.compress(bytes)), 2)) {
+      for (byte expected : bytes) {
+        assertEquals(expected & 0xff, is.read());
+      }
+      assertEquals(-1, is.read());
+    }
+  }
+
+  @Test
+  public void testConcatenatedStreams() throws IOException {
+    byte[] bytes = this.uncompressedBytes(300_000);
+    byte[] first = this.compress(Arrays.copyOfRange(bytes, 0, 120_000));
+    byte[] second = this.compress(Arrays.copyOfRange(bytes, 120_000,
+        bytes.length));
+    byte[] concatenated = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, concatenated, first.length, second.length);
+    assertArrayEquals(bytes, this.decompress(concatenated, 3));
+  }
+
+  @Test
+  public void testEmptyStream() throws IOException {
+    assertEquals(0, this.decompress(this.compress(new byte[0]), 4).length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedStream() throws IOException {
+    byte[] compressedBytes = this.compress(this.uncompressedBytes(500_000));
+    this.decompress(Arrays.copyOf(compressedBytes,
+        compressedBytes.length / 2), 4);
+  }
+
+  @Test
+  public void testTruncatedStreamCompleteBlocks() throws IOException {
+    byte[] bytes = this.uncompressedBytes(500_000);
+    byte[] compressedBytes = this.compress(bytes);
+    byte[] readBytes = new byte[bytes.length];
+    int length = 0;
+    boolean failed = false;
+    try (InputStream is = new ParallelBzip2InputStream(
+        new ByteArrayInputStream(Arrays.copyOf(compressedBytes,
+        compressedBytes.length / 2)), 4)) {
+      int read;
+      while ((read = is.read(readBytes, length, readBytes.length - length))
+          > 0) {
+        length += read;
+      }
+    } catch (IOException e) {
+      failed = true;
+    }
+    assertTrue(failed);
+    assertTrue(length > 0);
+    assertArrayEquals(Arrays.copyOf(bytes, length),
+        Arrays.copyOf(readBytes, length));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotBzip2() throws IOException {
+    byte[] compressedBytes = this.compress(this.uncompressedBytes(1_000));
+    compressedBytes[0] = 0;
+    this.decompress(compressedBytes, 4);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNoBlocks() throws IOException {
+    this.decompress("BZh9 is not followed by any block.".getBytes(), 4);
+  }
+
+  @Test(expected = IOException.class)
+  public void testEmptyInput() throws IOException {
+    this.decompress(new byte[0], 4);
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadAfterClose() throws IOException {
+    InputStream is = new ParallelBzip2InputStream(new ByteArrayInputStream(
+        this.compress(this.uncompressedBytes(1_000))), 4);
+    is.close();
+    is.read();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroThreads() {
+    new ParallelBzip2InputStream(new ByteArrayInputStream(new byte[0]), 0);
+  }
+}
@@ -0,0 +1,181 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Tests writing multi-block xz files and decompressing them in
+ * parallel. */
+public class ParallelXzInputStreamTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private byte[] uncompressedBytes() {
+    byte[] bytes = new byte[100_000];
+    Random random = new Random(2020);
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return bytes;
+  }
+
+  private File writeXzFile(byte[] bytes, long blockSize)
+      throws IOException {
+    File file = this.temporaryFolder.newFile();
+    try (OutputStream os = new BlockXzOutputStream(
+        Files.newOutputStream(file.toPath()), blockSize)) {
+      os.write(bytes, 0, 1);
+      os.write(bytes, 1, bytes.length - 1);
+    }
+    return file;
+  }
+
+  @Test
+  public void testMultipleBlocks() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 7_000L);
+    try (InputStream is = ParallelXzInputStream.open(file, 4)) {
+      assertTrue(is instanceof ParallelXzInputStream);
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+      assertEquals(-1, is.read());
+    }
+  }
+
+  @Test
+  public void testMultipleBlocksSingleByteReads() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 30_000L);
+    try (InputStream is = ParallelXzInputStream.open(file, 2)) {
+      for (byte expected : bytes) {
+        assertEquals(expected & 0xff, is.read());
+      }
+      assertEquals(-1, is.read());
+    }
+  }
+
+  @Test
+  public void testMultipleBlocksSequentialDecompression() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 7_000L);
+    try (InputStream is = new XZCompressorInputStream(
+        Files.newInputStream(file.toPath()))) {
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+  }
+
+  @Test
+  public void testSingleBlock() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, BlockXzOutputStream.DEFAULT_BLOCK_SIZE);
+    try (InputStream is = ParallelXzInputStream.open(file, 4)) {
+      assertTrue(is instanceof XZCompressorInputStream);
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+  }
+
+  @Test
+  public void testLargeBlocks() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 30_000L);
+    try (InputStream is = ParallelXzInputStream.open(file, 4,
+        (bytesRead) -> { }, 20_000L)) {
+      assertTrue(is instanceof XZCompressorInputStream);
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+  }
+
+  @Test
+  public void testBytesReadMultipleBlocks() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 7_000L);
+    LongAdder bytesRead = new LongAdder();
+    try (InputStream is = ParallelXzInputStream.open(file, 4,
+        bytesRead::add)) {
+      assertTrue(is instanceof ParallelXzInputStream);
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+    assertTrue(bytesRead.sum() >= file.length());
+  }
+
+  @Test
+  public void testBytesReadSingleThread() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 7_000L);
+    LongAdder bytesRead = new LongAdder();
+    try (InputStream is = ParallelXzInputStream.open(file, 1,
+        bytesRead::add)) {
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+    assertEquals(file.length(), bytesRead.sum());
+  }
+
+  @Test
+  public void testSingleThread() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 7_000L);
+    try (InputStream is = ParallelXzInputStream.open(file, 1)) {
+      assertTrue(is instanceof XZCompressorInputStream);
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+  }
+
+  @Test
+  public void testTruncatedFile() throws IOException {
+    byte[] bytes = this.uncompressedBytes();
+    File file = this.writeXzFile(bytes, 7_000L);
+    byte[] compressedBytes = Files.readAllBytes(file.toPath());
+    Files.write(file.toPath(),
+        Arrays.copyOf(compressedBytes, compressedBytes.length / 2));
+    byte[] readBytes = new byte[bytes.length];
+    int length = 0;
+    boolean failed = false;
+    try (InputStream is = ParallelXzInputStream.open(file, 4)) {
+      assertTrue(is instanceof XZCompressorInputStream);
+      int read;
+      while ((read = is.read(readBytes, length, readBytes.length - length))
+          > 0) {
+        length += read;
+      }
+    } catch (IOException e) {
+      failed = true;
+    }
+    assertTrue(failed);
+    assertTrue(length > 0);
+    assertArrayEquals(Arrays.copyOf(bytes, length),
+        Arrays.copyOf(readBytes, length));
+  }
+
+  @Test
+  public void testFileTypeRoundTrip() throws Exception {
+    byte[] bytes = this.uncompressedBytes();
+    assertArrayEquals(bytes,
+        FileType.XZ.decompress(FileType.XZ.compress(bytes)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadAfterClose() throws IOException {
+    File file = this.writeXzFile(this.uncompressedBytes(), 7_000L);
+    InputStream is = ParallelXzInputStream.open(file, 4);
+    is.close();
+    is.read();
+  }
+}
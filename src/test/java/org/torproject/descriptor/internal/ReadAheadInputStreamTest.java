@@ -0,0 +1,134 @@
+/* Copyright 2020 The Tor Project
+ * See LICENSE for licensing information */
+
+package org.torproject.descriptor.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/** Tests reading ahead from input streams on a separate thread. */
+public class ReadAheadInputStreamTest {
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(2020).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testSeveralChunks() throws IOException {
+    byte[] bytes = this.randomBytes(1_000_000);
+    try (InputStream is = new ReadAheadInputStream(
+        new ByteArrayInputStream(bytes), 300_000)) {
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+  }
+
+  @Test
+  public void testSmallBuffer() throws IOException {
+    byte[] bytes = this.randomBytes(10_000);
+    try (InputStream is = new ReadAheadInputStream(
+        new ByteArrayInputStream(bytes), 7)) {
+      assertArrayEquals(bytes, IOUtils.toByteArray(is));
+    }
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    byte[] bytes = this.randomBytes(1_000);
+    byte[] readBytes = new byte[bytes.length];
+    try (InputStream is = new ReadAheadInputStream(
+        new ByteArrayInputStream(bytes), 100)) {
+      for (int i = 0; i < readBytes.length; i++) {
+        readBytes[i] = (byte) is.read();
+      }
+      assertEquals(-1, is.read());
+    }
+    assertArrayEquals(bytes, readBytes);
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    try (InputStream is = new ReadAheadInputStream(
+        new ByteArrayInputStream(new byte[0]), 100)) {
+      assertEquals(-1, is.read());
+    }
+  }
+
+  @Test
+  public void testFailure() {
+    byte[] bytes = this.randomBytes(1_000);
+    InputStream failing = new InputStream() {
+
+      private int position = 0;
+
+      @Override
+      public int read() throws IOException {
+        if (this.position >= bytes.length) {
+          throw new IOException("Failing on purpose.");
+        }
+        return bytes[this.position++] & 0xff;
+      }
+    };
+    byte[] readBytes = new byte[2 * bytes.length];
+    int length = 0;
+    boolean failed = false;
+    try (InputStream is = new ReadAheadInputStream(failing, 100)) {
+      int read;
+      while ((read = is.read(readBytes, length, readBytes.length - length))
+          > 0) {
+        length += read;
+      }
+    } catch (IOException e) {
+      assertEquals("Failing on purpose.", e.getCause().getMessage());
+      failed = true;
+    }
+    assertTrue(failed);
+    assertArrayEquals(bytes, Arrays.copyOf(readBytes, length));
+  }
+
+  @Test(timeout = 60000)
+  public void testCloseStopsReadingAhead() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    InputStream endless = new InputStream() {
+
+      @Override
+      public int read() {
+        return 'a';
+      }
+
+      @Override
+      public void close() {
+        closed.countDown();
+      }
+    };
+    InputStream is = new ReadAheadInputStream(endless, 100);
+    assertEquals('a', is.read());
+    is.close();
+    closed.await();
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadAfterClose() throws IOException {
+    InputStream is = new ReadAheadInputStream(
+        new ByteArrayInputStream(this.randomBytes(100)), 100);
+    is.close();
+    is.read();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroBuffer() {
+    new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), 0);
+  }
+}